@@ -1,179 +1,363 @@
-package model;
-
-import domainapp.basics.exceptions.ConstraintViolationException;
-import domainapp.basics.model.meta.AttrRef;
-import domainapp.basics.model.meta.DAssoc;
-import domainapp.basics.model.meta.DAssoc.AssocEndType;
-import domainapp.basics.model.meta.DAssoc.AssocType;
-import domainapp.basics.model.meta.DAssoc.Associate;
-import domainapp.basics.model.meta.DAttr;
-import domainapp.basics.model.meta.DAttr.Type;
-import domainapp.basics.model.meta.DOpt;
-import domainapp.basics.util.Tuple;
-import domainapp.basics.util.cache.StateHistory;
-
-public class DetailExOrder  {
-	private static int idCounter = 0;
-	private static final String AttributeName_TotalPrice = "totalPrice";
-	@DAttr(name = "id", id = true, auto = true, type = Type.String, length = 6, mutable = false, optional = false)
-	private String id;
-	
-	@DAttr(name = "coffee", type = Type.Domain, length = 6, optional = false)
-	private Coffee coffee;
-	
-
-	@DAttr(name = "quantity", type = Type.Integer, length = 6, optional = false)
-	private Integer quantity;
-
-	@DAttr(name = "exPrice", type = Type.Double, length = 6, optional = false)
-	private Double exPrice;
-
-	@DAttr(name = AttributeName_TotalPrice, type = Type.Double, auto = true, mutable = false, optional = true, serialisable = false, derivedFrom = {
-			"quantity", "exPrice" })
-	private Double totalPrice;
-	
-	@DAttr(name = "saleOrder", type = Type.Domain, length = 5, optional = false)
-	  @DAssoc(ascName = "saleOrder-has-detailExOrders", role = "detailExOrder", 
-	    ascType = AssocType.One2Many, endType = AssocEndType.Many, 
-	    associate = @Associate(type = SaleOrder.class, cardMin = 1, cardMax = 1), dependsOn = true)
-	  private SaleOrder saleOrder;
-	
-	private StateHistory<String, Object> stateHist;
-
-	@DOpt(type = DOpt.Type.DataSourceConstructor)
-	public DetailExOrder(String id,@AttrRef("coffee") Coffee coffee, @AttrRef("quantity") Integer quantity,
-			@AttrRef("exPrice") Double exPrice,@AttrRef("saleOrder") SaleOrder saleOrder ) {
-		this.id = nextID(id);
-		this.coffee = coffee;
-		this.quantity = quantity;
-		this.exPrice = exPrice;
-		stateHist = new StateHistory<>();
-		calTotal();
-		this.saleOrder = saleOrder;
-	}
-	@DOpt(type = DOpt.Type.ObjectFormConstructor)
-	@DOpt(type = DOpt.Type.RequiredConstructor)
-	public DetailExOrder(@AttrRef("coffee") Coffee coffee, @AttrRef("quantity") int quantity,
-			@AttrRef("exPrice") double exPrice,@AttrRef("saleOrder") SaleOrder saleOrder) {
-		this(null, coffee, quantity, exPrice,saleOrder);
-	}
-
-	public void calTotal() {
-		totalPrice = exPrice * quantity;
-	}
-	
-	public String getId() {
-		return id;
-	}
-
-	public Coffee getCoffee() {
-		return coffee;
-	}
-
-	public void setCoffee(Coffee coffee) {
-		this.coffee = coffee;
-		
-	}
-
-	public int getQuantity() {
-		return quantity;
-	}
-
-	public void setQuantity(int quantity) {
-		this.quantity = quantity;
-		calTotal();
-	}
-
-	public double getExPrice() {
-		return exPrice;
-	}
-
-	public void setExPrice(double exPrice) {
-		this.exPrice = exPrice;
-		calTotal();
-	}
-
-	public double getTotalPrice() {
-		return getTotalPrice(false);
-	}
-	
-	public double getTotalPrice(boolean cached) throws IllegalStateException {
-	    if (cached) {
-	        Object val = stateHist.get(AttributeName_TotalPrice);
-
-	        if (val == null)
-	          throw new IllegalStateException(
-	              "DetailExOrder.getTotalPrice: cached value is null");
-
-	        return (Double) val;
-	      } else {
-	        if (totalPrice != null)
-	          return totalPrice;
-	        else
-	          return 0;
-	      }
-	}
-	
-	public void setSaleOrder(SaleOrder saleOrder) {
-		this.saleOrder = saleOrder;
-	}
-	public SaleOrder getSaleOrder() {
-		return saleOrder;
-	}
-	public String toString() {
-		return "DetailExOrder : { Quantity: " + quantity + ", ExportPrice: " + exPrice + ", totalPrice: " + totalPrice + "}";
-	}
-	
-	public String nextID(String id) throws ConstraintViolationException {
-		if (id == null) { // generate a new id
-			idCounter++;
-
-			return "DEO" + idCounter;
-		} else {
-			// update id
-			int num;
-			try {
-				num = Integer.parseInt(id.substring(3));
-			} catch (RuntimeException e) {
-				throw new ConstraintViolationException(ConstraintViolationException.Code.INVALID_VALUE, e,
-						new Object[] { id });
-			}
-
-			if (num > idCounter) {
-				idCounter = num;
-			}
-
-			return id;
-		}
-	}
-
-	/**
-	 * @requires minVal != null /\ maxVal != null
-	 * @effects update the auto-generated value of attribute <tt>attrib</tt>,
-	 *          specified for <tt>derivingValue</tt>, using <tt>minVal, maxVal</tt>
-	 */
-	@DOpt(type = DOpt.Type.AutoAttributeValueSynchroniser)
-	public static void updateAutoGeneratedValue(DAttr attrib, Tuple derivingValue, Object minVal, Object maxVal)
-			throws ConstraintViolationException {
-
-		if (minVal != null && maxVal != null) {
-			// TODO: update this for the correct attribute if there are more than one auto
-			// attributes of this class
-
-			String maxId = (String) maxVal;
-
-			try {
-				int maxIdNum = Integer.parseInt(maxId.substring(3));
-
-				if (maxIdNum > idCounter) // extra check
-					idCounter = maxIdNum;
-
-			} catch (RuntimeException e) {
-				throw new ConstraintViolationException(ConstraintViolationException.Code.INVALID_VALUE, e,
-						new Object[] { maxId });
-			}
-		}
-	}
-	
-
-}
+package model;
+
+import domainapp.basics.exceptions.ConstraintViolationException;
+import domainapp.basics.model.meta.AttrRef;
+import domainapp.basics.model.meta.DAssoc;
+import domainapp.basics.model.meta.DAssoc.AssocEndType;
+import domainapp.basics.model.meta.DAssoc.AssocType;
+import domainapp.basics.model.meta.DAssoc.Associate;
+import domainapp.basics.model.meta.DAttr;
+import domainapp.basics.model.meta.DAttr.Type;
+import domainapp.basics.model.meta.DOpt;
+import domainapp.basics.util.Tuple;
+import model.util.DomainId;
+import model.util.IdAllocator;
+import model.util.Money;
+
+public class DetailExOrder  {
+	public static final String ID_PREFIX = "DEO";
+	private static final String AttributeName_TotalPrice = "totalPrice";
+
+	/** the value of <tt>savedTotalPrice</tt> when no total price is saved */
+	private static final long NOT_SAVED = Long.MIN_VALUE;
+
+	/** the value of <tt>quantity</tt> when it is not set (read as 0, see {@link #getQuantity()}) */
+	private static final int UNSET_QUANTITY = Integer.MIN_VALUE;
+
+	/** the value of <tt>exPrice</tt> when it is not set (read as 0, see {@link #getExPrice()}) */
+	private static final long UNSET_PRICE = Long.MIN_VALUE;
+
+	/** the result of {@link #getCoffeeId()} when <tt>coffee</tt> is not set */
+	public static final long UNSET_ID = Long.MIN_VALUE;
+
+	@DAttr(name = "id", id = true, auto = true, type = Type.Long, length = 19, mutable = false, optional = false)
+	private long id;
+	
+	@DAttr(name = "coffee", type = Type.Domain, length = 6, optional = false)
+	private Coffee coffee;
+	
+
+	@DAttr(name = "quantity", type = Type.Integer, length = 6, optional = false)
+	private int quantity;
+
+	@DAttr(name = "exPrice", type = Type.Long, length = 19, optional = false)
+	private long exPrice;
+
+	@DAttr(name = AttributeName_TotalPrice, type = Type.Long, auto = true, mutable = false, optional = true, serialisable = false, derivedFrom = {
+			"quantity", "exPrice" })
+	private long totalPrice;
+	
+	@DAttr(name = "saleOrder", type = Type.Domain, length = 5, optional = false)
+	  @DAssoc(ascName = "saleOrder-has-detailExOrders", role = "detailExOrder", 
+	    ascType = AssocType.One2Many, endType = AssocEndType.Many, 
+	    associate = @Associate(type = SaleOrder.class, cardMin = 1, cardMax = 1), dependsOn = true)
+	  private SaleOrder saleOrder;
+	
+	/** the total price that the order has accounted for, if it has changed since; {@link #NOT_SAVED} otherwise */
+	private long savedTotalPrice = NOT_SAVED;
+
+	/** the coffee id and quantity that the stock ledger has accounted for ({@link #UNSET_ID} and 0 if none) */
+	private long stockCoffeeId = UNSET_ID;
+	private int stockQuantity;
+
+	/** the order under which the seller leaderboard has counted this (<tt>null</tt> if none) and the total price counted */
+	private SaleOrder salesOrder;
+	private long salesTotal;
+
+	@DOpt(type = DOpt.Type.DataSourceConstructor)
+	public DetailExOrder(Long id,@AttrRef("coffee") Coffee coffee, @AttrRef("quantity") Integer quantity,
+			@AttrRef("exPrice") Long exPrice,@AttrRef("saleOrder") SaleOrder saleOrder ) {
+		this.id = nextID(id);
+		this.coffee = coffee;
+		this.quantity = (quantity != null) ? quantity : UNSET_QUANTITY;
+		this.exPrice = (exPrice != null) ? exPrice : UNSET_PRICE;
+		calTotal();
+		this.saleOrder = saleOrder;
+
+		// the stock ledger and the seller leaderboard start from the stored lines: they account 
+		// for a line that is loaded from the data source, but not yet for a new one
+		if (id != null) {
+			clearStockHistory();
+			clearSalesHistory();
+		}
+	}
+	@DOpt(type = DOpt.Type.ObjectFormConstructor)
+	@DOpt(type = DOpt.Type.RequiredConstructor)
+	public DetailExOrder(@AttrRef("coffee") Coffee coffee, @AttrRef("quantity") Integer quantity,
+			@AttrRef("exPrice") Long exPrice,@AttrRef("saleOrder") SaleOrder saleOrder) {
+		this(null, coffee, quantity, exPrice,saleOrder);
+	}
+
+	/**
+	 * @effects 
+	 *  if <tt>quantity</tt> and <tt>exPrice</tt> are set
+	 *    set <tt>totalPrice = exPrice * quantity</tt>
+	 *  else
+	 *    set <tt>totalPrice = 0</tt>
+	 */
+	public void calTotal() {
+		if (isSet())
+			totalPrice = Money.times(exPrice, quantity);
+		else
+			totalPrice = 0;
+	}
+	
+	public long getId() {
+		return id;
+	}
+
+	public String getCode() {
+		return DomainId.format(ID_PREFIX, id);
+	}
+
+	public Coffee getCoffee() {
+		return coffee;
+	}
+
+	/**
+	 * @effects 
+	 *  if <tt>coffee</tt> is set
+	 *    return its id
+	 *  else
+	 *    return {@link #UNSET_ID}
+	 */
+	public long getCoffeeId() {
+		return (coffee != null) ? coffee.getId() : UNSET_ID;
+	}
+
+	public void setCoffee(Coffee coffee) {
+		this.coffee = coffee;
+		
+	}
+
+	/**
+	 * @effects 
+	 *  if <tt>quantity</tt> is set
+	 *    return it
+	 *  else
+	 *    return 0
+	 */
+	public int getQuantity() {
+		return (quantity != UNSET_QUANTITY) ? quantity : 0;
+	}
+
+	public void setQuantity(int quantity) {
+		saveTotalPrice();
+		this.quantity = quantity;
+		calTotal();
+	}
+
+	/**
+	 * @effects 
+	 *  if <tt>exPrice</tt> is set
+	 *    return it
+	 *  else
+	 *    return 0
+	 */
+	public long getExPrice() {
+		return (exPrice != UNSET_PRICE) ? exPrice : 0L;
+	}
+
+	/**
+	 * @effects 
+	 *  if both <tt>quantity</tt> and <tt>exPrice</tt> are set
+	 *    return true
+	 *  else
+	 *    return false
+	 */
+	public boolean isSet() {
+		return quantity != UNSET_QUANTITY && exPrice != UNSET_PRICE;
+	}
+
+	public void setExPrice(long exPrice) {
+		saveTotalPrice();
+		this.exPrice = exPrice;
+		calTotal();
+	}
+
+	/**
+	 * @effects 
+	 *  if the total price has not been saved since the last {@link #clearTotalPriceHistory()}
+	 *    remember the current total price (i.e. the value that the order has already accounted for)
+	 */
+	private void saveTotalPrice() {
+		if (savedTotalPrice == NOT_SAVED) {
+			savedTotalPrice = totalPrice;
+		}
+	}
+
+	/**
+	 * @effects 
+	 *  if the total price has changed since it was last accounted for by the order
+	 *    return true
+	 *  else
+	 *    return false
+	 */
+	public boolean isTotalPriceChanged() {
+		return savedTotalPrice != NOT_SAVED;
+	}
+
+	/**
+	 * @effects 
+	 *  forget the saved total price (i.e. the order has accounted for the current total price)
+	 */
+	public void clearTotalPriceHistory() {
+		savedTotalPrice = NOT_SAVED;
+	}
+
+	/**
+	 * @effects 
+	 *  if the coffee or the quantity differ from those that the stock ledger has accounted for
+	 *    return true
+	 *  else
+	 *    return false
+	 */
+	public boolean isStockChanged() {
+		return stockCoffeeId != getCoffeeId() || stockQuantity != getQuantity();
+	}
+
+	/**
+	 * @effects 
+	 *  return the coffee id that the stock ledger has accounted for, or {@link #UNSET_ID} if none
+	 */
+	public long getStockCoffeeId() {
+		return stockCoffeeId;
+	}
+
+	/**
+	 * @effects 
+	 *  return the quantity that the stock ledger has accounted for
+	 */
+	public int getStockQuantity() {
+		return stockQuantity;
+	}
+
+	/**
+	 * @effects 
+	 *  record that the stock ledger has accounted for the current coffee and quantity
+	 */
+	public void clearStockHistory() {
+		stockCoffeeId = getCoffeeId();
+		stockQuantity = getQuantity();
+	}
+
+	/**
+	 * @effects 
+	 *  record that the stock ledger accounts for nothing of this (e.g. as this has been deleted)
+	 */
+	public void clearStock() {
+		stockCoffeeId = UNSET_ID;
+		stockQuantity = 0;
+	}
+
+	/**
+	 * @effects 
+	 *  return the order under which the seller leaderboard has counted this, or <tt>null</tt> if 
+	 *  it has not counted this
+	 */
+	public SaleOrder getSalesOrder() {
+		return salesOrder;
+	}
+
+	/**
+	 * @effects 
+	 *  return the total price that the seller leaderboard has counted for this
+	 */
+	public long getSalesTotal() {
+		return salesTotal;
+	}
+
+	/**
+	 * @effects 
+	 *  record that the seller leaderboard has counted the current total price of this under the 
+	 *  current order
+	 */
+	public void clearSalesHistory() {
+		salesOrder = saleOrder;
+		salesTotal = totalPrice;
+	}
+
+	/**
+	 * @effects 
+	 *  record that the seller leaderboard does not count this (e.g. as this has been deleted)
+	 */
+	public void clearSales() {
+		salesOrder = null;
+		salesTotal = 0L;
+	}
+
+	public long getTotalPrice() {
+		return getTotalPrice(false);
+	}
+	
+	public long getTotalPrice(boolean cached) throws IllegalStateException {
+	    if (cached) {
+	        if (savedTotalPrice == NOT_SAVED)
+	          throw new IllegalStateException(
+	              "DetailExOrder.getTotalPrice: no cached value");
+
+	        return savedTotalPrice;
+	      } else {
+	        return totalPrice;
+	      }
+	}
+	
+	public void setSaleOrder(SaleOrder saleOrder) {
+		this.saleOrder = saleOrder;
+	}
+	public SaleOrder getSaleOrder() {
+		return saleOrder;
+	}
+	public String toString() {
+		return "DetailExOrder : { Quantity: " + getQuantity() + ", ExportPrice: " + Money.format(getExPrice()) + ", totalPrice: " + Money.format(totalPrice) + "}";
+	}
+
+	/**
+	 * @effects 
+	 *  if <tt>o</tt> is a <tt>DetailExOrder</tt> with the same id as this
+	 *    return true
+	 *  else
+	 *    return false
+	 */
+	@Override
+	public boolean equals(Object o) {
+		if (this == o)
+			return true;
+		if (o == null || getClass() != o.getClass())
+			return false;
+		return id == ((DetailExOrder) o).id;
+	}
+
+	@Override
+	public int hashCode() {
+		return Long.hashCode(id);
+	}
+	
+	private static long nextID(Long id) {
+		if (id == null) { // generate a new id
+			return IdAllocator.nextId(DetailExOrder.class);
+		} else {
+			// update id
+			IdAllocator.observe(DetailExOrder.class, id);
+
+			return id;
+		}
+	}
+
+	/**
+	 * @requires minVal != null /\ maxVal != null
+	 * @effects update the auto-generated value of attribute <tt>attrib</tt>,
+	 *          specified for <tt>derivingValue</tt>, using <tt>minVal, maxVal</tt>
+	 */
+	@DOpt(type = DOpt.Type.AutoAttributeValueSynchroniser)
+	public static void updateAutoGeneratedValue(DAttr attrib, Tuple derivingValue, Object minVal, Object maxVal)
+			throws ConstraintViolationException {
+
+		if (minVal != null && maxVal != null) {
+			// TODO: update this for the correct attribute if there are more than one auto
+			// attributes of this class
+			IdAllocator.observe(DetailExOrder.class, ((Number) maxVal).longValue());
+		}
+	}
+
+}
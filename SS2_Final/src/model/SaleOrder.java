@@ -1,292 +1,413 @@
-package model;
-
-import java.util.ArrayList;
-import java.util.Collection;
-
-import domainapp.basics.exceptions.ConstraintViolationException;
-import domainapp.basics.model.meta.AttrRef;
-import domainapp.basics.model.meta.DAssoc;
-import domainapp.basics.model.meta.DAssoc.AssocEndType;
-import domainapp.basics.model.meta.DAssoc.AssocType;
-import domainapp.basics.model.meta.DAssoc.Associate;
-import domainapp.basics.model.meta.DAttr;
-import domainapp.basics.model.meta.DAttr.Type;
-import domainapp.basics.model.meta.DOpt;
-import domainapp.basics.model.meta.Select;
-import domainapp.basics.util.Tuple;
-import model.report.SaleOrdersByDateReport;
-
-public class SaleOrder {
-	public static final String SO_id = "id";
-	public static final String SO_cus = "customer";
-	public static final String SO_sell = "seller";
-	public static final String SO_date = "date";
-	public static final String SO_rptSaleOrderByDate = "rptSaleOrderByDate";
-
-	private static int idCounter = 0;
-
-	@DAttr(name = SO_id, id = true, auto = true, type = Type.String, length = 6, mutable = false, optional = false)
-	private String id;
-
-	@DAttr(name = SO_cus, type = Type.Domain, length = 30, optional = false)
-	private Customer customer;
-
-	@DAttr(name = SO_sell, type = Type.Domain, length = 30, optional = false)
-	private Seller seller;
-
-	@DAttr(name = SO_date, type = Type.String, length = 10, optional = false)
-	private String date;
-
-	@DAttr(name = SO_rptSaleOrderByDate, type = Type.Domain, serialisable = false,
-			// IMPORTANT: set virtual=true to exclude this attribute from the object state
-			// (avoiding the view having to load this attribute's value from data source)
-			virtual = true)
-	private SaleOrdersByDateReport rptSaleOrderByDate;
-
-	// @DAttr(name = "quantity", type = Type.Integer, length = 30, optional = false)
-	// private Integer quantity;
-	//
-	// @DAttr(name = "totalPrice", type = Type.Integer, auto = true, mutable =
-	// false, optional = true, serialisable = false, derivedFrom = {
-	// "unitPrice", "quantity" })
-	// private Integer totalPrice;
-
-	@DAttr(name = "detailExOrders", type = Type.Collection, optional = false, serialisable = false, filter = @Select(clazz = DetailExOrder.class))
-	@DAssoc(ascName = "saleOrder-has-detailExOrders", role = "saleOrder", ascType = AssocType.One2Many, endType = AssocEndType.One, associate = @Associate(type = DetailExOrder.class, cardMin = 0, cardMax = 30))
-	private Collection<DetailExOrder> detailExOrders;
-
-	private int count;
-	// private double totalPrice;
-	@DAttr(name = "totalPrice", type = Type.Double, auto = true, mutable = false, optional = true, serialisable = true)
-	private Double totalPrice;
-
-	@DOpt(type = DOpt.Type.DataSourceConstructor)
-	public SaleOrder(String id, Customer customer, Seller seller, String date, Double totalPrice) {
-		this.id = nextID(id);
-		this.customer = customer;
-		this.seller = seller;
-		this.date = date;
-		if (totalPrice == null)
-			this.totalPrice = 0d;
-		else
-			this.totalPrice = totalPrice;
-
-		detailExOrders = new ArrayList<>();
-		// calTotal();
-		count = 0;
-		// total=0;
-	}
-
-	// public void takeDate() {
-	// Date date1 = new Date();
-	// SimpleDateFormat ft = new SimpleDateFormat("yyyy/MM/dd ");
-	// date = ft.format(date1);
-	// }
-
-	@DOpt(type = DOpt.Type.ObjectFormConstructor)
-	@DOpt(type = DOpt.Type.RequiredConstructor)
-	public SaleOrder(@AttrRef("customer") Customer customer, @AttrRef("seller") Seller seller,
-			@AttrRef("date") String date) {
-		this(null, customer, seller, date, null);
-	}
-
-	public Customer getCustomer() {
-		return customer;
-	}
-
-	public void setCustomer(Customer customer) {
-		this.customer = customer;
-	}
-
-	public Seller getSeller() {
-		return seller;
-	}
-
-	public void setSeller(Seller seller) {
-		this.seller = seller;
-	}
-
-	public String getDate() {
-		return date;
-	}
-
-	public void setDate(String date) {
-		this.date = date;
-	}
-
-	public String getId() {
-		return id;
-	}
-
-	public SaleOrdersByDateReport getRptSaleOrderByDate() {
-		return rptSaleOrderByDate;
-	}
-
-	@DOpt(type = DOpt.Type.LinkAdder)
-	public boolean addDetailExOrder(DetailExOrder d) {
-		if (!detailExOrders.contains(d))
-			detailExOrders.add(d);
-
-		return false;
-	}
-
-	@DOpt(type = DOpt.Type.LinkAdderNew)
-	public boolean addNewDetailExOrder(DetailExOrder d) {
-		detailExOrders.add(d);
-
-		count++;
-		computeTotalPrice();
-		return true;
-	}
-
-	@DOpt(type = DOpt.Type.LinkAdder)
-	// @MemberRef(name="enrolments")
-	public boolean addDetailExOrder(Collection<DetailExOrder> deos) {
-		boolean added = false;
-		for (DetailExOrder d : deos) {
-			if (!detailExOrders.contains(d)) {
-				if (!added)
-					added = true;
-				detailExOrders.add(d);
-			}
-		}
-		return false;
-	}
-
-	@DOpt(type = DOpt.Type.LinkAdderNew)
-	public boolean addNewDetailExOrder(Collection<DetailExOrder> deos) {
-		detailExOrders.addAll(deos);
-		count += deos.size();
-		computeTotalPrice();
-		return true;
-	}
-
-	@DOpt(type = DOpt.Type.LinkRemover)
-	public boolean removeDetailExOrder(DetailExOrder d) {
-		boolean removed = detailExOrders.remove(d);
-
-		if (removed) {
-			count--;
-			computeTotalPrice();
-			return true;
-		}
-		return false;
-	}
-
-	@DOpt(type = DOpt.Type.LinkUpdater)
-	// @MemberRef(name="enrolments")
-	public boolean updateDetailExOrder(DetailExOrder d) throws IllegalStateException {
-		// recompute using just the affected enrolment
-		double total = totalPrice;
-
-		double oldtotal = d.getTotalPrice(true);
-
-		double diff = d.getTotalPrice() + oldtotal;
-
-		// TODO: cache totalMark if needed
-
-		total += diff;
-
-		totalPrice = total;
-
-		// no other attributes changed
-		return true;
-	}
-
-	public void setDetailExOrder(Collection<DetailExOrder> deo) {
-		this.detailExOrders = deo;
-		count = deo.size();
-		computeTotalPrice();
-	}
-
-	private void computeTotalPrice() {
-		// if (count > 0) {
-		double total = 0d;
-		for (DetailExOrder e : detailExOrders) {
-			total += e.getTotalPrice();
-		}
-
-		totalPrice = total;
-		// } else {
-		// totalPrice = 0d;
-		// }
-	}
-
-	// v2.6.4.b
-	public double getTotalPrice() {
-		return totalPrice;
-	}
-
-	public Collection<DetailExOrder> getDetailExOrders() {
-		return detailExOrders;
-	}
-
-	@DOpt(type = DOpt.Type.LinkCountGetter)
-	public int getCount() {
-		return count;
-		// return enrolments.size();
-	}
-
-	@DOpt(type = DOpt.Type.LinkCountSetter)
-	public void setCount(int count1) {
-		count = count1;
-	}
-
-	@Override
-	public String toString() {
-		return "SaleOrder(" + id + "," + customer + "," + seller + "," + date + ")";
-	}
-
-	public String nextID(String id) throws ConstraintViolationException {
-		if (id == null) { // generate a new id
-			idCounter++;
-
-			return "SO" + idCounter;
-		} else {
-			// update id
-			int num;
-			try {
-				num = Integer.parseInt(id.substring(2));
-			} catch (RuntimeException e) {
-				throw new ConstraintViolationException(ConstraintViolationException.Code.INVALID_VALUE, e,
-						new Object[] { id });
-			}
-
-			if (num > idCounter) {
-				idCounter = num;
-			}
-
-			return id;
-		}
-	}
-
-	/**
-	 * @requires minVal != null /\ maxVal != null
-	 * @effects update the auto-generated value of attribute <tt>attrib</tt>,
-	 *          specified for <tt>derivingValue</tt>, using <tt>minVal, maxVal</tt>
-	 */
-	@DOpt(type = DOpt.Type.AutoAttributeValueSynchroniser)
-	public static void updateAutoGeneratedValue(DAttr attrib, Tuple derivingValue, Object minVal, Object maxVal)
-			throws ConstraintViolationException {
-		if (attrib.name().equals("id")) {
-			if (minVal != null && maxVal != null) {
-				// TODO: update this for the correct attribute if there are more than one auto
-				// attributes of this class
-
-				String maxId = (String) maxVal;
-
-				try {
-					int maxIdNum = Integer.parseInt(maxId.substring(2));
-
-					if (maxIdNum > idCounter) // extra check
-						idCounter = maxIdNum;
-
-				} catch (RuntimeException e) {
-					throw new ConstraintViolationException(ConstraintViolationException.Code.INVALID_VALUE, e,
-							new Object[] { maxId });
-				}
-			}
-		}
-	}
-
-}
+package model;
+
+import java.util.Collection;
+import java.util.Date;
+
+import domainapp.basics.exceptions.ConstraintViolationException;
+import domainapp.basics.exceptions.DataSourceException;
+import domainapp.basics.model.meta.AttrRef;
+import domainapp.basics.model.meta.DAssoc;
+import domainapp.basics.model.meta.DAssoc.AssocEndType;
+import domainapp.basics.model.meta.DAssoc.AssocType;
+import domainapp.basics.model.meta.DAssoc.Associate;
+import domainapp.basics.model.meta.DAttr;
+import domainapp.basics.model.meta.DAttr.Type;
+import domainapp.basics.model.meta.DOpt;
+import domainapp.basics.model.meta.MetaConstants;
+import domainapp.basics.model.meta.Select;
+import domainapp.basics.util.Tuple;
+import model.report.SaleOrdersByDateReport;
+import model.util.DomainId;
+import model.util.IdAllocator;
+import model.util.Money;
+import model.util.OrderBatchWriter;
+import model.util.OrderLines;
+
+public class SaleOrder {
+	public static final String ID_PREFIX = "SO";
+	public static final String SO_id = "id";
+	public static final String SO_cus = "customer";
+	public static final String SO_sell = "seller";
+	public static final String SO_date = "date";
+	public static final String SO_totalPrice = "totalPrice";
+	public static final String SO_rptSaleOrderByDate = "rptSaleOrderByDate";
+
+
+	@DAttr(name = SO_id, id = true, auto = true, type = Type.Long, length = 19, mutable = false, optional = false)
+	private long id;
+
+	@DAttr(name = SO_cus, type = Type.Domain, length = 30, optional = false)
+	private Customer customer;
+
+	@DAttr(name = SO_sell, type = Type.Domain, length = 30, optional = false)
+	private Seller seller;
+
+	@DAttr(name = SO_date, type = Type.Date, optional = false)
+	private Date date;
+
+	@DAttr(name = SO_rptSaleOrderByDate, type = Type.Domain, serialisable = false,
+			// IMPORTANT: set virtual=true to exclude this attribute from the object state
+			// (avoiding the view having to load this attribute's value from data source)
+			virtual = true)
+	private SaleOrdersByDateReport rptSaleOrderByDate;
+
+	// @DAttr(name = "quantity", type = Type.Integer, length = 30, optional = false)
+	// private Integer quantity;
+	//
+	// @DAttr(name = "totalPrice", type = Type.Integer, auto = true, mutable =
+	// false, optional = true, serialisable = false, derivedFrom = {
+	// "unitPrice", "quantity" })
+	// private Integer totalPrice;
+
+	@DAttr(name = "detailExOrders", type = Type.Collection, optional = false, serialisable = false, filter = @Select(clazz = DetailExOrder.class))
+	@DAssoc(ascName = "saleOrder-has-detailExOrders", role = "saleOrder", ascType = AssocType.One2Many, endType = AssocEndType.One, associate = @Associate(type = DetailExOrder.class, cardMin = 0, cardMax = MetaConstants.CARD_MORE))
+	private Collection<DetailExOrder> detailExOrders;
+
+	private int count;
+
+	/** the number of incremental changes to <tt>totalPrice</tt> after which it is re-computed from all the lines */
+	private static final int RECONCILE_INTERVAL = Integer.getInteger("coffee.totalReconcileInterval", 1000);
+
+	/** the number of incremental changes to <tt>totalPrice</tt> since the last re-computation */
+	private int changesSinceReconcile;
+
+	/** whether the seller leaderboard has counted this */
+	private boolean salesPosted;
+
+	/** the seller id and date under which the seller leaderboard has counted this, if <tt>salesPosted</tt> */
+	private long salesSellerId;
+	private Date salesDate;
+	// private double totalPrice;
+	@DAttr(name = SO_totalPrice, type = Type.Long, auto = true, mutable = false, optional = true, serialisable = true)
+	private long totalPrice;
+
+	@DOpt(type = DOpt.Type.DataSourceConstructor)
+	public SaleOrder(Long id, Customer customer, Seller seller, Date date, Long totalPrice) {
+		this.id = nextID(id);
+		this.customer = customer;
+		this.seller = seller;
+		this.date = date;
+		if (totalPrice == null)
+			this.totalPrice = 0L;
+		else
+			this.totalPrice = totalPrice;
+
+		detailExOrders = new OrderLines<>(DetailExOrder.class, DetailExOrder::getId);
+		// calTotal();
+		count = 0;
+		// total=0;
+
+		// the seller leaderboard starts from the stored orders: it counts an order that is loaded 
+		// from the data source, and a new one when it is stored
+		if (id != null) {
+			clearSalesHistory();
+		}
+	}
+
+	// public void takeDate() {
+	// Date date1 = new Date();
+	// SimpleDateFormat ft = new SimpleDateFormat("yyyy/MM/dd ");
+	// date = ft.format(date1);
+	// }
+
+	@DOpt(type = DOpt.Type.ObjectFormConstructor)
+	@DOpt(type = DOpt.Type.RequiredConstructor)
+	public SaleOrder(@AttrRef("customer") Customer customer, @AttrRef("seller") Seller seller,
+			@AttrRef("date") Date date) {
+		this(null, customer, seller, date, null);
+	}
+
+	public Customer getCustomer() {
+		return customer;
+	}
+
+	public void setCustomer(Customer customer) {
+		this.customer = customer;
+	}
+
+	public Seller getSeller() {
+		return seller;
+	}
+
+	public void setSeller(Seller seller) {
+		this.seller = seller;
+	}
+
+	public Date getDate() {
+		return date;
+	}
+
+	public void setDate(Date date) {
+		this.date = date;
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	public String getCode() {
+		return DomainId.format(ID_PREFIX, id);
+	}
+
+	public SaleOrdersByDateReport getRptSaleOrderByDate() {
+		return rptSaleOrderByDate;
+	}
+
+	@DOpt(type = DOpt.Type.LinkAdder)
+	public boolean addDetailExOrder(DetailExOrder d) {
+		// ignored if d is already a line of this
+		detailExOrders.add(d);
+
+		return false;
+	}
+
+	@DOpt(type = DOpt.Type.LinkAdderNew)
+	public boolean addNewDetailExOrder(DetailExOrder d) {
+		if (!detailExOrders.add(d)) {
+			// already a line of this
+			return false;
+		}
+
+		count++;
+		addToTotalPrice(d.getTotalPrice());
+		d.clearTotalPriceHistory();
+		return true;
+	}
+
+	@DOpt(type = DOpt.Type.LinkAdder)
+	// @MemberRef(name="enrolments")
+	public boolean addDetailExOrder(Collection<DetailExOrder> deos) {
+		// lines that are already in this are ignored
+		detailExOrders.addAll(deos);
+
+		return false;
+	}
+
+	@DOpt(type = DOpt.Type.LinkAdderNew)
+	public boolean addNewDetailExOrder(Collection<DetailExOrder> deos) {
+		long diff = 0L;
+		int added = 0;
+		for (DetailExOrder d : deos) {
+			if (detailExOrders.add(d)) {
+				count++;
+				added++;
+				diff = Money.plus(diff, d.getTotalPrice());
+				d.clearTotalPriceHistory();
+			}
+		}
+		addToTotalPrice(diff);
+		return true;
+	}
+
+	/**
+	 * @requires 
+	 *  this and the objects in <tt>deos</tt> are not yet stored in the data source
+	 * @effects 
+	 *  add <tt>deos</tt> as new lines of this (see {@link #addNewDetailExOrder(Collection)}), then 
+	 *  store this and all its lines in the data source in a single, batched transaction 
+	 *  (see {@link OrderBatchWriter}).
+	 *  
+	 *  <p>throws DataSourceException if failed, in which case nothing is stored and this 
+	 *  is left unchanged.
+	 */
+	public void addNewDetailExOrderAndStore(Collection<DetailExOrder> deos) throws DataSourceException {
+		// the header is stored with the count and total of all the lines: apply them to this 
+		// for the write, and restore the previous state if it fails
+		Collection<DetailExOrder> oldLines = detailExOrders;
+		int oldCount = count;
+		long oldTotalPrice = totalPrice;
+		int oldChanges = changesSinceReconcile;
+
+		detailExOrders = new OrderLines<>(DetailExOrder.class, DetailExOrder::getId, oldLines);
+		addNewDetailExOrder(deos);
+		try {
+			OrderBatchWriter.insert(this, detailExOrders);
+		} catch (DataSourceException e) {
+			detailExOrders = oldLines;
+			count = oldCount;
+			totalPrice = oldTotalPrice;
+			changesSinceReconcile = oldChanges;
+			throw e;
+		}
+	}
+
+	@DOpt(type = DOpt.Type.LinkRemover)
+	public boolean removeDetailExOrder(DetailExOrder d) {
+		boolean removed = detailExOrders.remove(d);
+
+		if (removed) {
+			count--;
+			// subtract the line total that this order has accounted for
+			long oldtotal = d.isTotalPriceChanged() ? d.getTotalPrice(true) : d.getTotalPrice();
+			addToTotalPrice(-oldtotal);
+			d.clearTotalPriceHistory();
+			return true;
+		}
+		return false;
+	}
+
+	@DOpt(type = DOpt.Type.LinkUpdater)
+	// @MemberRef(name="enrolments")
+	public boolean updateDetailExOrder(DetailExOrder d) throws IllegalStateException {
+		if (!d.isTotalPriceChanged()) {
+			// the line total is unchanged
+			return false;
+		}
+
+		// apply just the change of the affected line
+		long oldtotal = d.getTotalPrice(true);
+
+		long diff = Money.minus(d.getTotalPrice(), oldtotal);
+
+		addToTotalPrice(diff);
+		d.clearTotalPriceHistory();
+
+		// no other attributes changed
+		return true;
+	}
+
+	public void setDetailExOrder(Collection<DetailExOrder> deo) {
+		this.detailExOrders = new OrderLines<>(DetailExOrder.class, DetailExOrder::getId, deo);
+		count = detailExOrders.size();
+		reconcileTotalPrice();
+	}
+
+	/**
+	 * @effects 
+	 *  add <tt>diff</tt> to <tt>totalPrice</tt> and, after every {@link #RECONCILE_INTERVAL} 
+	 *  such changes, re-compute <tt>totalPrice</tt> from all the lines as a safeguard 
+	 *  against a line change that was not reported to this
+	 */
+	private void addToTotalPrice(long diff) {
+		totalPrice = Money.plus(totalPrice, diff);
+
+		if (++changesSinceReconcile >= RECONCILE_INTERVAL) {
+			reconcileTotalPrice();
+		}
+	}
+
+	/**
+	 * @effects 
+	 *  re-compute <tt>totalPrice</tt> as the sum of the total prices of all the lines
+	 *  and return the result
+	 */
+	public long reconcileTotalPrice() {
+		long total = 0L;
+		for (DetailExOrder e : detailExOrders) {
+			total = Money.plus(total, e.getTotalPrice());
+			e.clearTotalPriceHistory();
+		}
+
+		totalPrice = total;
+		changesSinceReconcile = 0;
+
+		return total;
+	}
+
+	/**
+	 * @effects 
+	 *  if the seller leaderboard has counted this
+	 *    return true
+	 *  else
+	 *    return false
+	 */
+	public boolean isSalesPosted() {
+		return salesPosted;
+	}
+
+	/**
+	 * @requires 
+	 *  isSalesPosted()
+	 * @effects 
+	 *  return the id of the seller under which the seller leaderboard has counted this
+	 */
+	public long getSalesSellerId() {
+		return salesSellerId;
+	}
+
+	/**
+	 * @requires 
+	 *  isSalesPosted()
+	 * @effects 
+	 *  return the date under which the seller leaderboard has counted this
+	 */
+	public Date getSalesDate() {
+		return salesDate;
+	}
+
+	/**
+	 * @effects 
+	 *  if the seller and the date of this are set
+	 *    record that the seller leaderboard has counted this under them
+	 */
+	public void clearSalesHistory() {
+		if (seller != null && date != null) {
+			salesPosted = true;
+			salesSellerId = seller.getId();
+			salesDate = date;
+		}
+	}
+
+	/**
+	 * @effects 
+	 *  record that the seller leaderboard does not count this (e.g. as this has been deleted)
+	 */
+	public void clearSales() {
+		salesPosted = false;
+		salesDate = null;
+	}
+
+	// v2.6.4.b
+	public long getTotalPrice() {
+		return totalPrice;
+	}
+
+	public Collection<DetailExOrder> getDetailExOrders() {
+		return detailExOrders;
+	}
+
+	@DOpt(type = DOpt.Type.LinkCountGetter)
+	public int getCount() {
+		return count;
+		// return enrolments.size();
+	}
+
+	@DOpt(type = DOpt.Type.LinkCountSetter)
+	public void setCount(int count1) {
+		count = count1;
+	}
+
+	@Override
+	public String toString() {
+		return "SaleOrder(" + getCode() + "," + customer + "," + seller + "," + date + ")";
+	}
+
+	private static long nextID(Long id) {
+		if (id == null) { // generate a new id
+			return IdAllocator.nextId(SaleOrder.class);
+		} else {
+			// update id
+			IdAllocator.observe(SaleOrder.class, id);
+
+			return id;
+		}
+	}
+
+	/**
+	 * @requires minVal != null /\ maxVal != null
+	 * @effects update the auto-generated value of attribute <tt>attrib</tt>,
+	 *          specified for <tt>derivingValue</tt>, using <tt>minVal, maxVal</tt>
+	 */
+	@DOpt(type = DOpt.Type.AutoAttributeValueSynchroniser)
+	public static void updateAutoGeneratedValue(DAttr attrib, Tuple derivingValue, Object minVal, Object maxVal)
+			throws ConstraintViolationException {
+		if (attrib.name().equals("id")) {
+			if (minVal != null && maxVal != null) {
+				// TODO: update this for the correct attribute if there are more than one auto
+				// attributes of this class
+				IdAllocator.observe(SaleOrder.class, ((Number) maxVal).longValue());
+			}
+		}
+	}
+
+}
@@ -1,87 +1,85 @@
-package model;
-
-import domainapp.basics.exceptions.ConstraintViolationException;
-import domainapp.basics.model.meta.AttrRef;
-import domainapp.basics.model.meta.DAttr;
-import domainapp.basics.model.meta.DAttr.Type;
-import domainapp.basics.model.meta.DOpt;
-import domainapp.basics.util.Tuple;
-
-public class Street {
-	@DAttr(name = "id", id = true, auto = true, length = 3, mutable = false, optional = false, type = Type.Integer)
-	private int id;
-	private static int idCounter;
-
-	
-	
-	@DAttr(name = "street", type = Type.String, length = 20, optional = false)
-	private String street;
-	
-	
-	// from object form: Student is not included
-	@DOpt(type = DOpt.Type.ObjectFormConstructor)
-	@DOpt(type = DOpt.Type.RequiredConstructor)
-	public Street(@AttrRef("street") String street) {
-		this(null, street);
-	}
-	
-
-	// based constructor (used by others)
-	@DOpt(type = DOpt.Type.DataSourceConstructor)
-
-	public Street(Integer id, String street) {
-		this.id = nextId(id);
-		this.street = street;
-	}
-
-	private static int nextId(Integer currID) {
-		if (currID == null) {
-			idCounter++;
-			return idCounter;
-		} else {
-			int num = currID.intValue();
-			if (num > idCounter)
-				idCounter = num;
-
-			return currID;
-		}
-	}
-
-	/**
-	 * @requires minVal != null /\ maxVal != null
-	 * @effects update the auto-generated value of attribute <tt>attrib</tt>,
-	 *          specified for <tt>derivingValue</tt>, using <tt>minVal, maxVal</tt>
-	 */
-	@DOpt(type = DOpt.Type.AutoAttributeValueSynchroniser)
-	public static void updateAutoGeneratedValue(DAttr attrib, Tuple derivingValue, Object minVal, Object maxVal)
-			throws ConstraintViolationException {
-
-		if (minVal != null && maxVal != null) {
-			// TODO: update this for the correct attribute if there are more than one auto
-			// attributes of this class
-			int maxIdVal = (Integer) maxVal;
-			if (maxIdVal > idCounter)
-				idCounter = maxIdVal;
-		}
-	}
-
-	public int getId() {
-		return id;
-	}
-
-
-
-
-	public String getStreet() {
-		return street;
-	}
-
-	public void setStreet(String street) {
-		this.street = street;
-	}
-
-	@Override
-	public String toString() {
-		return street;
-	}
-}
+package model;
+
+import domainapp.basics.exceptions.ConstraintViolationException;
+import domainapp.basics.model.meta.AttrRef;
+import domainapp.basics.model.meta.DAttr;
+import domainapp.basics.model.meta.DAttr.Type;
+import domainapp.basics.model.meta.DOpt;
+import domainapp.basics.util.Tuple;
+import model.util.IdAllocator;
+
+public class Street {
+	/** the highest id that fits the id column (<tt>length = 3</tt>) */
+	private static final int MAX_ID = 999;
+
+	@DAttr(name = "id", id = true, auto = true, length = 3, mutable = false, optional = false, type = Type.Integer)
+	private int id;
+
+	
+	
+	@DAttr(name = "street", type = Type.String, length = 20, optional = false)
+	private String street;
+	
+	
+	// from object form: Student is not included
+	@DOpt(type = DOpt.Type.ObjectFormConstructor)
+	@DOpt(type = DOpt.Type.RequiredConstructor)
+	public Street(@AttrRef("street") String street) {
+		this(null, street);
+	}
+	
+
+	// based constructor (used by others)
+	@DOpt(type = DOpt.Type.DataSourceConstructor)
+
+	public Street(Integer id, String street) {
+		this.id = nextId(id);
+		this.street = street;
+	}
+
+	private static int nextId(Integer currID) {
+		if (currID == null) {
+			return (int) IdAllocator.nextUnreservedId(Street.class, MAX_ID);
+		} else {
+			IdAllocator.observe(Street.class, currID);
+
+			return currID;
+		}
+	}
+
+	/**
+	 * @requires minVal != null /\ maxVal != null
+	 * @effects update the auto-generated value of attribute <tt>attrib</tt>,
+	 *          specified for <tt>derivingValue</tt>, using <tt>minVal, maxVal</tt>
+	 */
+	@DOpt(type = DOpt.Type.AutoAttributeValueSynchroniser)
+	public static void updateAutoGeneratedValue(DAttr attrib, Tuple derivingValue, Object minVal, Object maxVal)
+			throws ConstraintViolationException {
+
+		if (minVal != null && maxVal != null) {
+			// TODO: update this for the correct attribute if there are more than one auto
+			// attributes of this class
+			IdAllocator.observe(Street.class, (Integer) maxVal);
+		}
+	}
+
+	public int getId() {
+		return id;
+	}
+
+
+
+
+	public String getStreet() {
+		return street;
+	}
+
+	public void setStreet(String street) {
+		this.street = street;
+	}
+
+	@Override
+	public String toString() {
+		return street;
+	}
+}
@@ -0,0 +1,104 @@
+package model.report;
+
+import domainapp.basics.model.meta.DAttr;
+import domainapp.basics.model.meta.DAttr.Type;
+import domainapp.basics.model.meta.DClass;
+import model.util.Money;
+
+/**
+ * @overview
+ * 	Represent the sales of a coffee that ranks among the best sellers (a row of a
+ *  {@link BestSellersReport}).
+ *
+ * @version 1.0
+ */
+@DClass(schema="SS2_Final",serialisable=false)
+public class BestSeller {
+  public static final String BS_id = "id";
+  public static final String BS_rank = "rank";
+  public static final String BS_code = "code";
+  public static final String BS_nameCoffee = "nameCoffee";
+  public static final String BS_quantity = "quantity";
+  public static final String BS_revenue = "revenue";
+
+  @DAttr(name = BS_id, id = true, auto = true, type = Type.Integer, length = 5, optional = false, mutable = false)
+  private int id;
+  private static int idCounter = 0;
+
+  /** the position of the coffee in the ranking (starting from 1) */
+  @DAttr(name = BS_rank, type = Type.Integer, length = 5, optional = false, mutable = false)
+  private int rank;
+
+  /** the code of the coffee, see {@link model.Coffee#getCode()} */
+  @DAttr(name = BS_code, type = Type.String, length = 20, optional = false, mutable = false)
+  private String code;
+
+  @DAttr(name = BS_nameCoffee, type = Type.String, length = 15, optional = false, mutable = false)
+  private String nameCoffee;
+
+  /** the quantity sold */
+  @DAttr(name = BS_quantity, type = Type.Long, optional = false, mutable = false)
+  private long quantity;
+
+  /** the total price of the lines (in minor units, see {@link Money}) */
+  @DAttr(name = BS_revenue, type = Type.Long, optional = false, mutable = false)
+  private long revenue;
+
+  /**
+   * @effects
+   *  initialise this as the sales <tt>quantity, revenue</tt> of the coffee whose code and
+   *  name are <tt>code, nameCoffee</tt>, ranked <tt>rank</tt>
+   */
+  public BestSeller(int rank, String code, String nameCoffee, long quantity, long revenue) {
+    this.id = ++idCounter;
+    this.rank = rank;
+    this.code = code;
+    this.nameCoffee = nameCoffee;
+    this.quantity = quantity;
+    this.revenue = revenue;
+  }
+
+  public int getId() {
+    return id;
+  }
+
+  public int getRank() {
+    return rank;
+  }
+
+  public String getCode() {
+    return code;
+  }
+
+  public String getNameCoffee() {
+    return nameCoffee;
+  }
+
+  public long getQuantity() {
+    return quantity;
+  }
+
+  public long getRevenue() {
+    return revenue;
+  }
+
+  @Override
+  public int hashCode() {
+    return id;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (obj == null || getClass() != obj.getClass())
+      return false;
+    return id == ((BestSeller) obj).id;
+  }
+
+  @Override
+  public String toString() {
+    return "BestSeller(" + rank + "," + code + "," + nameCoffee + "," + quantity + ","
+        + Money.format(revenue) + ")";
+  }
+}
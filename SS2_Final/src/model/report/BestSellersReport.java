@@ -0,0 +1,494 @@
+package model.report;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import domainapp.basics.core.dodm.dom.DOMBasic;
+import domainapp.basics.core.dodm.dsm.DSMBasic;
+import domainapp.basics.core.dodm.osm.relational.RelationalOSMBasic;
+import domainapp.basics.core.dodm.qrm.QRM;
+import domainapp.basics.exceptions.DataSourceException;
+import domainapp.basics.exceptions.NotPossibleException;
+import domainapp.basics.model.Oid;
+import domainapp.basics.model.meta.AttrRef;
+import domainapp.basics.model.meta.DAssoc;
+import domainapp.basics.model.meta.DAssoc.AssocEndType;
+import domainapp.basics.model.meta.DAssoc.AssocType;
+import domainapp.basics.model.meta.DAssoc.Associate;
+import domainapp.basics.model.meta.DAttr;
+import domainapp.basics.model.meta.DAttr.Type;
+import domainapp.basics.model.meta.DClass;
+import domainapp.basics.model.meta.DOpt;
+import domainapp.basics.model.meta.MetaConstants;
+import domainapp.basics.model.meta.Select;
+import domainapp.basics.modules.report.model.meta.Output;
+import model.Coffee;
+import model.DetailExOrder;
+import model.SaleOrder;
+import model.util.DataSourceToolKit;
+import model.util.Money;
+import model.util.ReportQuery;
+import model.util.ReportResultCache;
+import model.util.TopN;
+
+/**
+ * @overview
+ * 	Represent the reports about the best-selling coffees of a date range: the <tt>topN</tt>
+ *  coffees that sold the largest quantity and the <tt>topN</tt> that made the largest
+ *  revenue.
+ *
+ *  <p>The sale order lines of the range are streamed from the data source and summed per
+ *  coffee as they are read; the rankings are then taken with bounded heaps (see
+ *  {@link TopN}). The memory used is proportional to <tt>topN</tt> and the number of
+ *  coffees sold, not to the number of lines, and only the ranked coffees are loaded.
+ *
+ * @version 1.0
+ */
+@DClass(schema="SS2_Final",serialisable=false)
+public class BestSellersReport {
+  @DAttr(name = "id", id = true, auto = true, type = Type.Integer, length = 5, optional = false, mutable = false)
+  private int id;
+  private static int idCounter = 0;
+
+  /** the number of coffees of each ranking when <tt>topN</tt> is not specified */
+  public static final int DEFAULT_TOP_N = 10;
+
+  /** the earliest and latest dates that a data source date column can hold (used for missing bounds) */
+  private static final Date MIN_DATE = java.sql.Date.valueOf("0001-01-01");
+  private static final Date MAX_DATE = java.sql.Date.valueOf("9999-12-31");
+
+  /** the SQL of the query of the lines of a date range, see {@link #getSql()} */
+  private static String sql;
+
+  /**input: the first date of the orders (none if not specified) */
+  @DAttr(name = "fromDate", type = Type.Date, optional = true)
+  private Date fromDate;
+
+  /**input: the last date of the orders (none if not specified) */
+  @DAttr(name = "toDate", type = Type.Date, optional = true)
+  private Date toDate;
+
+  /**input: the number of coffees of each ranking (default: {@link #DEFAULT_TOP_N}) */
+  @DAttr(name = "topN", type = Type.Integer, length = 5, optional = true)
+  private Integer topN;
+
+  /**output: the coffees that sold the largest quantity, the largest first */
+  @DAttr(name="byQuantity",type=Type.Collection,optional=false, mutable=false,
+      serialisable=false,filter=@Select(clazz=BestSeller.class,
+      attributes={BestSeller.BS_rank, BestSeller.BS_code, BestSeller.BS_nameCoffee,
+          BestSeller.BS_quantity, BestSeller.BS_revenue})
+      ,derivedFrom={"fromDate", "toDate", "topN"}
+      )
+  @DAssoc(ascName="best-sellers-report-has-best-sellers-by-quantity",role="report",
+      ascType=AssocType.One2Many,endType=AssocEndType.One,
+    associate=@Associate(type=BestSeller.class,cardMin=0,cardMax=MetaConstants.CARD_MORE
+    ))
+  @Output
+  private Collection<BestSeller> byQuantity;
+
+  /**output: the coffees that made the largest revenue, the largest first */
+  @DAttr(name="byRevenue",type=Type.Collection,optional=false, mutable=false,
+      serialisable=false,filter=@Select(clazz=BestSeller.class,
+      attributes={BestSeller.BS_rank, BestSeller.BS_code, BestSeller.BS_nameCoffee,
+          BestSeller.BS_quantity, BestSeller.BS_revenue})
+      ,derivedFrom={"fromDate", "toDate", "topN"}
+      )
+  @DAssoc(ascName="best-sellers-report-has-best-sellers-by-revenue",role="report",
+      ascType=AssocType.One2Many,endType=AssocEndType.One,
+    associate=@Associate(type=BestSeller.class,cardMin=0,cardMax=MetaConstants.CARD_MORE
+    ))
+  @Output
+  private Collection<BestSeller> byRevenue;
+
+  /**output: number of coffees sold in the date range */
+  @DAttr(name = "numCoffees", type = Type.Integer, length = 10, auto=true, mutable=false)
+  @Output
+  private int numCoffees;
+
+  /**
+   * @effects
+   *  initialise this with <tt>fromDate, toDate, topN</tt> and rank the coffees sold in
+   *  <tt>[fromDate, toDate]</tt>.
+   *
+   *  <p>throws NotPossibleException if failed to generate data source query;
+   *  DataSourceException if fails to read from the data source
+   */
+  @DOpt(type=DOpt.Type.ObjectFormConstructor)
+  @DOpt(type=DOpt.Type.RequiredConstructor)
+  public BestSellersReport(@AttrRef("fromDate") Date fromDate, @AttrRef("toDate") Date toDate,
+      @AttrRef("topN") Integer topN) throws NotPossibleException, DataSourceException {
+    this.id=++idCounter;
+
+    this.fromDate = fromDate;
+    this.toDate = toDate;
+    this.topN = topN;
+
+    doReportQuery();
+  }
+
+  /**
+   * @effects return fromDate
+   */
+  public Date getFromDate() {
+    return fromDate;
+  }
+
+  /**
+   * @effects set this.fromDate = fromDate
+   */
+  public void setFromDate(Date fromDate) {
+    this.fromDate = fromDate;
+
+    // there are > 1 input attributes: doReportQuery() is invoked by the caller
+  }
+
+  /**
+   * @effects return toDate
+   */
+  public Date getToDate() {
+    return toDate;
+  }
+
+  /**
+   * @effects set this.toDate = toDate
+   */
+  public void setToDate(Date toDate) {
+    this.toDate = toDate;
+
+    // there are > 1 input attributes: doReportQuery() is invoked by the caller
+  }
+
+  /**
+   * @effects return topN
+   */
+  public Integer getTopN() {
+    return topN;
+  }
+
+  /**
+   * @effects set this.topN = topN
+   */
+  public void setTopN(Integer topN) {
+    this.topN = topN;
+
+    // there are > 1 input attributes: doReportQuery() is invoked by the caller
+  }
+
+  /**
+   * This method is invoked when the report input has be set by the user.
+   *
+   * @effects <pre>
+   *   stream the sale order lines of the orders in [fromDate, toDate] and rank the
+   *   topN coffees by quantity and by revenue
+   *   update the output attributes accordingly.
+   *
+   *  <p>throws NotPossibleException if failed to generate data source query;
+   *  DataSourceException if fails to read from the data source. </pre>
+   */
+  @DOpt(type=DOpt.Type.DerivedAttributeUpdater)
+  @AttrRef(value="byQuantity")
+  public void doReportQuery() throws NotPossibleException, DataSourceException {
+    final Date from = (fromDate != null) ? fromDate : MIN_DATE;
+    final Date to = (toDate != null) ? toDate : MAX_DATE;
+    final int n = (topN != null && topN > 0) ? topN : DEFAULT_TOP_N;
+
+    // (the result is re-used until a sale order, a line or a coffee is changed)
+    Rankings result = ReportResultCache.retrieve(BestSellersReport.class,
+        new Object[] {from, to, n},
+        () -> retrieveRankings(from, to, n),
+        SaleOrder.class, DetailExOrder.class, Coffee.class);
+
+    if (result.numCoffees > 0) {
+      // update the main output data
+      byQuantity = result.byQuantity;
+      byRevenue = result.byRevenue;
+
+      // update other output (if any)
+      numCoffees = result.numCoffees;
+    } else {
+      // no data found: reset output
+      resetOutput();
+    }
+  }
+
+  /**
+   * @overview
+   *  The rankings of a date range.
+   */
+  private static final class Rankings {
+    private final List<BestSeller> byQuantity;
+    private final List<BestSeller> byRevenue;
+    private final int numCoffees;
+
+    private Rankings(List<BestSeller> byQuantity, List<BestSeller> byRevenue, int numCoffees) {
+      this.byQuantity = byQuantity;
+      this.byRevenue = byRevenue;
+      this.numCoffees = numCoffees;
+    }
+  }
+
+  /**
+   * @effects
+   *  return the top <tt>n</tt> coffees by quantity and by revenue of the sale order lines of
+   *  the orders in <tt>[from, to]</tt>
+   *
+   *  <p>throws NotPossibleException if failed to generate data source query;
+   *  DataSourceException if fails to read from the data source.
+   */
+  private static Rankings retrieveRankings(Date from, Date to, int n)
+      throws NotPossibleException, DataSourceException {
+    String sql = getSql();
+
+    // the sales of each coffee: {quantity, revenue}
+    Map<Long, long[]> sales = new HashMap<>();
+
+    Connection conn = DataSourceToolKit.getConnection();
+    synchronized (conn) {
+      PreparedStatement stmt = DataSourceToolKit.prepare(sql);
+      try {
+        stmt.setDate(1, new java.sql.Date(from.getTime()));
+        stmt.setDate(2, new java.sql.Date(to.getTime()));
+
+        ResultSet rs = stmt.executeQuery();
+        try {
+          while (rs.next()) {
+            long coffeeId = rs.getLong(1);
+            int quantity = rs.getInt(2);
+            long exPrice = rs.getLong(3);
+
+            long[] s = sales.get(coffeeId);
+            if (s == null) {
+              s = new long[2];
+              sales.put(coffeeId, s);
+            }
+            s[0] += quantity;
+            s[1] = Money.plus(s[1], Money.times(exPrice, quantity));
+          }
+        } finally {
+          rs.close();
+        }
+      } catch (SQLException e) {
+        throw new DataSourceException(DataSourceException.Code.FAIL_TO_EXECUTE_QUERY, e,
+            new Object[] {sql});
+      }
+    }
+
+    // ties are ranked by the coffee ids, the smallest first
+    Comparator<Map.Entry<Long, long[]>> byId =
+        Comparator.comparing(Map.Entry<Long, long[]>::getKey).reversed();
+    TopN<Map.Entry<Long, long[]>> topQuantity = new TopN<>(n,
+        Comparator.<Map.Entry<Long, long[]>>comparingLong(e -> e.getValue()[0]).thenComparing(byId));
+    TopN<Map.Entry<Long, long[]>> topRevenue = new TopN<>(n,
+        Comparator.<Map.Entry<Long, long[]>>comparingLong(e -> e.getValue()[1]).thenComparing(byId));
+    for (Map.Entry<Long, long[]> e : sales.entrySet()) {
+      topQuantity.offer(e);
+      topRevenue.offer(e);
+    }
+
+    List<Map.Entry<Long, long[]>> quantityRanks = topQuantity.toList();
+    List<Map.Entry<Long, long[]>> revenueRanks = topRevenue.toList();
+
+    // load the ranked coffees only
+    Set<Long> ids = new LinkedHashSet<>();
+    for (Map.Entry<Long, long[]> e : quantityRanks) {
+      ids.add(e.getKey());
+    }
+    for (Map.Entry<Long, long[]> e : revenueRanks) {
+      ids.add(e.getKey());
+    }
+    Map<Long, Coffee> coffees = retrieveCoffees(ids);
+
+    return new Rankings(toBestSellers(quantityRanks, coffees), toBestSellers(revenueRanks, coffees),
+        sales.size());
+  }
+
+  /**
+   * @effects
+   *  return the coffees whose ids are in <tt>ids</tt>, keyed by their ids (a coffee that
+   *  has been deleted is not included)
+   */
+  private static Map<Long, Coffee> retrieveCoffees(Collection<Long> ids)
+      throws NotPossibleException, DataSourceException {
+    Map<Long, Coffee> result = new HashMap<>();
+    if (ids.isEmpty()) {
+      return result;
+    }
+
+    DOMBasic dom = QRM.getInstance().getDom();
+    DAttr idAttrib = dom.getDsm().getIDDomainConstraints(Coffee.class).get(0);
+    List<Oid> oids = new ArrayList<>(ids.size());
+    for (Long id : ids) {
+      oids.add(dom.genObjectId(Coffee.class, idAttrib, id));
+    }
+
+    Map<Oid, Coffee> loaded = dom.retrieveObjects(Coffee.class, oids, null);
+    if (loaded != null) {
+      for (Coffee c : loaded.values()) {
+        if (c != null) {
+          result.put(c.getId(), c);
+        }
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * @effects
+   *  return the ranked sales <tt>ranks</tt> of the coffees <tt>coffees</tt> as report rows
+   */
+  private static List<BestSeller> toBestSellers(List<Map.Entry<Long, long[]>> ranks,
+      Map<Long, Coffee> coffees) {
+    List<BestSeller> result = new ArrayList<>(ranks.size());
+    int rank = 0;
+    for (Map.Entry<Long, long[]> e : ranks) {
+      rank++;
+      Coffee c = coffees.get(e.getKey());
+      if (c != null) {
+        result.add(new BestSeller(rank, c.getCode(), c.getNameCoffee(), e.getValue()[0],
+            e.getValue()[1]));
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * @effects
+   *  return the SQL of the query of the (coffee id, quantity, unit price) of the sale order
+   *  lines of a date range (shared by all instances of this report), generating it (and
+   *  creating the index of the order dates, which the query scans) if this has not been
+   *  done before.
+   *
+   *  <p>throws NotPossibleException if failed to generate the query;
+   *  DataSourceException if failed to create the index
+   */
+  private static synchronized String getSql() throws NotPossibleException, DataSourceException {
+    if (sql == null) {
+      ReportQuery.createIndex(SaleOrder.class, SaleOrder.SO_date);
+
+      DOMBasic dom = QRM.getInstance().getDom();
+      DSMBasic dsm = dom.getDsm();
+      RelationalOSMBasic osm = (RelationalOSMBasic) dom.getOsm();
+
+      String orderId = osm.toDBColumnName(SaleOrder.class,
+          dsm.getIDDomainConstraints(SaleOrder.class).get(0), false);
+      String dateCol = osm.toDBColumnName(SaleOrder.class,
+          dsm.getDomainConstraint(SaleOrder.class, SaleOrder.SO_date), false);
+
+      sql = "select d." + column(dsm, osm, "coffee")
+          + ", d." + column(dsm, osm, "quantity")
+          + ", d." + column(dsm, osm, "exPrice")
+          + " from " + dsm.getDomainClassName(DetailExOrder.class) + " d"
+          + " join " + dsm.getDomainClassName(SaleOrder.class) + " o"
+          + " on d." + column(dsm, osm, "saleOrder") + " = o." + orderId
+          + " where o." + dateCol + " >= ? and o." + dateCol + " <= ?";
+    }
+
+    return sql;
+  }
+
+  private static String column(DSMBasic dsm, RelationalOSMBasic osm, String attribName) {
+    return osm.toDBColumnName(DetailExOrder.class,
+        dsm.getDomainConstraint(DetailExOrder.class, attribName), false);
+  }
+
+  /**
+   * @effects
+   *  reset all output attributes to their initial values
+   */
+  private void resetOutput() {
+    byQuantity = null;
+    byRevenue = null;
+    numCoffees = 0;
+  }
+
+  /**
+   * A link-adder method for {@link #byQuantity}, required for the object form to function.
+   * However, this method is empty because the best sellers have already be recorded in the attribute {@link #byQuantity}.
+   */
+  @DOpt(type=DOpt.Type.LinkAdder)
+  @AttrRef(value="byQuantity")
+  public boolean addBestSellerByQuantity(Collection<BestSeller> sellers) {
+    // do nothing
+    return false;
+  }
+
+  /**
+   * A link-adder method for {@link #byRevenue}, required for the object form to function.
+   * However, this method is empty because the best sellers have already be recorded in the attribute {@link #byRevenue}.
+   */
+  @DOpt(type=DOpt.Type.LinkAdder)
+  @AttrRef(value="byRevenue")
+  public boolean addBestSellerByRevenue(Collection<BestSeller> sellers) {
+    // do nothing
+    return false;
+  }
+
+  /**
+   * @effects return byQuantity
+   */
+  public Collection<BestSeller> getByQuantity() {
+    return byQuantity;
+  }
+
+  /**
+   * @effects return byRevenue
+   */
+  public Collection<BestSeller> getByRevenue() {
+    return byRevenue;
+  }
+
+  /**
+   * @effects return numCoffees
+   */
+  public int getNumCoffees() {
+    return numCoffees;
+  }
+
+  /**
+   * @effects return id
+   */
+  public int getId() {
+    return id;
+  }
+
+  @Override
+  public int hashCode() {
+    final int prime = 31;
+    int result = 1;
+    result = prime * result + id;
+    return result;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (obj == null)
+      return false;
+    if (getClass() != obj.getClass())
+      return false;
+    BestSellersReport other = (BestSellersReport) obj;
+    if (id != other.id)
+      return false;
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    return "BestSellersReport (" + id + ", " + fromDate + ", " + toDate + ", " + topN + ")";
+  }
+
+}
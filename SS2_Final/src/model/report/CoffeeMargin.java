@@ -0,0 +1,142 @@
+package model.report;
+
+import domainapp.basics.model.meta.DAttr;
+import domainapp.basics.model.meta.DAttr.Type;
+import domainapp.basics.model.meta.DClass;
+import model.util.Money;
+
+/**
+ * @overview
+ * 	Represent the gross margin of the sales of a coffee (a row of a {@link MarginReport}).
+ *
+ *  <p>The cost figures are <tt>null</tt> if the coffee has not been imported (its cost is
+ *  not known).
+ *
+ * @version 1.0
+ */
+@DClass(schema="SS2_Final",serialisable=false)
+public class CoffeeMargin {
+  public static final String CM_id = "id";
+  public static final String CM_code = "code";
+  public static final String CM_nameCoffee = "nameCoffee";
+  public static final String CM_quantity = "quantity";
+  public static final String CM_revenue = "revenue";
+  public static final String CM_avgCost = "avgCost";
+  public static final String CM_cost = "cost";
+  public static final String CM_margin = "margin";
+  public static final String CM_marginPercent = "marginPercent";
+
+  @DAttr(name = CM_id, id = true, auto = true, type = Type.Integer, length = 5, optional = false, mutable = false)
+  private int id;
+  private static int idCounter = 0;
+
+  /** the code of the coffee, see {@link model.Coffee#getCode()} */
+  @DAttr(name = CM_code, type = Type.String, length = 20, optional = false, mutable = false)
+  private String code;
+
+  @DAttr(name = CM_nameCoffee, type = Type.String, length = 15, optional = false, mutable = false)
+  private String nameCoffee;
+
+  /** the quantity sold */
+  @DAttr(name = CM_quantity, type = Type.Long, optional = false, mutable = false)
+  private long quantity;
+
+  /** the total price of the sale lines (in minor units, see {@link Money}) */
+  @DAttr(name = CM_revenue, type = Type.Long, optional = false, mutable = false)
+  private long revenue;
+
+  /** the weighted-average unit cost (in minor units) */
+  @DAttr(name = CM_avgCost, type = Type.Long, optional = true, mutable = false)
+  private Long avgCost;
+
+  /** the cost of the quantity sold, at the average unit cost (in minor units) */
+  @DAttr(name = CM_cost, type = Type.Long, optional = true, mutable = false)
+  private Long cost;
+
+  /** <tt>revenue - cost</tt> (in minor units) */
+  @DAttr(name = CM_margin, type = Type.Long, optional = true, mutable = false)
+  private Long margin;
+
+  /** the margin as a percentage of the revenue, to one decimal place */
+  @DAttr(name = CM_marginPercent, type = Type.Double, optional = true, mutable = false)
+  private Double marginPercent;
+
+  /**
+   * @effects
+   *  initialise this as the margin of selling <tt>quantity</tt> of the coffee whose code
+   *  and name are <tt>code, nameCoffee</tt> for <tt>revenue</tt>, at the average unit cost
+   *  <tt>avgCost</tt> (<tt>null</tt> if not known)
+   *
+   *  <p>throws ArithmeticException if the cost overflows
+   */
+  public CoffeeMargin(String code, String nameCoffee, long quantity, long revenue, Long avgCost)
+      throws ArithmeticException {
+    this.id = ++idCounter;
+    this.code = code;
+    this.nameCoffee = nameCoffee;
+    this.quantity = quantity;
+    this.revenue = revenue;
+    this.avgCost = avgCost;
+    if (avgCost != null) {
+      this.cost = Money.times(avgCost, quantity);
+      this.margin = Money.minus(revenue, cost);
+      this.marginPercent = (revenue != 0) ? Math.round(margin * 1000.0 / revenue) / 10.0 : null;
+    }
+  }
+
+  public int getId() {
+    return id;
+  }
+
+  public String getCode() {
+    return code;
+  }
+
+  public String getNameCoffee() {
+    return nameCoffee;
+  }
+
+  public long getQuantity() {
+    return quantity;
+  }
+
+  public long getRevenue() {
+    return revenue;
+  }
+
+  public Long getAvgCost() {
+    return avgCost;
+  }
+
+  public Long getCost() {
+    return cost;
+  }
+
+  public Long getMargin() {
+    return margin;
+  }
+
+  public Double getMarginPercent() {
+    return marginPercent;
+  }
+
+  @Override
+  public int hashCode() {
+    return id;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (obj == null || getClass() != obj.getClass())
+      return false;
+    return id == ((CoffeeMargin) obj).id;
+  }
+
+  @Override
+  public String toString() {
+    return "CoffeeMargin(" + code + "," + nameCoffee + "," + quantity + "," + Money.format(revenue)
+        + "," + ((margin != null) ? Money.format(margin) : "-") + ")";
+  }
+}
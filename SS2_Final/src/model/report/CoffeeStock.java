@@ -0,0 +1,81 @@
+package model.report;
+
+import domainapp.basics.model.meta.DAttr;
+import domainapp.basics.model.meta.DAttr.Type;
+import domainapp.basics.model.meta.DClass;
+
+/**
+ * @overview
+ * 	Represent the stock on hand of a coffee (a row of a {@link StockReport}).
+ *
+ * @version 1.0
+ */
+@DClass(schema="SS2_Final",serialisable=false)
+public class CoffeeStock {
+  public static final String CS_id = "id";
+  public static final String CS_code = "code";
+  public static final String CS_nameCoffee = "nameCoffee";
+  public static final String CS_onHand = "onHand";
+
+  @DAttr(name = CS_id, id = true, auto = true, type = Type.Integer, length = 5, optional = false, mutable = false)
+  private int id;
+  private static int idCounter = 0;
+
+  /** the code of the coffee, see {@link model.Coffee#getCode()} */
+  @DAttr(name = CS_code, type = Type.String, length = 20, optional = false, mutable = false)
+  private String code;
+
+  @DAttr(name = CS_nameCoffee, type = Type.String, length = 15, optional = false, mutable = false)
+  private String nameCoffee;
+
+  /** the quantity imported minus the quantity sold */
+  @DAttr(name = CS_onHand, type = Type.Long, optional = false, mutable = false)
+  private long onHand;
+
+  /**
+   * @effects
+   *  initialise this as the stock <tt>onHand</tt> of the coffee whose code and name are
+   *  <tt>code, nameCoffee</tt>
+   */
+  public CoffeeStock(String code, String nameCoffee, long onHand) {
+    this.id = ++idCounter;
+    this.code = code;
+    this.nameCoffee = nameCoffee;
+    this.onHand = onHand;
+  }
+
+  public int getId() {
+    return id;
+  }
+
+  public String getCode() {
+    return code;
+  }
+
+  public String getNameCoffee() {
+    return nameCoffee;
+  }
+
+  public long getOnHand() {
+    return onHand;
+  }
+
+  @Override
+  public int hashCode() {
+    return id;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (obj == null || getClass() != obj.getClass())
+      return false;
+    return id == ((CoffeeStock) obj).id;
+  }
+
+  @Override
+  public String toString() {
+    return "CoffeeStock(" + code + "," + nameCoffee + "," + onHand + ")";
+  }
+}
@@ -0,0 +1,126 @@
+package model.report;
+
+import domainapp.basics.model.meta.DAttr;
+import domainapp.basics.model.meta.DAttr.Type;
+import domainapp.basics.model.meta.DClass;
+import model.util.Money;
+
+/**
+ * @overview
+ * 	Represent the recency, frequency and monetary value of a customer and its segment (a row
+ *  of a {@link CustomerSegmentsReport}).
+ *
+ * @version 1.0
+ */
+@DClass(schema="SS2_Final",serialisable=false)
+public class CustomerRfm {
+  public static final String CR_id = "id";
+  public static final String CR_code = "code";
+  public static final String CR_fullName = "fullName";
+  public static final String CR_recencyDays = "recencyDays";
+  public static final String CR_frequency = "frequency";
+  public static final String CR_monetary = "monetary";
+  public static final String CR_score = "score";
+  public static final String CR_segment = "segment";
+
+  @DAttr(name = CR_id, id = true, auto = true, type = Type.Integer, length = 5, optional = false, mutable = false)
+  private int id;
+  private static int idCounter = 0;
+
+  /** the code of the customer, see {@link model.Customer#getCode()} */
+  @DAttr(name = CR_code, type = Type.String, length = 20, optional = false, mutable = false)
+  private String code;
+
+  @DAttr(name = CR_fullName, type = Type.String, length = 20, optional = false, mutable = false)
+  private String fullName;
+
+  /** the number of days since the last order */
+  @DAttr(name = CR_recencyDays, type = Type.Integer, length = 10, optional = false, mutable = false)
+  private int recencyDays;
+
+  /** the number of orders */
+  @DAttr(name = CR_frequency, type = Type.Integer, length = 10, optional = false, mutable = false)
+  private int frequency;
+
+  /** the total price of the orders (in minor units, see {@link Money}) */
+  @DAttr(name = CR_monetary, type = Type.Long, optional = false, mutable = false)
+  private long monetary;
+
+  /** the recency, frequency and monetary scores, e.g. <tt>"545"</tt> */
+  @DAttr(name = CR_score, type = Type.String, length = 3, optional = false, mutable = false)
+  private String score;
+
+  /** the name of the segment, see {@link model.util.RfmJob.Segment} */
+  @DAttr(name = CR_segment, type = Type.String, length = 20, optional = false, mutable = false)
+  private String segment;
+
+  /**
+   * @effects
+   *  initialise this as the recency, frequency and monetary value <tt>recencyDays,
+   *  frequency, monetary</tt>, scored <tt>score</tt>, and segment <tt>segment</tt> of the
+   *  customer whose code and name are <tt>code, fullName</tt>
+   */
+  public CustomerRfm(String code, String fullName, int recencyDays, int frequency, long monetary,
+      String score, String segment) {
+    this.id = ++idCounter;
+    this.code = code;
+    this.fullName = fullName;
+    this.recencyDays = recencyDays;
+    this.frequency = frequency;
+    this.monetary = monetary;
+    this.score = score;
+    this.segment = segment;
+  }
+
+  public int getId() {
+    return id;
+  }
+
+  public String getCode() {
+    return code;
+  }
+
+  public String getFullName() {
+    return fullName;
+  }
+
+  public int getRecencyDays() {
+    return recencyDays;
+  }
+
+  public int getFrequency() {
+    return frequency;
+  }
+
+  public long getMonetary() {
+    return monetary;
+  }
+
+  public String getScore() {
+    return score;
+  }
+
+  public String getSegment() {
+    return segment;
+  }
+
+  @Override
+  public int hashCode() {
+    return id;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (obj == null || getClass() != obj.getClass())
+      return false;
+    return id == ((CustomerRfm) obj).id;
+  }
+
+  @Override
+  public String toString() {
+    return "CustomerRfm(" + code + "," + fullName + "," + recencyDays + "," + frequency + ","
+        + Money.format(monetary) + "," + score + "," + segment + ")";
+  }
+}
@@ -0,0 +1,321 @@
+package model.report;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import domainapp.basics.core.dodm.dom.DOMBasic;
+import domainapp.basics.core.dodm.dsm.DSMBasic;
+import domainapp.basics.core.dodm.osm.relational.RelationalOSMBasic;
+import domainapp.basics.core.dodm.qrm.QRM;
+import domainapp.basics.exceptions.DataSourceException;
+import domainapp.basics.exceptions.NotPossibleException;
+import domainapp.basics.model.meta.AttrRef;
+import domainapp.basics.model.meta.DAssoc;
+import domainapp.basics.model.meta.DAssoc.AssocEndType;
+import domainapp.basics.model.meta.DAssoc.AssocType;
+import domainapp.basics.model.meta.DAssoc.Associate;
+import domainapp.basics.model.meta.DAttr;
+import domainapp.basics.model.meta.DAttr.Type;
+import domainapp.basics.model.meta.DClass;
+import domainapp.basics.model.meta.DOpt;
+import domainapp.basics.model.meta.MetaConstants;
+import domainapp.basics.model.meta.Select;
+import domainapp.basics.modules.report.model.meta.Output;
+import model.Customer;
+import model.util.DataSourceToolKit;
+import model.util.DomainId;
+import model.util.RfmJob;
+import model.util.RfmJob.Segment;
+
+/**
+ * @overview
+ * 	Represent the reports about the segments of the customers, as computed by the last run
+ *  of the {@link RfmJob}, optionally only of the customers of a given segment.
+ *
+ *  <p>The job is run (as of the current date) before the segments are read if this is
+ *  requested, or if it has never been run.
+ *
+ * @version 1.0
+ */
+@DClass(schema="SS2_Final",serialisable=false)
+public class CustomerSegmentsReport {
+  @DAttr(name = "id", id = true, auto = true, type = Type.Integer, length = 5, optional = false, mutable = false)
+  private int id;
+  private static int idCounter = 0;
+
+  /** the SQL of the query of the segments of all customers and of a given segment, see {@link #getSql(boolean)} */
+  private static String sqlAll, sqlSegment;
+
+  /**input: the segment of the customers, e.g. <tt>AT_RISK</tt> (all segments if not specified) */
+  @DAttr(name = "segment", type = Type.String, length = 20, optional = true)
+  private String segment;
+
+  /**input: whether to run the segmentation job before reading the segments */
+  @DAttr(name = "rerun", type = Type.Boolean, optional = true)
+  private Boolean rerun;
+
+  /**output: the customers of the segment, the largest monetary value first */
+  @DAttr(name="customers",type=Type.Collection,optional=false, mutable=false,
+      serialisable=false,filter=@Select(clazz=CustomerRfm.class,
+      attributes={CustomerRfm.CR_code, CustomerRfm.CR_fullName, CustomerRfm.CR_recencyDays,
+          CustomerRfm.CR_frequency, CustomerRfm.CR_monetary, CustomerRfm.CR_score,
+          CustomerRfm.CR_segment})
+      ,derivedFrom={"segment", "rerun"}
+      )
+  @DAssoc(ascName="customer-segments-report-has-customer-rfms",role="report",
+      ascType=AssocType.One2Many,endType=AssocEndType.One,
+    associate=@Associate(type=CustomerRfm.class,cardMin=0,cardMax=MetaConstants.CARD_MORE
+    ))
+  @Output
+  private Collection<CustomerRfm> customers;
+
+  /**output: number of customers found (if any), derived from {@link #customers} */
+  @DAttr(name = "numCustomers", type = Type.Integer, length = 10, auto=true, mutable=false)
+  @Output
+  private int numCustomers;
+
+  /**
+   * @effects
+   *  initialise this with <tt>segment, rerun</tt> and read the customers of
+   *  <tt>segment</tt>, running the segmentation job first if <tt>rerun</tt> is true.
+   *
+   *  <p>throws NotPossibleException if failed to generate data source query or
+   *  <tt>segment</tt> is not valid; DataSourceException if fails to run the job or to read
+   *  from the data source
+   */
+  @DOpt(type=DOpt.Type.ObjectFormConstructor)
+  @DOpt(type=DOpt.Type.RequiredConstructor)
+  public CustomerSegmentsReport(@AttrRef("segment") String segment, @AttrRef("rerun") Boolean rerun)
+      throws NotPossibleException, DataSourceException {
+    this.id=++idCounter;
+
+    this.segment = segment;
+    this.rerun = rerun;
+
+    doReportQuery();
+  }
+
+  /**
+   * @effects return segment
+   */
+  public String getSegment() {
+    return segment;
+  }
+
+  /**
+   * @effects set this.segment = segment
+   */
+  public void setSegment(String segment) {
+    this.segment = segment;
+
+    // there are > 1 input attributes: doReportQuery() is invoked by the caller
+  }
+
+  /**
+   * @effects return rerun
+   */
+  public Boolean getRerun() {
+    return rerun;
+  }
+
+  /**
+   * @effects set this.rerun = rerun
+   */
+  public void setRerun(Boolean rerun) {
+    this.rerun = rerun;
+
+    // there are > 1 input attributes: doReportQuery() is invoked by the caller
+  }
+
+  /**
+   * This method is invoked when the report input has be set by the user.
+   *
+   * @effects <pre>
+   *   if rerun is true or the segmentation job has never been run
+   *     run the job
+   *   read the customers of segment
+   *   update the output attributes accordingly.
+   *
+   *  <p>throws NotPossibleException if failed to generate data source query or
+   *  segment is not valid; DataSourceException if fails to run the job or to read from
+   *  the data source. </pre>
+   */
+  @DOpt(type=DOpt.Type.DerivedAttributeUpdater)
+  @AttrRef(value="customers")
+  public void doReportQuery() throws NotPossibleException, DataSourceException {
+    Segment s = null;
+    if (segment != null && !segment.trim().isEmpty()) {
+      try {
+        s = Segment.valueOf(segment.trim().toUpperCase());
+      } catch (IllegalArgumentException e) {
+        throw new NotPossibleException(NotPossibleException.Code.FAIL_TO_PERFORM_REPORT, e,
+            new Object[] {segment});
+      }
+    }
+
+    if (Boolean.TRUE.equals(rerun) || !RfmJob.hasSegments()) {
+      RfmJob.run(new Date());
+      // run once per request
+      rerun = Boolean.FALSE;
+    }
+
+    List<CustomerRfm> result = retrieveCustomers(s);
+
+    if (!result.isEmpty()) {
+      // update the main output data
+      customers = result;
+
+      // update other output (if any)
+      numCustomers = customers.size();
+    } else {
+      // no data found: reset output
+      resetOutput();
+    }
+  }
+
+  /**
+   * @effects
+   *  return the customers of segment <tt>s</tt> (of all segments if <tt>s = null</tt>), the
+   *  largest monetary value first
+   *
+   *  <p>throws NotPossibleException if failed to generate data source query;
+   *  DataSourceException if fails to read from the data source.
+   */
+  private static List<CustomerRfm> retrieveCustomers(Segment s)
+      throws NotPossibleException, DataSourceException {
+    String sql = getSql(s != null);
+    List<CustomerRfm> result = new ArrayList<>();
+
+    Connection conn = DataSourceToolKit.getConnection();
+    synchronized (conn) {
+      PreparedStatement stmt = DataSourceToolKit.prepare(sql);
+      try {
+        if (s != null) {
+          stmt.setString(1, s.name());
+        }
+
+        ResultSet rs = stmt.executeQuery();
+        try {
+          while (rs.next()) {
+            result.add(new CustomerRfm(DomainId.format(Customer.ID_PREFIX, rs.getLong(1)),
+                rs.getString(2), rs.getInt(3), rs.getInt(4), rs.getLong(5),
+                "" + rs.getInt(6) + rs.getInt(7) + rs.getInt(8), rs.getString(9)));
+          }
+        } finally {
+          rs.close();
+        }
+      } catch (SQLException e) {
+        throw new DataSourceException(DataSourceException.Code.FAIL_TO_EXECUTE_QUERY, e,
+            new Object[] {sql});
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * @effects
+   *  return the SQL of the query of the segments of the customers of a given segment (if
+   *  <tt>bySegment</tt>) or of all customers (shared by all instances of this report),
+   *  generating it if this has not been done before.
+   *
+   *  <p>throws NotPossibleException if failed to generate the query
+   */
+  private static synchronized String getSql(boolean bySegment) throws NotPossibleException {
+    if (sqlAll == null) {
+      DOMBasic dom = QRM.getInstance().getDom();
+      DSMBasic dsm = dom.getDsm();
+      RelationalOSMBasic osm = (RelationalOSMBasic) dom.getOsm();
+
+      String idCol = osm.toDBColumnName(Customer.class,
+          dsm.getIDDomainConstraints(Customer.class).get(0), false);
+      String nameCol = osm.toDBColumnName(Customer.class,
+          dsm.getDomainConstraint(Customer.class, Customer.C_name), false);
+
+      String select = "select s.customerId, c." + nameCol + ", s.recencyDays, s.frequency,"
+          + " s.monetary, s.rScore, s.fScore, s.mScore, s.segment"
+          + " from " + RfmJob.TABLE + " s"
+          + " join " + dsm.getDomainClassName(Customer.class) + " c on s.customerId = c." + idCol;
+      String order = " order by s.monetary desc, s.customerId";
+
+      sqlAll = select + order;
+      sqlSegment = select + " where s.segment = ?" + order;
+    }
+
+    return bySegment ? sqlSegment : sqlAll;
+  }
+
+  /**
+   * @effects
+   *  reset all output attributes to their initial values
+   */
+  private void resetOutput() {
+    customers = null;
+    numCustomers = 0;
+  }
+
+  /**
+   * A link-adder method for {@link #customers}, required for the object form to function.
+   * However, this method is empty because the customers have already be recorded in the attribute {@link #customers}.
+   */
+  @DOpt(type=DOpt.Type.LinkAdder)
+  public boolean addCustomerRfm(Collection<CustomerRfm> customers) {
+    // do nothing
+    return false;
+  }
+
+  /**
+   * @effects return customers
+   */
+  public Collection<CustomerRfm> getCustomers() {
+    return customers;
+  }
+
+  /**
+   * @effects return numCustomers
+   */
+  public int getNumCustomers() {
+    return numCustomers;
+  }
+
+  /**
+   * @effects return id
+   */
+  public int getId() {
+    return id;
+  }
+
+  @Override
+  public int hashCode() {
+    final int prime = 31;
+    int result = 1;
+    result = prime * result + id;
+    return result;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (obj == null)
+      return false;
+    if (getClass() != obj.getClass())
+      return false;
+    CustomerSegmentsReport other = (CustomerSegmentsReport) obj;
+    if (id != other.id)
+      return false;
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    return "CustomerSegmentsReport (" + id + ", " + segment + ")";
+  }
+
+}
@@ -1,243 +1,291 @@
-package model.report;
-
-import java.util.Collection;
-import java.util.Map;
-
-import domainapp.basics.core.dodm.dsm.DSMBasic;
-import domainapp.basics.core.dodm.qrm.QRM;
-import domainapp.basics.exceptions.DataSourceException;
-import domainapp.basics.exceptions.NotPossibleException;
-import domainapp.basics.model.Oid;
-import domainapp.basics.model.meta.AttrRef;
-import domainapp.basics.model.meta.DAssoc;
-import domainapp.basics.model.meta.DAssoc.AssocEndType;
-import domainapp.basics.model.meta.DAssoc.AssocType;
-import domainapp.basics.model.meta.DAssoc.Associate;
-import domainapp.basics.model.meta.DAttr;
-import domainapp.basics.model.meta.DAttr.Type;
-import domainapp.basics.model.meta.DClass;
-import domainapp.basics.model.meta.DOpt;
-import domainapp.basics.model.meta.MetaConstants;
-import domainapp.basics.model.meta.Select;
-import domainapp.basics.model.query.Expression.Op;
-import domainapp.basics.model.query.Query;
-import domainapp.basics.model.query.QueryToolKit;
-import domainapp.basics.modules.report.model.meta.Output;
-import model.Customer;
-
-/**
- * @overview 
- * 	Represent the reports about students by name.
- * 
- * @author dmle
- *
- * @version 5.0
- */
-@DClass(schema="SS2_Final",serialisable=false)
-public class CustomersByNameReport {
-  @DAttr(name = "id", id = true, auto = true, type = Type.Integer, length = 5, optional = false, mutable = false)
-  private int id;
-  private static int idCounter = 0;
-
-  /**input: student name */
-  @DAttr(name = "name", type = Type.String, length = 15, optional = false)
-  private String name;
-  
-  /**output: students whose names match {@link #name} */
-  @DAttr(name="customers",type=Type.Collection,optional=false, mutable=false,
-      serialisable=false,filter=@Select(clazz=Customer.class, 
-      attributes={Customer.C_id, Customer.C_name, Customer.C_dob, Customer.C_address, 
-    		  Customer.C_email, Customer.C_rptCustomerByName})
-      ,derivedFrom={"name"}
-      )
-  @DAssoc(ascName="customers-by-name-report-has-customers",role="report",
-      ascType=AssocType.One2Many,endType=AssocEndType.One,
-    associate=@Associate(type=Customer.class,cardMin=0,cardMax=MetaConstants.CARD_MORE
-    ))
-  @Output
-  private Collection<Customer> customers;
-
-  /**output: number of students found (if any), derived from {@link #students} */
-  @DAttr(name = "numCustomers", type = Type.Integer, length = 10, auto=true, mutable=false)
-  @Output
-  private int numCustomers;
-  
-  /**
-   * @effects 
-   *  initialise this with <tt>name</tt> and use {@link QRM} to retrieve from data source 
-   *  all {@link Student} whose names match <tt>name</tt>.
-   *  initialise {@link #students} with the result if any.
-   *  
-   *  <p>throws NotPossibleException if failed to generate data source query; 
-   *  DataSourceException if fails to read from the data source
-   * 
-   */
-  @DOpt(type=DOpt.Type.ObjectFormConstructor)
-  @DOpt(type=DOpt.Type.RequiredConstructor)
-  public CustomersByNameReport(@AttrRef("name") String name) throws NotPossibleException, DataSourceException {
-    this.id=++idCounter;
-    
-    this.name = name;
-    
-    doReportQuery();
-  }
-  
-  /**
-   * @effects return name
-   */
-  public String getName() {
-    return name;
-  }
-
-  /**
-   * @effects <pre>
-   *  set this.name = name
-   *  if name is changed
-   *    invoke {@link #doReportQuery()} to update the output attribute value
-   *    throws NotPossibleException if failed to generate data source query; 
-   *    DataSourceException if fails to read from the data source.
-   *  </pre>
-   */
-  public void setName(String name) throws NotPossibleException, DataSourceException {
-//    boolean doReportQuery = (name != null && !name.equals(this.name));
-    
-    this.name = name;
-    
-    // DONOT invoke this here if there are > 1 input attributes!
-    doReportQuery();
-  }
-
-  /**
-   * This method is invoked when the report input has be set by the user. 
-   * 
-   * @effects <pre>
-   *   formulate the object query
-   *   execute the query to retrieve from the data source the domain objects that satisfy it 
-   *   update the output attributes accordingly.
-   *  
-   *  <p>throws NotPossibleException if failed to generate data source query; 
-   *  DataSourceException if fails to read from the data source. </pre>
-   */
-  @DOpt(type=DOpt.Type.DerivedAttributeUpdater)
-  @AttrRef(value="students")
-  public void doReportQuery() throws NotPossibleException, DataSourceException {
-    // the query manager instance
-    
-    QRM qrm = QRM.getInstance();
-    
-    // create a query to look up Student from the data source
-    // and then populate the output attribute (students) with the result
-    DSMBasic dsm = qrm.getDsm();
-    
-    //TODO: to conserve memory cache the query and only change the query parameter value(s)
-    Query q = QueryToolKit.createSearchQuery(dsm, Customer.class, 
-        new String[] {Customer.C_name}, 
-        new Op[] {Op.MATCH}, 
-        new Object[] {"%"+name+"%"});
-    
-    Map<Oid, Customer> result = qrm.getDom().retrieveObjects(Customer.class, q);
-    
-    if (result != null) {
-      // update the main output data 
-      customers = result.values();
-      
-      // update other output (if any)
-      numCustomers = customers.size();
-    } else {
-      // no data found: reset output
-      resetOutput();
-    }
-  }
-
-  /**
-   * @effects 
-   *  reset all output attributes to their initial values
-   */
-  private void resetOutput() {
-    customers = null;
-    numCustomers = 0;
-  }
-
-  /**
-   * A link-adder method for {@link #students}, required for the object form to function.
-   * However, this method is empty because students have already be recorded in the attribute {@link #students}.
-   */
-  @DOpt(type=DOpt.Type.LinkAdder)
-  public boolean addCustomer(Collection<Customer> customers) {
-    // do nothing
-    return false;
-  }
-  
-  /**
-   * @effects return students
-   */
-  public Collection<Customer> getCustomers() {
-    return customers;
-  }
-  
-  /**
-   * @effects return numStudents
-   */
-  public int getNumCustomers() {
-    return numCustomers;
-  }
-
-  /**
-   * @effects return id
-   */
-  public int getId() {
-    return id;
-  }
-
-  /* (non-Javadoc)
-   * @see java.lang.Object#hashCode()
-   */
-  /**
-   * @effects 
-   * 
-   * @version 
-   */
-  @Override
-  public int hashCode() {
-    final int prime = 31;
-    int result = 1;
-    result = prime * result + id;
-    return result;
-  }
-
-  /* (non-Javadoc)
-   * @see java.lang.Object#equals(java.lang.Object)
-   */
-  /**
-   * @effects 
-   * 
-   * @version 
-   */
-  @Override
-  public boolean equals(Object obj) {
-    if (this == obj)
-      return true;
-    if (obj == null)
-      return false;
-    if (getClass() != obj.getClass())
-      return false;
-    CustomersByNameReport other = (CustomersByNameReport) obj;
-    if (id != other.id)
-      return false;
-    return true;
-  }
-
-  /* (non-Javadoc)
-   * @see java.lang.Object#toString()
-   */
-  /**
-   * @effects 
-   * 
-   * @version 
-   */
-  @Override
-  public String toString() {
-    return "CustomersByNameReport (" + id + ", " + name + ")";
-  }
-
-}
+package model.report;
+
+import java.util.Collection;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import domainapp.basics.core.dodm.qrm.QRM;
+import domainapp.basics.exceptions.DataSourceException;
+import domainapp.basics.exceptions.NotPossibleException;
+import domainapp.basics.model.meta.AttrRef;
+import domainapp.basics.model.meta.DAssoc;
+import domainapp.basics.model.meta.DAssoc.AssocEndType;
+import domainapp.basics.model.meta.DAssoc.AssocType;
+import domainapp.basics.model.meta.DAssoc.Associate;
+import domainapp.basics.model.meta.DAttr;
+import domainapp.basics.model.meta.DAttr.Type;
+import domainapp.basics.model.meta.DClass;
+import domainapp.basics.model.meta.DOpt;
+import domainapp.basics.model.meta.MetaConstants;
+import domainapp.basics.model.meta.Select;
+import domainapp.basics.modules.report.model.meta.Output;
+import model.Customer;
+import model.util.PagedResult;
+import model.util.ReportExecutor;
+import model.util.ReportResultCache;
+import model.util.TrigramIndex;
+
+/**
+ * @overview 
+ * 	Represent the reports about students by name.
+ * 
+ * @author dmle
+ *
+ * @version 5.0
+ */
+@DClass(schema="SS2_Final",serialisable=false)
+public class CustomersByNameReport {
+  @DAttr(name = "id", id = true, auto = true, type = Type.Integer, length = 5, optional = false, mutable = false)
+  private int id;
+  private static int idCounter = 0;
+
+  /** the index of the names that this report searches (shared by all its instances) */
+  private static final TrigramIndex<Customer> nameIndex = new TrigramIndex<>(Customer.class, Customer.C_name);
+
+  /**input: student name */
+  @DAttr(name = "name", type = Type.String, length = 15, optional = false)
+  private String name;
+  
+  /**output: students whose names match {@link #name} */
+  @DAttr(name="customers",type=Type.Collection,optional=false, mutable=false,
+      serialisable=false,filter=@Select(clazz=Customer.class, 
+      attributes={Customer.C_id, Customer.C_name, Customer.C_dob, Customer.C_address, 
+    		  Customer.C_email, Customer.C_rptCustomerByName})
+      ,derivedFrom={"name"}
+      )
+  @DAssoc(ascName="customers-by-name-report-has-customers",role="report",
+      ascType=AssocType.One2Many,endType=AssocEndType.One,
+    associate=@Associate(type=Customer.class,cardMin=0,cardMax=MetaConstants.CARD_MORE
+    ))
+  @Output
+  private Collection<Customer> customers;
+
+  /**output: number of students found (if any), derived from {@link #students} */
+  @DAttr(name = "numCustomers", type = Type.Integer, length = 10, auto=true, mutable=false)
+  @Output
+  private int numCustomers;
+  
+  /**
+   * @effects 
+   *  initialise this with <tt>name</tt> and use {@link QRM} to retrieve from data source 
+   *  all {@link Student} whose names match <tt>name</tt>.
+   *  initialise {@link #students} with the result if any.
+   *  
+   *  <p>throws NotPossibleException if failed to generate data source query; 
+   *  DataSourceException if fails to read from the data source
+   * 
+   */
+  @DOpt(type=DOpt.Type.ObjectFormConstructor)
+  @DOpt(type=DOpt.Type.RequiredConstructor)
+  public CustomersByNameReport(@AttrRef("name") String name) throws NotPossibleException, DataSourceException {
+    this.id=++idCounter;
+    
+    this.name = name;
+    
+    doReportQuery();
+  }
+  
+  /**
+   * @effects return name
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @effects <pre>
+   *  set this.name = name
+   *  if name is changed
+   *    invoke {@link #doReportQuery()} to update the output attribute value
+   *    throws NotPossibleException if failed to generate data source query; 
+   *    DataSourceException if fails to read from the data source.
+   *  </pre>
+   */
+  public void setName(String name) throws NotPossibleException, DataSourceException {
+//    boolean doReportQuery = (name != null && !name.equals(this.name));
+    
+    this.name = name;
+    
+    // DONOT invoke this here if there are > 1 input attributes!
+    doReportQuery();
+  }
+
+  /**
+   * This method is invoked when the report input has be set by the user. 
+   * 
+   * @effects <pre>
+   *   formulate the object query
+   *   execute the query to retrieve from the data source the domain objects that satisfy it 
+   *   update the output attributes accordingly.
+   *  
+   *  <p>throws NotPossibleException if failed to generate data source query; 
+   *  DataSourceException if fails to read from the data source. </pre>
+   */
+  @DOpt(type=DOpt.Type.DerivedAttributeUpdater)
+  @AttrRef(value="students")
+  public void doReportQuery() throws NotPossibleException, DataSourceException {
+    // run on the report threads without waiting for it: when it completes, the output is
+    // updated on the event dispatch thread and the listeners of the report executor are told
+    // (e.g. to refresh the form). A query for a newer input (e.g. as it is typed) supersedes
+    // this one, whose result is then not published
+    doReportQueryAsync(ReportExecutor::firePublished, e -> ReportExecutor.fireFailed(this, e));
+  }
+
+  /**
+   * @effects 
+   *  run the report query for the current input in the background, cancelling the one 
+   *  that is in flight for this (if any), and when it completes update the output 
+   *  attributes and invoke <tt>onDone</tt> with this or, if it failed, <tt>onError</tt> 
+   *  with the exception. Return the future of the query.
+   *  
+   *  <p>This does not wait for the query. <tt>onDone</tt> and <tt>onError</tt> are invoked 
+   *  on the event dispatch thread, which is also the thread that updates the output. 
+   *  What the query needs from the object pool is prepared on the calling thread, so the 
+   *  query itself only reads the data source.
+   *  
+   *  <p>throws NotPossibleException if failed to prepare the query.
+   */
+  public Future<?> doReportQueryAsync(final Consumer<? super CustomersByNameReport> onDone, 
+      Consumer<? super Exception> onError) throws NotPossibleException {
+    final String name = this.name;
+    
+    // the name index and the result cache listen to the object pool
+    nameIndex.prepare();
+    ReportResultCache.watch(Customer.class);
+
+    return ReportExecutor.submit(this, () -> retrieveResult(name), result -> {
+      publish(result);
+      onDone.accept(this);
+    }, onError);
+  }
+
+  /**
+   * @effects 
+   *  return the result of the report query for the input <tt>name</tt>, or <tt>null</tt> if 
+   *  there are no matching objects
+   *  
+   *  <p>throws NotPossibleException if failed to generate data source query; 
+   *  DataSourceException if fails to read from the data source.
+   */
+  private static PagedResult<Customer> retrieveResult(String name) throws NotPossibleException, DataSourceException {
+    // look up the Customers whose names contain name using the name index of this report
+    // (the result is re-used until a Customer is created, updated or deleted; 
+    // if name contains the previous name, e.g. as it is being typed, the previous 
+    // result is narrowed instead)
+    return ReportResultCache.retrieveNarrowing(CustomersByNameReport.class, name, 
+        () -> nameIndex.retrievePaged(name), 
+        prevName -> name != null && prevName != null && name.contains((String) prevName), 
+        key -> key != null && name != null && ((String) key).contains(name), 
+        Customer.class);
+  }
+
+  /**
+   * @effects 
+   *  update the output attributes with <tt>result</tt>
+   */
+  private synchronized void publish(PagedResult<Customer> result) {
+    if (result != null) {
+      // update the main output data 
+      // (the objects are loaded a page at a time when they are accessed)
+      customers = result;
+      
+      // update other output (if any)
+      numCustomers = customers.size();
+    } else {
+      // no data found: reset output
+      resetOutput();
+    }
+  }
+
+  /**
+   * @effects 
+   *  reset all output attributes to their initial values
+   */
+  private void resetOutput() {
+    customers = null;
+    numCustomers = 0;
+  }
+
+  /**
+   * A link-adder method for {@link #students}, required for the object form to function.
+   * However, this method is empty because students have already be recorded in the attribute {@link #students}.
+   */
+  @DOpt(type=DOpt.Type.LinkAdder)
+  public boolean addCustomer(Collection<Customer> customers) {
+    // do nothing
+    return false;
+  }
+  
+  /**
+   * @effects return students
+   */
+  public Collection<Customer> getCustomers() {
+    return customers;
+  }
+  
+  /**
+   * @effects return numStudents
+   */
+  public int getNumCustomers() {
+    return numCustomers;
+  }
+
+  /**
+   * @effects return id
+   */
+  public int getId() {
+    return id;
+  }
+
+  /* (non-Javadoc)
+   * @see java.lang.Object#hashCode()
+   */
+  /**
+   * @effects 
+   * 
+   * @version 
+   */
+  @Override
+  public int hashCode() {
+    final int prime = 31;
+    int result = 1;
+    result = prime * result + id;
+    return result;
+  }
+
+  /* (non-Javadoc)
+   * @see java.lang.Object#equals(java.lang.Object)
+   */
+  /**
+   * @effects 
+   * 
+   * @version 
+   */
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (obj == null)
+      return false;
+    if (getClass() != obj.getClass())
+      return false;
+    CustomersByNameReport other = (CustomersByNameReport) obj;
+    if (id != other.id)
+      return false;
+    return true;
+  }
+
+  /* (non-Javadoc)
+   * @see java.lang.Object#toString()
+   */
+  /**
+   * @effects 
+   * 
+   * @version 
+   */
+  @Override
+  public String toString() {
+    return "CustomersByNameReport (" + id + ", " + name + ")";
+  }
+
+}
@@ -1,243 +1,363 @@
-package model.report;
-
-import java.util.Collection;
-import java.util.Map;
-
-import domainapp.basics.core.dodm.dsm.DSMBasic;
-import domainapp.basics.core.dodm.qrm.QRM;
-import domainapp.basics.exceptions.DataSourceException;
-import domainapp.basics.exceptions.NotPossibleException;
-import domainapp.basics.model.Oid;
-import domainapp.basics.model.meta.AttrRef;
-import domainapp.basics.model.meta.DAssoc;
-import domainapp.basics.model.meta.DAssoc.AssocEndType;
-import domainapp.basics.model.meta.DAssoc.AssocType;
-import domainapp.basics.model.meta.DAssoc.Associate;
-import domainapp.basics.model.meta.DAttr;
-import domainapp.basics.model.meta.DAttr.Type;
-import domainapp.basics.model.meta.DClass;
-import domainapp.basics.model.meta.DOpt;
-import domainapp.basics.model.meta.MetaConstants;
-import domainapp.basics.model.meta.Select;
-import domainapp.basics.model.query.Expression.Op;
-import domainapp.basics.model.query.Query;
-import domainapp.basics.model.query.QueryToolKit;
-import domainapp.basics.modules.report.model.meta.Output;
-import model.ImportOrder;
-
-/**
- * @overview 
- * 	Represent the reports about students by name.
- * 
- * @author dmle
- *
- * @version 5.0
- */
-@DClass(schema="courseman",serialisable=false)
-public class ImportOrdersByDateReport {
-  @DAttr(name = "id", id = true, auto = true, type = Type.Integer, length = 5, optional = false, mutable = false)
-  private int id;
-  private static int idCounter = 0;
-
-  /**input: student name */
-  @DAttr(name = "date", type = Type.String, length = 15, optional = false)
-  private String date;
-  
-  /**output: students whose names match {@link #name} */
-  @DAttr(name="importOrders",type=Type.Collection,optional=false, mutable=false,
-      serialisable=false,filter=@Select(clazz=ImportOrder.class, 
-      attributes={ImportOrder.IO_id, ImportOrder.IO_sup, ImportOrder.IO_im, ImportOrder.IO_date, 
-    		   ImportOrder.IO_rptImportOrderByDate})
-      ,derivedFrom={"date"}
-      )
-  @DAssoc(ascName="importOrders-by-date-report-has-importOrders",role="report",
-      ascType=AssocType.One2Many,endType=AssocEndType.One,
-    associate=@Associate(type=ImportOrder.class,cardMin=0,cardMax=MetaConstants.CARD_MORE
-    ))
-  @Output
-  private Collection<ImportOrder> importOrders;
-
-  /**output: number of students found (if any), derived from {@link #students} */
-  @DAttr(name = "numImportOrders", type = Type.Integer, length = 6, auto=true, mutable=false)
-  @Output
-  private int numImportOrders;
-  
-  /**
-   * @effects 
-   *  initialise this with <tt>name</tt> and use {@link QRM} to retrieve from data source 
-   *  all {@link Student} whose names match <tt>name</tt>.
-   *  initialise {@link #students} with the result if any.
-   *  
-   *  <p>throws NotPossibleException if failed to generate data source query; 
-   *  DataSourceException if fails to read from the data source
-   * 
-   */
-  @DOpt(type=DOpt.Type.ObjectFormConstructor)
-  @DOpt(type=DOpt.Type.RequiredConstructor)
-  public ImportOrdersByDateReport(@AttrRef("date") String date) throws NotPossibleException, DataSourceException {
-    this.id=++idCounter;
-    
-    this.date = date;
-    
-    doReportQuery();
-  }
-  
-  /**
-   * @effects return name
-   */
-  public String getDate() {
-    return date;
-  }
-
-  /**
-   * @effects <pre>
-   *  set this.name = name
-   *  if name is changed
-   *    invoke {@link #doReportQuery()} to update the output attribute value
-   *    throws NotPossibleException if failed to generate data source query; 
-   *    DataSourceException if fails to read from the data source.
-   *  </pre>
-   */
-  public void setDate(String date) throws NotPossibleException, DataSourceException {
-//    boolean doReportQuery = (name != null && !name.equals(this.name));
-    
-    this.date = date;
-    
-    // DONOT invoke this here if there are > 1 input attributes!
-    doReportQuery();
-  }
-
-  /**
-   * This method is invoked when the report input has be set by the user. 
-   * 
-   * @effects <pre>
-   *   formulate the object query
-   *   execute the query to retrieve from the data source the domain objects that satisfy it 
-   *   update the output attributes accordingly.
-   *  
-   *  <p>throws NotPossibleException if failed to generate data source query; 
-   *  DataSourceException if fails to read from the data source. </pre>
-   */
-  @DOpt(type=DOpt.Type.DerivedAttributeUpdater)
-  @AttrRef(value="importOrders")
-  public void doReportQuery() throws NotPossibleException, DataSourceException {
-    // the query manager instance
-    
-    QRM qrm = QRM.getInstance();
-    
-    // create a query to look up Student from the data source
-    // and then populate the output attribute (students) with the result
-    DSMBasic dsm = qrm.getDsm();
-    
-    //TODO: to conserve memory cache the query and only change the query parameter value(s)
-    Query q = QueryToolKit.createSearchQuery(dsm, ImportOrder.class, 
-        new String[] {ImportOrder.IO_date}, 
-        new Op[] {Op.MATCH}, 
-        new Object[] {"%"+date+"%"});
-    
-    Map<Oid, ImportOrder> result = qrm.getDom().retrieveObjects(ImportOrder.class, q);
-    
-    if (result != null) {
-      // update the main output data 
-      importOrders = result.values();
-      
-      // update other output (if any)
-      numImportOrders = importOrders.size();
-    } else {
-      // no data found: reset output
-      resetOutput();
-    }
-  }
-
-  /**
-   * @effects 
-   *  reset all output attributes to their initial values
-   */
-  private void resetOutput() {
-    importOrders = null;
-    numImportOrders = 0;
-  }
-
-  /**
-   * A link-adder method for {@link #students}, required for the object form to function.
-   * However, this method is empty because students have already be recorded in the attribute {@link #students}.
-   */
-  @DOpt(type=DOpt.Type.LinkAdder)
-  public boolean addImportOrder(Collection<ImportOrder> importOrders) {
-    // do nothing
-    return false;
-  }
-  
-  /**
-   * @effects return students
-   */
-  public Collection<ImportOrder> getImportOrders() {
-    return importOrders;
-  }
-  
-  /**
-   * @effects return numStudents
-   */
-  public int getNumImportOrders() {
-    return numImportOrders;
-  }
-
-  /**
-   * @effects return id
-   */
-  public int getId() {
-    return id;
-  }
-
-  /* (non-Javadoc)
-   * @see java.lang.Object#hashCode()
-   */
-  /**
-   * @effects 
-   * 
-   * @version 
-   */
-  @Override
-  public int hashCode() {
-    final int prime = 31;
-    int result = 1;
-    result = prime * result + id;
-    return result;
-  }
-
-  /* (non-Javadoc)
-   * @see java.lang.Object#equals(java.lang.Object)
-   */
-  /**
-   * @effects 
-   * 
-   * @version 
-   */
-  @Override
-  public boolean equals(Object obj) {
-    if (this == obj)
-      return true;
-    if (obj == null)
-      return false;
-    if (getClass() != obj.getClass())
-      return false;
-    ImportOrdersByDateReport other = (ImportOrdersByDateReport) obj;
-    if (id != other.id)
-      return false;
-    return true;
-  }
-
-  /* (non-Javadoc)
-   * @see java.lang.Object#toString()
-   */
-  /**
-   * @effects 
-   * 
-   * @version 
-   */
-  @Override
-  public String toString() {
-    return "StudentsByNameReport (" + id + ", " + date + ")";
-  }
-
-}
+package model.report;
+
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Date;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import domainapp.basics.core.dodm.qrm.QRM;
+import domainapp.basics.exceptions.DataSourceException;
+import domainapp.basics.exceptions.NotPossibleException;
+import domainapp.basics.model.meta.AttrRef;
+import domainapp.basics.model.meta.DAssoc;
+import domainapp.basics.model.meta.DAssoc.AssocEndType;
+import domainapp.basics.model.meta.DAssoc.AssocType;
+import domainapp.basics.model.meta.DAssoc.Associate;
+import domainapp.basics.model.meta.DAttr;
+import domainapp.basics.model.meta.DAttr.Type;
+import domainapp.basics.model.meta.DClass;
+import domainapp.basics.model.meta.DOpt;
+import domainapp.basics.model.meta.MetaConstants;
+import domainapp.basics.model.meta.Select;
+import domainapp.basics.model.query.Expression.Op;
+import domainapp.basics.modules.report.model.meta.Output;
+import model.ImportOrder;
+import model.util.PagedResult;
+import model.util.ReportExecutor;
+import model.util.ReportQuery;
+import model.util.ReportResultCache;
+
+/**
+ * @overview 
+ * 	Represent the reports about students by name.
+ * 
+ * @author dmle
+ *
+ * @version 5.0
+ */
+@DClass(schema="courseman",serialisable=false)
+public class ImportOrdersByDateReport {
+  @DAttr(name = "id", id = true, auto = true, type = Type.Integer, length = 5, optional = false, mutable = false)
+  private int id;
+  private static int idCounter = 0;
+
+  /** the compiled query of this report, see {@link #getQuery()} */
+  private static ReportQuery<ImportOrder> query;
+
+  /** the earliest and latest dates that a data source date column can hold (used for missing bounds) */
+  private static final Date MIN_DATE = java.sql.Date.valueOf("0001-01-01");
+  private static final Date MAX_DATE = java.sql.Date.valueOf("9999-12-31");
+
+  /**input: the first date of the orders (none if not specified) */
+  @DAttr(name = "fromDate", type = Type.Date, optional = true)
+  private Date fromDate;
+
+  /**input: the last date of the orders (none if not specified) */
+  @DAttr(name = "toDate", type = Type.Date, optional = true)
+  private Date toDate;
+  
+  /**output: students whose names match {@link #name} */
+  @DAttr(name="importOrders",type=Type.Collection,optional=false, mutable=false,
+      serialisable=false,filter=@Select(clazz=ImportOrder.class, 
+      attributes={ImportOrder.IO_id, ImportOrder.IO_sup, ImportOrder.IO_im, ImportOrder.IO_date, 
+    		   ImportOrder.IO_rptImportOrderByDate})
+      ,derivedFrom={"fromDate", "toDate"}
+      )
+  @DAssoc(ascName="importOrders-by-date-report-has-importOrders",role="report",
+      ascType=AssocType.One2Many,endType=AssocEndType.One,
+    associate=@Associate(type=ImportOrder.class,cardMin=0,cardMax=MetaConstants.CARD_MORE
+    ))
+  @Output
+  private Collection<ImportOrder> importOrders;
+
+  /**output: number of students found (if any), derived from {@link #students} */
+  @DAttr(name = "numImportOrders", type = Type.Integer, length = 6, auto=true, mutable=false)
+  @Output
+  private int numImportOrders;
+  
+  /**
+   * @effects 
+   *  initialise this with <tt>name</tt> and use {@link QRM} to retrieve from data source 
+   *  all {@link Student} whose names match <tt>name</tt>.
+   *  initialise {@link #students} with the result if any.
+   *  
+   *  <p>throws NotPossibleException if failed to generate data source query; 
+   *  DataSourceException if fails to read from the data source
+   * 
+   */
+  @DOpt(type=DOpt.Type.ObjectFormConstructor)
+  @DOpt(type=DOpt.Type.RequiredConstructor)
+  public ImportOrdersByDateReport(@AttrRef("fromDate") Date fromDate, @AttrRef("toDate") Date toDate) 
+      throws NotPossibleException, DataSourceException {
+    this.id=++idCounter;
+    
+    this.fromDate = fromDate;
+    this.toDate = toDate;
+    
+    doReportQuery();
+  }
+  
+  /**
+   * @effects return fromDate
+   */
+  public Date getFromDate() {
+    return fromDate;
+  }
+
+  /**
+   * @effects set this.fromDate = fromDate
+   */
+  public void setFromDate(Date fromDate) {
+    this.fromDate = fromDate;
+    
+    // there are > 1 input attributes: doReportQuery() is invoked by the caller
+  }
+
+  /**
+   * @effects return toDate
+   */
+  public Date getToDate() {
+    return toDate;
+  }
+
+  /**
+   * @effects set this.toDate = toDate
+   */
+  public void setToDate(Date toDate) {
+    this.toDate = toDate;
+    
+    // there are > 1 input attributes: doReportQuery() is invoked by the caller
+  }
+
+  /**
+   * This method is invoked when the report input has be set by the user. 
+   * 
+   * @effects <pre>
+   *   formulate the object query
+   *   execute the query to retrieve from the data source the domain objects that satisfy it 
+   *   update the output attributes accordingly.
+   *  
+   *  <p>throws NotPossibleException if failed to generate data source query; 
+   *  DataSourceException if fails to read from the data source. </pre>
+   */
+  @DOpt(type=DOpt.Type.DerivedAttributeUpdater)
+  @AttrRef(value="importOrders")
+  public void doReportQuery() throws NotPossibleException, DataSourceException {
+    // run on the report threads without waiting for it: when it completes, the output is
+    // updated on the event dispatch thread and the listeners of the report executor are told
+    // (e.g. to refresh the form). A query for a newer input (e.g. as it is typed) supersedes
+    // this one, whose result is then not published
+    doReportQueryAsync(ReportExecutor::firePublished, e -> ReportExecutor.fireFailed(this, e));
+  }
+
+  /**
+   * @effects 
+   *  run the report query for the current input in the background, cancelling the one 
+   *  that is in flight for this (if any), and when it completes update the output 
+   *  attributes and invoke <tt>onDone</tt> with this or, if it failed, <tt>onError</tt> 
+   *  with the exception. Return the future of the query.
+   *  
+   *  <p>This does not wait for the query. <tt>onDone</tt> and <tt>onError</tt> are invoked 
+   *  on the event dispatch thread, which is also the thread that updates the output. 
+   *  What the query needs from the object pool is prepared on the calling thread, so the 
+   *  query itself only reads the data source.
+   *  
+   *  <p>throws NotPossibleException if failed to prepare the query; DataSourceException if 
+   *  failed to create the index that it scans.
+   */
+  public Future<?> doReportQueryAsync(final Consumer<? super ImportOrdersByDateReport> onDone, 
+      Consumer<? super Exception> onError) throws NotPossibleException, DataSourceException {
+    final Date fromDate = this.fromDate;
+    final Date toDate = this.toDate;
+    
+    // the query is compiled from the object pool, which the result cache listens to
+    getQuery();
+    ReportResultCache.watch(ImportOrder.class);
+
+    return ReportExecutor.submit(this, () -> retrieveResult(fromDate, toDate), result -> {
+      publish(result);
+      onDone.accept(this);
+    }, onError);
+  }
+
+  /**
+   * @effects 
+   *  write the ImportOrders whose dates are in <tt>[fromDate, toDate]</tt> (the current input) 
+   *  to <tt>file</tt> as CSV, in the order of their ids, and return the number of them.
+   *  
+   *  <p>The rows are streamed from the data source into the file without the ImportOrders being 
+   *  created or the output of this being updated, so this can be used for ranges (e.g. a 
+   *  whole year) that are too large to show.
+   *  
+   *  <p>throws NotPossibleException if failed to generate data source query or to write 
+   *  the file; DataSourceException if fails to read from the data source.
+   */
+  public long exportCsv(Path file) throws NotPossibleException, DataSourceException {
+    final Date from = (fromDate != null) ? toDay(fromDate) : MIN_DATE;
+    final Date to = (toDate != null) ? toDay(toDate) : MAX_DATE;
+    return getQuery().exportCsv(file, from, to);
+  }
+
+  /**
+   * @effects 
+   *  return the result of the report query for the input <tt>fromDate, toDate</tt>, 
+   *  or <tt>null</tt> if there are no matching objects
+   *  
+   *  <p>throws NotPossibleException if failed to generate data source query; 
+   *  DataSourceException if fails to read from the data source.
+   */
+  private static PagedResult<ImportOrder> retrieveResult(Date fromDate, Date toDate) throws NotPossibleException, DataSourceException {
+    // look up the ImportOrders whose dates are in [fromDate, toDate] using the compiled query 
+    // of this report
+    // (the result is re-used until a ImportOrder is created, updated or deleted; 
+    // if [fromDate, toDate] is within the previous range, the previous result is narrowed instead)
+    final Date from = (fromDate != null) ? toDay(fromDate) : MIN_DATE;
+    final Date to = (toDate != null) ? toDay(toDate) : MAX_DATE;
+    return ReportResultCache.retrieveNarrowing(ImportOrdersByDateReport.class, new Object[] {from, to}, 
+        () -> getQuery().retrievePaged(from, to), 
+        prevRange -> !from.before((Date) ((Object[]) prevRange)[0]) && !to.after((Date) ((Object[]) prevRange)[1]), 
+        key -> key != null && !((Date) key).before(from) && !((Date) key).after(to), 
+        ImportOrder.class);
+  }
+
+  /**
+   * @effects 
+   *  update the output attributes with <tt>result</tt>
+   */
+  private synchronized void publish(PagedResult<ImportOrder> result) {
+    if (result != null) {
+      // update the main output data 
+      // (the objects are loaded a page at a time when they are accessed)
+      importOrders = result;
+      
+      // update other output (if any)
+      numImportOrders = importOrders.size();
+    } else {
+      // no data found: reset output
+      resetOutput();
+    }
+  }
+
+  /**
+   * @effects 
+   *  return the compiled query of this report (shared by all its instances), 
+   *  compiling it (and creating the index of the order dates, which the query 
+   *  scans) if this has not been done before.
+   *  
+   *  <p>throws NotPossibleException if failed to compile the query;
+   *  DataSourceException if failed to create the index
+   */
+  private static synchronized ReportQuery<ImportOrder> getQuery() throws NotPossibleException, DataSourceException {
+    if (query == null) {
+      ReportQuery.createIndex(ImportOrder.class, ImportOrder.IO_date);
+      
+      query = ReportQuery.compile(ImportOrder.class, 
+          new String[] {ImportOrder.IO_date, ImportOrder.IO_date}, 
+          new Op[] {Op.GTEQ, Op.LTEQ});
+    }
+    
+    return query;
+  }
+
+  /**
+   * @effects 
+   *  return the day of <tt>d</tt> (i.e. <tt>d</tt> without its time of day), as the data source 
+   *  compares the order dates
+   */
+  private static Date toDay(Date d) {
+    return java.sql.Date.valueOf(new java.sql.Date(d.getTime()).toString());
+  }
+
+  /**
+   * @effects 
+   *  reset all output attributes to their initial values
+   */
+  private void resetOutput() {
+    importOrders = null;
+    numImportOrders = 0;
+  }
+
+  /**
+   * A link-adder method for {@link #students}, required for the object form to function.
+   * However, this method is empty because students have already be recorded in the attribute {@link #students}.
+   */
+  @DOpt(type=DOpt.Type.LinkAdder)
+  public boolean addImportOrder(Collection<ImportOrder> importOrders) {
+    // do nothing
+    return false;
+  }
+  
+  /**
+   * @effects return students
+   */
+  public Collection<ImportOrder> getImportOrders() {
+    return importOrders;
+  }
+  
+  /**
+   * @effects return numStudents
+   */
+  public int getNumImportOrders() {
+    return numImportOrders;
+  }
+
+  /**
+   * @effects return id
+   */
+  public int getId() {
+    return id;
+  }
+
+  /* (non-Javadoc)
+   * @see java.lang.Object#hashCode()
+   */
+  /**
+   * @effects 
+   * 
+   * @version 
+   */
+  @Override
+  public int hashCode() {
+    final int prime = 31;
+    int result = 1;
+    result = prime * result + id;
+    return result;
+  }
+
+  /* (non-Javadoc)
+   * @see java.lang.Object#equals(java.lang.Object)
+   */
+  /**
+   * @effects 
+   * 
+   * @version 
+   */
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (obj == null)
+      return false;
+    if (getClass() != obj.getClass())
+      return false;
+    ImportOrdersByDateReport other = (ImportOrdersByDateReport) obj;
+    if (id != other.id)
+      return false;
+    return true;
+  }
+
+  /* (non-Javadoc)
+   * @see java.lang.Object#toString()
+   */
+  /**
+   * @effects 
+   * 
+   * @version 
+   */
+  @Override
+  public String toString() {
+    return "ImportOrdersByDateReport (" + id + ", " + fromDate + ", " + toDate + ")";
+  }
+
+}
@@ -0,0 +1,373 @@
+package model.report;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import domainapp.basics.core.dodm.dom.DOMBasic;
+import domainapp.basics.core.dodm.dsm.DSMBasic;
+import domainapp.basics.core.dodm.osm.relational.RelationalOSMBasic;
+import domainapp.basics.core.dodm.qrm.QRM;
+import domainapp.basics.exceptions.DataSourceException;
+import domainapp.basics.exceptions.NotPossibleException;
+import domainapp.basics.model.Oid;
+import domainapp.basics.model.meta.AttrRef;
+import domainapp.basics.model.meta.DAssoc;
+import domainapp.basics.model.meta.DAssoc.AssocEndType;
+import domainapp.basics.model.meta.DAssoc.AssocType;
+import domainapp.basics.model.meta.DAssoc.Associate;
+import domainapp.basics.model.meta.DAttr;
+import domainapp.basics.model.meta.DAttr.Type;
+import domainapp.basics.model.meta.DClass;
+import domainapp.basics.model.meta.DOpt;
+import domainapp.basics.model.meta.MetaConstants;
+import domainapp.basics.model.meta.Select;
+import domainapp.basics.modules.report.model.meta.Output;
+import model.Coffee;
+import model.DetailExOrder;
+import model.DetailImOrder;
+import model.SaleOrder;
+import model.util.CostLedger;
+import model.util.DataSourceToolKit;
+import model.util.Money;
+import model.util.ReportQuery;
+import model.util.ReportResultCache;
+
+/**
+ * @overview
+ * 	Represent the reports about the gross margin of the sales of each coffee in a date
+ *  range: the revenue of its sale order lines minus the cost of the quantity sold, at the
+ *  weighted-average unit cost of the coffee.
+ *
+ *  <p>The sales are summed per coffee by the data source; the costs are read from the
+ *  {@link CostLedger}, which is kept up to date by the import orders, so no import order
+ *  line is read.
+ *
+ * @version 1.0
+ */
+@DClass(schema="SS2_Final",serialisable=false)
+public class MarginReport {
+  @DAttr(name = "id", id = true, auto = true, type = Type.Integer, length = 5, optional = false, mutable = false)
+  private int id;
+  private static int idCounter = 0;
+
+  /** the earliest and latest dates that a data source date column can hold (used for missing bounds) */
+  private static final Date MIN_DATE = java.sql.Date.valueOf("0001-01-01");
+  private static final Date MAX_DATE = java.sql.Date.valueOf("9999-12-31");
+
+  /** the SQL of the query of the sales of each coffee of a date range, see {@link #getSql()} */
+  private static String sql;
+
+  /**input: the first date of the orders (none if not specified) */
+  @DAttr(name = "fromDate", type = Type.Date, optional = true)
+  private Date fromDate;
+
+  /**input: the last date of the orders (none if not specified) */
+  @DAttr(name = "toDate", type = Type.Date, optional = true)
+  private Date toDate;
+
+  /**output: the margin of each coffee sold, in the order of the coffee ids */
+  @DAttr(name="margins",type=Type.Collection,optional=false, mutable=false,
+      serialisable=false,filter=@Select(clazz=CoffeeMargin.class,
+      attributes={CoffeeMargin.CM_code, CoffeeMargin.CM_nameCoffee, CoffeeMargin.CM_quantity,
+          CoffeeMargin.CM_revenue, CoffeeMargin.CM_avgCost, CoffeeMargin.CM_cost,
+          CoffeeMargin.CM_margin, CoffeeMargin.CM_marginPercent})
+      ,derivedFrom={"fromDate", "toDate"}
+      )
+  @DAssoc(ascName="margin-report-has-coffee-margins",role="report",
+      ascType=AssocType.One2Many,endType=AssocEndType.One,
+    associate=@Associate(type=CoffeeMargin.class,cardMin=0,cardMax=MetaConstants.CARD_MORE
+    ))
+  @Output
+  private Collection<CoffeeMargin> margins;
+
+  /**output: number of coffees found (if any), derived from {@link #margins} */
+  @DAttr(name = "numCoffees", type = Type.Integer, length = 10, auto=true, mutable=false)
+  @Output
+  private int numCoffees;
+
+  /**output: the total margin of the coffees whose cost is known (in minor units, see {@link Money}) */
+  @DAttr(name = "totalMargin", type = Type.Long, auto=true, mutable=false)
+  @Output
+  private long totalMargin;
+
+  /**
+   * @effects
+   *  initialise this with <tt>fromDate, toDate</tt> and compute the margin of each coffee
+   *  sold in <tt>[fromDate, toDate]</tt>.
+   *
+   *  <p>throws NotPossibleException if failed to generate data source query or to read
+   *  the costs; DataSourceException if fails to read from the data source
+   */
+  @DOpt(type=DOpt.Type.ObjectFormConstructor)
+  @DOpt(type=DOpt.Type.RequiredConstructor)
+  public MarginReport(@AttrRef("fromDate") Date fromDate, @AttrRef("toDate") Date toDate)
+      throws NotPossibleException, DataSourceException {
+    this.id=++idCounter;
+
+    this.fromDate = fromDate;
+    this.toDate = toDate;
+
+    doReportQuery();
+  }
+
+  /**
+   * @effects return fromDate
+   */
+  public Date getFromDate() {
+    return fromDate;
+  }
+
+  /**
+   * @effects set this.fromDate = fromDate
+   */
+  public void setFromDate(Date fromDate) {
+    this.fromDate = fromDate;
+
+    // there are > 1 input attributes: doReportQuery() is invoked by the caller
+  }
+
+  /**
+   * @effects return toDate
+   */
+  public Date getToDate() {
+    return toDate;
+  }
+
+  /**
+   * @effects set this.toDate = toDate
+   */
+  public void setToDate(Date toDate) {
+    this.toDate = toDate;
+
+    // there are > 1 input attributes: doReportQuery() is invoked by the caller
+  }
+
+  /**
+   * This method is invoked when the report input has be set by the user.
+   *
+   * @effects <pre>
+   *   sum the sales of each coffee of the orders in [fromDate, toDate] and cost them at
+   *   the average unit cost of the coffee
+   *   update the output attributes accordingly.
+   *
+   *  <p>throws NotPossibleException if failed to generate data source query or to read
+   *  the costs; DataSourceException if fails to read from the data source. </pre>
+   */
+  @DOpt(type=DOpt.Type.DerivedAttributeUpdater)
+  @AttrRef(value="margins")
+  public void doReportQuery() throws NotPossibleException, DataSourceException {
+    final Date from = (fromDate != null) ? fromDate : MIN_DATE;
+    final Date to = (toDate != null) ? toDate : MAX_DATE;
+
+    // (the result is re-used until a sale order, a sale or import line or a coffee is changed)
+    List<CoffeeMargin> result = ReportResultCache.retrieve(MarginReport.class,
+        new Object[] {from, to},
+        () -> retrieveMargins(from, to),
+        SaleOrder.class, DetailExOrder.class, DetailImOrder.class, Coffee.class);
+
+    if (!result.isEmpty()) {
+      // update the main output data
+      margins = result;
+
+      // update other output (if any)
+      numCoffees = margins.size();
+      totalMargin = 0;
+      for (CoffeeMargin m : margins) {
+        if (m.getMargin() != null) {
+          totalMargin = Money.plus(totalMargin, m.getMargin());
+        }
+      }
+    } else {
+      // no data found: reset output
+      resetOutput();
+    }
+  }
+
+  /**
+   * @effects
+   *  return the margin of each coffee sold by the sale orders in <tt>[from, to]</tt>, in
+   *  the order of the coffee ids
+   *
+   *  <p>throws NotPossibleException if failed to generate data source query or to read
+   *  the costs; DataSourceException if fails to read from the data source.
+   */
+  private static List<CoffeeMargin> retrieveMargins(Date from, Date to)
+      throws NotPossibleException, DataSourceException {
+    String sql = getSql();
+
+    // the sales of each coffee: coffee id, quantity, revenue
+    List<long[]> sales = new ArrayList<>();
+
+    Connection conn = DataSourceToolKit.getConnection();
+    synchronized (conn) {
+      PreparedStatement stmt = DataSourceToolKit.prepare(sql);
+      try {
+        stmt.setDate(1, new java.sql.Date(from.getTime()));
+        stmt.setDate(2, new java.sql.Date(to.getTime()));
+
+        ResultSet rs = stmt.executeQuery();
+        try {
+          while (rs.next()) {
+            sales.add(new long[] {rs.getLong(1), rs.getLong(2), rs.getLong(3)});
+          }
+        } finally {
+          rs.close();
+        }
+      } catch (SQLException e) {
+        throw new DataSourceException(DataSourceException.Code.FAIL_TO_EXECUTE_QUERY, e,
+            new Object[] {sql});
+      }
+    }
+
+    List<CoffeeMargin> result = new ArrayList<>(sales.size());
+    if (sales.isEmpty()) {
+      return result;
+    }
+
+    Map<Long, Long> costs = CostLedger.getAverageCosts();
+
+    DOMBasic dom = QRM.getInstance().getDom();
+    DAttr idAttrib = dom.getDsm().getIDDomainConstraints(Coffee.class).get(0);
+    List<Oid> oids = new ArrayList<>(sales.size());
+    for (long[] s : sales) {
+      oids.add(dom.genObjectId(Coffee.class, idAttrib, s[0]));
+    }
+
+    Map<Oid, Coffee> coffees = dom.retrieveObjects(Coffee.class, oids, null);
+    for (int i = 0; i < oids.size(); i++) {
+      Coffee c = (coffees != null) ? coffees.get(oids.get(i)) : null;
+      if (c != null) {
+        long[] s = sales.get(i);
+        result.add(new CoffeeMargin(c.getCode(), c.getNameCoffee(), s[1], s[2], costs.get(s[0])));
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * @effects
+   *  return the SQL of the query of the quantity and revenue of each coffee sold in a date
+   *  range, in the order of the coffee ids (shared by all instances of this report),
+   *  generating it (and creating the index of the order dates, which the query scans) if
+   *  this has not been done before.
+   *
+   *  <p>throws NotPossibleException if failed to generate the query;
+   *  DataSourceException if failed to create the index
+   */
+  private static synchronized String getSql() throws NotPossibleException, DataSourceException {
+    if (sql == null) {
+      ReportQuery.createIndex(SaleOrder.class, SaleOrder.SO_date);
+
+      DOMBasic dom = QRM.getInstance().getDom();
+      DSMBasic dsm = dom.getDsm();
+      RelationalOSMBasic osm = (RelationalOSMBasic) dom.getOsm();
+
+      String orderId = osm.toDBColumnName(SaleOrder.class,
+          dsm.getIDDomainConstraints(SaleOrder.class).get(0), false);
+      String dateCol = osm.toDBColumnName(SaleOrder.class,
+          dsm.getDomainConstraint(SaleOrder.class, SaleOrder.SO_date), false);
+      String coffee = "d." + column(dsm, osm, "coffee");
+      String quantity = "d." + column(dsm, osm, "quantity");
+      String price = "d." + column(dsm, osm, "exPrice");
+
+      sql = "select " + coffee + ", sum(" + quantity + "), sum(" + quantity + " * " + price + ")"
+          + " from " + dsm.getDomainClassName(DetailExOrder.class) + " d"
+          + " join " + dsm.getDomainClassName(SaleOrder.class) + " o"
+          + " on d." + column(dsm, osm, "saleOrder") + " = o." + orderId
+          + " where o." + dateCol + " >= ? and o." + dateCol + " <= ?"
+          + " group by " + coffee
+          + " order by 1";
+    }
+
+    return sql;
+  }
+
+  private static String column(DSMBasic dsm, RelationalOSMBasic osm, String attribName) {
+    return osm.toDBColumnName(DetailExOrder.class,
+        dsm.getDomainConstraint(DetailExOrder.class, attribName), false);
+  }
+
+  /**
+   * @effects
+   *  reset all output attributes to their initial values
+   */
+  private void resetOutput() {
+    margins = null;
+    numCoffees = 0;
+    totalMargin = 0;
+  }
+
+  /**
+   * A link-adder method for {@link #margins}, required for the object form to function.
+   * However, this method is empty because the margins have already be recorded in the attribute {@link #margins}.
+   */
+  @DOpt(type=DOpt.Type.LinkAdder)
+  public boolean addCoffeeMargin(Collection<CoffeeMargin> margins) {
+    // do nothing
+    return false;
+  }
+
+  /**
+   * @effects return margins
+   */
+  public Collection<CoffeeMargin> getMargins() {
+    return margins;
+  }
+
+  /**
+   * @effects return numCoffees
+   */
+  public int getNumCoffees() {
+    return numCoffees;
+  }
+
+  /**
+   * @effects return totalMargin
+   */
+  public long getTotalMargin() {
+    return totalMargin;
+  }
+
+  /**
+   * @effects return id
+   */
+  public int getId() {
+    return id;
+  }
+
+  @Override
+  public int hashCode() {
+    final int prime = 31;
+    int result = 1;
+    result = prime * result + id;
+    return result;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (obj == null)
+      return false;
+    if (getClass() != obj.getClass())
+      return false;
+    MarginReport other = (MarginReport) obj;
+    if (id != other.id)
+      return false;
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    return "MarginReport (" + id + ", " + fromDate + ", " + toDate + ")";
+  }
+
+}
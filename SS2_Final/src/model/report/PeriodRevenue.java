@@ -0,0 +1,96 @@
+package model.report;
+
+import domainapp.basics.model.meta.DAttr;
+import domainapp.basics.model.meta.DAttr.Type;
+import domainapp.basics.model.meta.DClass;
+import model.util.Money;
+
+/**
+ * @overview
+ * 	Represent the sales revenue of a period (a row of a {@link SalesRevenueReport}).
+ *
+ * @version 1.0
+ */
+@DClass(schema="SS2_Final",serialisable=false)
+public class PeriodRevenue {
+  public static final String PR_id = "id";
+  public static final String PR_period = "period";
+  public static final String PR_numOrders = "numOrders";
+  public static final String PR_revenue = "revenue";
+  public static final String PR_avgTicket = "avgTicket";
+
+  @DAttr(name = PR_id, id = true, auto = true, type = Type.Integer, length = 5, optional = false, mutable = false)
+  private int id;
+  private static int idCounter = 0;
+
+  /** the label of the period, see {@link model.util.Period#format(long)} */
+  @DAttr(name = PR_period, type = Type.String, length = 12, optional = false, mutable = false)
+  private String period;
+
+  @DAttr(name = PR_numOrders, type = Type.Integer, length = 10, optional = false, mutable = false)
+  private int numOrders;
+
+  /** the total price of the orders (in minor units, see {@link Money}) */
+  @DAttr(name = PR_revenue, type = Type.Long, optional = false, mutable = false)
+  private long revenue;
+
+  /** the average total price of an order (in minor units) */
+  @DAttr(name = PR_avgTicket, type = Type.Long, optional = false, mutable = false)
+  private long avgTicket;
+
+  /**
+   * @requires
+   *  numOrders > 0
+   * @effects
+   *  initialise this as the revenue of <tt>numOrders</tt> orders whose total price is
+   *  <tt>revenue</tt> in <tt>period</tt>
+   */
+  public PeriodRevenue(String period, int numOrders, long revenue) {
+    this.id = ++idCounter;
+    this.period = period;
+    this.numOrders = numOrders;
+    this.revenue = revenue;
+    // rounded half up
+    this.avgTicket = (revenue + numOrders / 2) / numOrders;
+  }
+
+  public int getId() {
+    return id;
+  }
+
+  public String getPeriod() {
+    return period;
+  }
+
+  public int getNumOrders() {
+    return numOrders;
+  }
+
+  public long getRevenue() {
+    return revenue;
+  }
+
+  public long getAvgTicket() {
+    return avgTicket;
+  }
+
+  @Override
+  public int hashCode() {
+    return id;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (obj == null || getClass() != obj.getClass())
+      return false;
+    return id == ((PeriodRevenue) obj).id;
+  }
+
+  @Override
+  public String toString() {
+    return "PeriodRevenue(" + period + "," + numOrders + "," + Money.format(revenue) + ","
+        + Money.format(avgTicket) + ")";
+  }
+}
@@ -0,0 +1,385 @@
+package model.report;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import domainapp.basics.core.dodm.dom.DOMBasic;
+import domainapp.basics.core.dodm.dsm.DSMBasic;
+import domainapp.basics.core.dodm.osm.relational.RelationalOSMBasic;
+import domainapp.basics.core.dodm.qrm.QRM;
+import domainapp.basics.exceptions.DataSourceException;
+import domainapp.basics.exceptions.NotPossibleException;
+import domainapp.basics.model.meta.AttrRef;
+import domainapp.basics.model.meta.DAssoc;
+import domainapp.basics.model.meta.DAssoc.AssocEndType;
+import domainapp.basics.model.meta.DAssoc.AssocType;
+import domainapp.basics.model.meta.DAssoc.Associate;
+import domainapp.basics.model.meta.DAttr;
+import domainapp.basics.model.meta.DAttr.Type;
+import domainapp.basics.model.meta.DClass;
+import domainapp.basics.model.meta.DOpt;
+import domainapp.basics.model.meta.MetaConstants;
+import domainapp.basics.model.meta.Select;
+import domainapp.basics.modules.report.model.meta.Output;
+import model.DetailExOrder;
+import model.SaleOrder;
+import model.util.DataSourceToolKit;
+import model.util.Money;
+import model.util.Period;
+import model.util.ReportQuery;
+import model.util.ReportResultCache;
+import model.util.SellerLeaderboard;
+
+/**
+ * @overview
+ * 	Represent the reports about the sales revenue (total price, number and average total
+ *  price of the sale orders) of each day, week or month of a date range.
+ *
+ *  <p>The orders are grouped and summed by the data source, so only one row per period
+ *  is read. The revenue of an order is that of its stored lines (their quantities times
+ *  their prices), as counted by the {@link SellerLeaderboard}, so the two agree.
+ *
+ * @version 1.0
+ */
+@DClass(schema="SS2_Final",serialisable=false)
+public class SalesRevenueReport {
+  @DAttr(name = "id", id = true, auto = true, type = Type.Integer, length = 5, optional = false, mutable = false)
+  private int id;
+  private static int idCounter = 0;
+
+  /** the earliest and latest dates that a data source date column can hold (used for missing bounds) */
+  private static final Date MIN_DATE = java.sql.Date.valueOf("0001-01-01");
+  private static final Date MAX_DATE = java.sql.Date.valueOf("9999-12-31");
+
+  /** the SQL of the aggregation query of each kind of period, see {@link #getSql(Period)} */
+  private static final Map<Period, String> sqls = new EnumMap<>(Period.class);
+
+  /**input: the first date of the orders (none if not specified) */
+  @DAttr(name = "fromDate", type = Type.Date, optional = true)
+  private Date fromDate;
+
+  /**input: the last date of the orders (none if not specified) */
+  @DAttr(name = "toDate", type = Type.Date, optional = true)
+  private Date toDate;
+
+  /**input: the kind of period by which the orders are grouped: day, week or month (default) */
+  @DAttr(name = "period", type = Type.String, length = 5, optional = true)
+  private String period;
+
+  /**output: the revenue of each period that has orders, in the order of the periods */
+  @DAttr(name="revenues",type=Type.Collection,optional=false, mutable=false,
+      serialisable=false,filter=@Select(clazz=PeriodRevenue.class,
+      attributes={PeriodRevenue.PR_period, PeriodRevenue.PR_numOrders, PeriodRevenue.PR_revenue,
+          PeriodRevenue.PR_avgTicket})
+      ,derivedFrom={"fromDate", "toDate", "period"}
+      )
+  @DAssoc(ascName="sales-revenue-report-has-period-revenues",role="report",
+      ascType=AssocType.One2Many,endType=AssocEndType.One,
+    associate=@Associate(type=PeriodRevenue.class,cardMin=0,cardMax=MetaConstants.CARD_MORE
+    ))
+  @Output
+  private Collection<PeriodRevenue> revenues;
+
+  /**output: number of periods found (if any), derived from {@link #revenues} */
+  @DAttr(name = "numPeriods", type = Type.Integer, length = 10, auto=true, mutable=false)
+  @Output
+  private int numPeriods;
+
+  /**output: the total revenue of all the periods (in minor units, see {@link Money}) */
+  @DAttr(name = "totalRevenue", type = Type.Long, auto=true, mutable=false)
+  @Output
+  private long totalRevenue;
+
+  /**
+   * @effects
+   *  initialise this with <tt>fromDate, toDate, period</tt> and compute the revenue of
+   *  each period of <tt>[fromDate, toDate]</tt>.
+   *
+   *  <p>throws NotPossibleException if failed to generate data source query or
+   *  <tt>period</tt> is not valid; DataSourceException if fails to read from the data source
+   */
+  @DOpt(type=DOpt.Type.ObjectFormConstructor)
+  @DOpt(type=DOpt.Type.RequiredConstructor)
+  public SalesRevenueReport(@AttrRef("fromDate") Date fromDate, @AttrRef("toDate") Date toDate,
+      @AttrRef("period") String period) throws NotPossibleException, DataSourceException {
+    this.id=++idCounter;
+
+    this.fromDate = fromDate;
+    this.toDate = toDate;
+    this.period = period;
+
+    doReportQuery();
+  }
+
+  /**
+   * @effects return fromDate
+   */
+  public Date getFromDate() {
+    return fromDate;
+  }
+
+  /**
+   * @effects set this.fromDate = fromDate
+   */
+  public void setFromDate(Date fromDate) {
+    this.fromDate = fromDate;
+
+    // there are > 1 input attributes: doReportQuery() is invoked by the caller
+  }
+
+  /**
+   * @effects return toDate
+   */
+  public Date getToDate() {
+    return toDate;
+  }
+
+  /**
+   * @effects set this.toDate = toDate
+   */
+  public void setToDate(Date toDate) {
+    this.toDate = toDate;
+
+    // there are > 1 input attributes: doReportQuery() is invoked by the caller
+  }
+
+  /**
+   * @effects return period
+   */
+  public String getPeriod() {
+    return period;
+  }
+
+  /**
+   * @effects set this.period = period
+   */
+  public void setPeriod(String period) {
+    this.period = period;
+
+    // there are > 1 input attributes: doReportQuery() is invoked by the caller
+  }
+
+  /**
+   * This method is invoked when the report input has be set by the user.
+   *
+   * @effects <pre>
+   *   run the aggregation query of the period kind of this over the orders
+   *   in [fromDate, toDate]
+   *   update the output attributes accordingly.
+   *
+   *  <p>throws NotPossibleException if failed to generate data source query or
+   *  period is not valid; DataSourceException if fails to read from the data source. </pre>
+   */
+  @DOpt(type=DOpt.Type.DerivedAttributeUpdater)
+  @AttrRef(value="revenues")
+  public void doReportQuery() throws NotPossibleException, DataSourceException {
+    final Period p;
+    try {
+      p = Period.of(period);
+    } catch (IllegalArgumentException e) {
+      throw new NotPossibleException(NotPossibleException.Code.FAIL_TO_PERFORM_REPORT, e,
+          new Object[] {period});
+    }
+    // the bounds are whole days, as the data source compares the order dates: the whole 
+    // last day is included and inputs on the same days share a cached result
+    final Date from = (fromDate != null) ? toDay(fromDate) : MIN_DATE;
+    final Date to = (toDate != null) ? toDay(toDate) : MAX_DATE;
+
+    // (the result is re-used until a SaleOrder or a DetailExOrder is created, updated or deleted)
+    List<PeriodRevenue> result = ReportResultCache.retrieve(SalesRevenueReport.class,
+        new Object[] {from, to, p},
+        () -> retrieveRevenues(p, from, to),
+        SaleOrder.class, DetailExOrder.class);
+
+    if (!result.isEmpty()) {
+      // update the main output data
+      revenues = result;
+
+      // update other output (if any)
+      numPeriods = revenues.size();
+      totalRevenue = 0;
+      for (PeriodRevenue r : revenues) {
+        totalRevenue = Money.plus(totalRevenue, r.getRevenue());
+      }
+    } else {
+      // no data found: reset output
+      resetOutput();
+    }
+  }
+
+  /**
+   * @requires
+   *  <tt>from, to</tt> are days (<tt>java.sql.Date</tt>s, see {@link #toDay(Date)})
+   * @effects
+   *  return the revenue of each period of kind <tt>p</tt> that has sale orders in
+   *  <tt>[from, to]</tt>, in the order of the periods
+   *
+   *  <p>throws NotPossibleException if failed to generate data source query;
+   *  DataSourceException if fails to read from the data source.
+   */
+  private static List<PeriodRevenue> retrieveRevenues(Period p, Date from, Date to)
+      throws NotPossibleException, DataSourceException {
+    String sql = getSql(p);
+    List<PeriodRevenue> result = new ArrayList<>();
+
+    Connection conn = DataSourceToolKit.getConnection();
+    synchronized (conn) {
+      PreparedStatement stmt = DataSourceToolKit.prepare(sql);
+      try {
+        stmt.setDate(1, (java.sql.Date) from);
+        stmt.setDate(2, (java.sql.Date) to);
+
+        ResultSet rs = stmt.executeQuery();
+        try {
+          while (rs.next()) {
+            result.add(new PeriodRevenue(p.format(rs.getLong(1)), rs.getInt(2), rs.getLong(3)));
+          }
+        } finally {
+          rs.close();
+        }
+      } catch (SQLException e) {
+        throw new DataSourceException(DataSourceException.Code.FAIL_TO_EXECUTE_QUERY, e,
+            new Object[] {sql});
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * @effects
+   *  return the SQL of the aggregation query of the periods of kind <tt>p</tt> (shared by
+   *  all instances of this report), generating it (and creating the index of the order
+   *  dates, which the query scans) if this has not been done before.
+   *
+   *  <p>throws NotPossibleException if failed to generate the query;
+   *  DataSourceException if failed to create the index
+   */
+  private static synchronized String getSql(Period p) throws NotPossibleException, DataSourceException {
+    String sql = sqls.get(p);
+    if (sql == null) {
+      ReportQuery.createIndex(SaleOrder.class, SaleOrder.SO_date);
+
+      DOMBasic dom = QRM.getInstance().getDom();
+      DSMBasic dsm = dom.getDsm();
+      RelationalOSMBasic osm = (RelationalOSMBasic) dom.getOsm();
+
+      String orderId = "o." + osm.toDBColumnName(SaleOrder.class,
+          dsm.getIDDomainConstraints(SaleOrder.class).get(0), false);
+      String dateCol = "o." + osm.toDBColumnName(SaleOrder.class,
+          dsm.getDomainConstraint(SaleOrder.class, SaleOrder.SO_date), false);
+      String lineQty = "d." + osm.toDBColumnName(DetailExOrder.class,
+          dsm.getDomainConstraint(DetailExOrder.class, "quantity"), false);
+      String linePrice = "d." + osm.toDBColumnName(DetailExOrder.class,
+          dsm.getDomainConstraint(DetailExOrder.class, "exPrice"), false);
+      String lineOrder = "d." + osm.toDBColumnName(DetailExOrder.class,
+          dsm.getDomainConstraint(DetailExOrder.class, "saleOrder"), false);
+      String key = p.toSQLKey(dateCol);
+
+      // the revenue is summed from the lines (an order without lines has none)
+      sql = "select " + key + ", count(distinct " + orderId + "), sum(" + lineQty + " * " + linePrice + ")"
+          + " from " + dsm.getDomainClassName(SaleOrder.class) + " o"
+          + " left join " + dsm.getDomainClassName(DetailExOrder.class) + " d"
+          + " on " + lineOrder + " = " + orderId
+          + " where " + dateCol + " >= ? and " + dateCol + " <= ?"
+          + " group by " + key
+          + " order by 1";
+      sqls.put(p, sql);
+    }
+
+    return sql;
+  }
+
+  /**
+   * @effects
+   *  return the day of <tt>d</tt> (i.e. <tt>d</tt> without its time of day), as the data source
+   *  compares the order dates
+   */
+  private static Date toDay(Date d) {
+    return java.sql.Date.valueOf(new java.sql.Date(d.getTime()).toString());
+  }
+
+  /**
+   * @effects
+   *  reset all output attributes to their initial values
+   */
+  private void resetOutput() {
+    revenues = null;
+    numPeriods = 0;
+    totalRevenue = 0;
+  }
+
+  /**
+   * A link-adder method for {@link #revenues}, required for the object form to function.
+   * However, this method is empty because the revenues have already be recorded in the attribute {@link #revenues}.
+   */
+  @DOpt(type=DOpt.Type.LinkAdder)
+  public boolean addPeriodRevenue(Collection<PeriodRevenue> revenues) {
+    // do nothing
+    return false;
+  }
+
+  /**
+   * @effects return revenues
+   */
+  public Collection<PeriodRevenue> getRevenues() {
+    return revenues;
+  }
+
+  /**
+   * @effects return numPeriods
+   */
+  public int getNumPeriods() {
+    return numPeriods;
+  }
+
+  /**
+   * @effects return totalRevenue
+   */
+  public long getTotalRevenue() {
+    return totalRevenue;
+  }
+
+  /**
+   * @effects return id
+   */
+  public int getId() {
+    return id;
+  }
+
+  @Override
+  public int hashCode() {
+    final int prime = 31;
+    int result = 1;
+    result = prime * result + id;
+    return result;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (obj == null)
+      return false;
+    if (getClass() != obj.getClass())
+      return false;
+    SalesRevenueReport other = (SalesRevenueReport) obj;
+    if (id != other.id)
+      return false;
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    return "SalesRevenueReport (" + id + ", " + fromDate + ", " + toDate + ", " + period + ")";
+  }
+
+}
@@ -0,0 +1,263 @@
+package model.report;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import domainapp.basics.core.dodm.dom.DOMBasic;
+import domainapp.basics.core.dodm.qrm.QRM;
+import domainapp.basics.exceptions.DataSourceException;
+import domainapp.basics.exceptions.NotPossibleException;
+import domainapp.basics.model.Oid;
+import domainapp.basics.model.meta.AttrRef;
+import domainapp.basics.model.meta.DAssoc;
+import domainapp.basics.model.meta.DAssoc.AssocEndType;
+import domainapp.basics.model.meta.DAssoc.AssocType;
+import domainapp.basics.model.meta.DAssoc.Associate;
+import domainapp.basics.model.meta.DAttr;
+import domainapp.basics.model.meta.DAttr.Type;
+import domainapp.basics.model.meta.DClass;
+import domainapp.basics.model.meta.DOpt;
+import domainapp.basics.model.meta.MetaConstants;
+import domainapp.basics.model.meta.Select;
+import domainapp.basics.modules.report.model.meta.Output;
+import model.Seller;
+import model.util.Money;
+import model.util.SellerLeaderboard;
+
+/**
+ * @overview
+ * 	Represent the reports that rank the sellers by their revenue (with their numbers of
+ *  orders and lines sold) on a day, or on all days.
+ *
+ *  <p>The sales are read from the counters of the {@link SellerLeaderboard}, which are kept
+ *  up to date by the sale orders, so no order is read.
+ *
+ * @version 1.0
+ */
+@DClass(schema="SS2_Final",serialisable=false)
+public class SellerLeaderboardReport {
+  @DAttr(name = "id", id = true, auto = true, type = Type.Integer, length = 5, optional = false, mutable = false)
+  private int id;
+  private static int idCounter = 0;
+
+  /**input: the day of the sales (all days if not specified) */
+  @DAttr(name = "date", type = Type.Date, optional = true)
+  private Date date;
+
+  /**output: the sales of each seller, the largest revenue first */
+  @DAttr(name="sellers",type=Type.Collection,optional=false, mutable=false,
+      serialisable=false,filter=@Select(clazz=SellerSales.class,
+      attributes={SellerSales.SS_rank, SellerSales.SS_code, SellerSales.SS_fullName,
+          SellerSales.SS_revenue, SellerSales.SS_numOrders, SellerSales.SS_numLines})
+      ,derivedFrom={"date"}
+      )
+  @DAssoc(ascName="seller-leaderboard-report-has-seller-sales",role="report",
+      ascType=AssocType.One2Many,endType=AssocEndType.One,
+    associate=@Associate(type=SellerSales.class,cardMin=0,cardMax=MetaConstants.CARD_MORE
+    ))
+  @Output
+  private Collection<SellerSales> sellers;
+
+  /**output: number of sellers found (if any), derived from {@link #sellers} */
+  @DAttr(name = "numSellers", type = Type.Integer, length = 10, auto=true, mutable=false)
+  @Output
+  private int numSellers;
+
+  /**output: the total revenue of all the sellers (in minor units, see {@link Money}) */
+  @DAttr(name = "totalRevenue", type = Type.Long, auto=true, mutable=false)
+  @Output
+  private long totalRevenue;
+
+  /**
+   * @effects
+   *  initialise this with <tt>date</tt> and rank the sellers by their sales on
+   *  <tt>date</tt>.
+   *
+   *  <p>throws NotPossibleException if failed to read the leaderboard;
+   *  DataSourceException if fails to read the sellers from the data source
+   */
+  @DOpt(type=DOpt.Type.ObjectFormConstructor)
+  @DOpt(type=DOpt.Type.RequiredConstructor)
+  public SellerLeaderboardReport(@AttrRef("date") Date date) throws NotPossibleException, DataSourceException {
+    this.id=++idCounter;
+
+    this.date = date;
+
+    doReportQuery();
+  }
+
+  /**
+   * @effects return date
+   */
+  public Date getDate() {
+    return date;
+  }
+
+  /**
+   * @effects <pre>
+   *  set this.date = date
+   *  if this.date is changed
+   *    invoke {@link #doReportQuery()} to update the output attribute value
+   *    throws NotPossibleException if failed to read the leaderboard;
+   *    DataSourceException if fails to read the sellers from the data source.
+   *  </pre>
+   */
+  public void setDate(Date date) throws NotPossibleException, DataSourceException {
+    this.date = date;
+
+    doReportQuery();
+  }
+
+  /**
+   * This method is invoked when the report input has be set by the user.
+   *
+   * @effects <pre>
+   *   read the sales counters of the sellers on date from the leaderboard and rank them
+   *   update the output attributes accordingly.
+   *
+   *  <p>throws NotPossibleException if failed to read the leaderboard;
+   *  DataSourceException if fails to read the sellers from the data source. </pre>
+   */
+  @DOpt(type=DOpt.Type.DerivedAttributeUpdater)
+  @AttrRef(value="sellers")
+  public void doReportQuery() throws NotPossibleException, DataSourceException {
+    List<SellerSales> result = retrieveSales(date);
+
+    if (!result.isEmpty()) {
+      // update the main output data
+      sellers = result;
+
+      // update other output (if any)
+      numSellers = sellers.size();
+      totalRevenue = 0;
+      for (SellerSales s : sellers) {
+        totalRevenue = Money.plus(totalRevenue, s.getRevenue());
+      }
+    } else {
+      // no data found: reset output
+      resetOutput();
+    }
+  }
+
+  /**
+   * @effects
+   *  return the sales of the sellers that have orders on <tt>date</tt> (on any day if
+   *  <tt>date = null</tt>), the largest revenue first
+   *
+   *  <p>throws NotPossibleException if failed to read the leaderboard;
+   *  DataSourceException if fails to read the sellers from the data source.
+   */
+  private static List<SellerSales> retrieveSales(Date date)
+      throws NotPossibleException, DataSourceException {
+    List<Map.Entry<Long, long[]>> counters = new ArrayList<>(SellerLeaderboard.getSellers(date).entrySet());
+    // (sellers whose orders have all been deleted are not ranked)
+    counters.removeIf(e -> e.getValue()[SellerLeaderboard.ORDERS] <= 0);
+    counters.sort(Comparator.<Map.Entry<Long, long[]>>comparingLong(
+        e -> -e.getValue()[SellerLeaderboard.REVENUE]).thenComparing(Map.Entry::getKey));
+
+    List<SellerSales> result = new ArrayList<>(counters.size());
+    if (counters.isEmpty()) {
+      return result;
+    }
+
+    DOMBasic dom = QRM.getInstance().getDom();
+    DAttr idAttrib = dom.getDsm().getIDDomainConstraints(Seller.class).get(0);
+    List<Oid> oids = new ArrayList<>(counters.size());
+    for (Map.Entry<Long, long[]> e : counters) {
+      oids.add(dom.genObjectId(Seller.class, idAttrib, e.getKey()));
+    }
+
+    Map<Oid, Seller> loaded = dom.retrieveObjects(Seller.class, oids, null);
+    int rank = 0;
+    for (int i = 0; i < oids.size(); i++) {
+      Seller s = (loaded != null) ? loaded.get(oids.get(i)) : null;
+      if (s != null) {
+        long[] c = counters.get(i).getValue();
+        result.add(new SellerSales(++rank, s.getCode(), s.getFullName(),
+            c[SellerLeaderboard.REVENUE], c[SellerLeaderboard.ORDERS], c[SellerLeaderboard.LINES]));
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * @effects
+   *  reset all output attributes to their initial values
+   */
+  private void resetOutput() {
+    sellers = null;
+    numSellers = 0;
+    totalRevenue = 0;
+  }
+
+  /**
+   * A link-adder method for {@link #sellers}, required for the object form to function.
+   * However, this method is empty because the sales have already be recorded in the attribute {@link #sellers}.
+   */
+  @DOpt(type=DOpt.Type.LinkAdder)
+  public boolean addSellerSales(Collection<SellerSales> sales) {
+    // do nothing
+    return false;
+  }
+
+  /**
+   * @effects return sellers
+   */
+  public Collection<SellerSales> getSellers() {
+    return sellers;
+  }
+
+  /**
+   * @effects return numSellers
+   */
+  public int getNumSellers() {
+    return numSellers;
+  }
+
+  /**
+   * @effects return totalRevenue
+   */
+  public long getTotalRevenue() {
+    return totalRevenue;
+  }
+
+  /**
+   * @effects return id
+   */
+  public int getId() {
+    return id;
+  }
+
+  @Override
+  public int hashCode() {
+    final int prime = 31;
+    int result = 1;
+    result = prime * result + id;
+    return result;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (obj == null)
+      return false;
+    if (getClass() != obj.getClass())
+      return false;
+    SellerLeaderboardReport other = (SellerLeaderboardReport) obj;
+    if (id != other.id)
+      return false;
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    return "SellerLeaderboardReport (" + id + ", " + date + ")";
+  }
+
+}
@@ -0,0 +1,112 @@
+package model.report;
+
+import domainapp.basics.model.meta.DAttr;
+import domainapp.basics.model.meta.DAttr.Type;
+import domainapp.basics.model.meta.DClass;
+import model.util.Money;
+
+/**
+ * @overview
+ * 	Represent the sales of a seller (a row of a {@link SellerLeaderboardReport}).
+ *
+ * @version 1.0
+ */
+@DClass(schema="SS2_Final",serialisable=false)
+public class SellerSales {
+  public static final String SS_id = "id";
+  public static final String SS_rank = "rank";
+  public static final String SS_code = "code";
+  public static final String SS_fullName = "fullName";
+  public static final String SS_revenue = "revenue";
+  public static final String SS_numOrders = "numOrders";
+  public static final String SS_numLines = "numLines";
+
+  @DAttr(name = SS_id, id = true, auto = true, type = Type.Integer, length = 5, optional = false, mutable = false)
+  private int id;
+  private static int idCounter = 0;
+
+  /** the position of the seller in the leaderboard (starting from 1) */
+  @DAttr(name = SS_rank, type = Type.Integer, length = 5, optional = false, mutable = false)
+  private int rank;
+
+  /** the code of the seller, see {@link model.Seller#getCode()} */
+  @DAttr(name = SS_code, type = Type.String, length = 20, optional = false, mutable = false)
+  private String code;
+
+  @DAttr(name = SS_fullName, type = Type.String, length = 20, optional = false, mutable = false)
+  private String fullName;
+
+  /** the total price of the orders (in minor units, see {@link Money}) */
+  @DAttr(name = SS_revenue, type = Type.Long, optional = false, mutable = false)
+  private long revenue;
+
+  @DAttr(name = SS_numOrders, type = Type.Long, optional = false, mutable = false)
+  private long numOrders;
+
+  @DAttr(name = SS_numLines, type = Type.Long, optional = false, mutable = false)
+  private long numLines;
+
+  /**
+   * @effects
+   *  initialise this as the sales <tt>revenue, numOrders, numLines</tt> of the seller whose
+   *  code and name are <tt>code, fullName</tt>, ranked <tt>rank</tt>
+   */
+  public SellerSales(int rank, String code, String fullName, long revenue, long numOrders,
+      long numLines) {
+    this.id = ++idCounter;
+    this.rank = rank;
+    this.code = code;
+    this.fullName = fullName;
+    this.revenue = revenue;
+    this.numOrders = numOrders;
+    this.numLines = numLines;
+  }
+
+  public int getId() {
+    return id;
+  }
+
+  public int getRank() {
+    return rank;
+  }
+
+  public String getCode() {
+    return code;
+  }
+
+  public String getFullName() {
+    return fullName;
+  }
+
+  public long getRevenue() {
+    return revenue;
+  }
+
+  public long getNumOrders() {
+    return numOrders;
+  }
+
+  public long getNumLines() {
+    return numLines;
+  }
+
+  @Override
+  public int hashCode() {
+    return id;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (obj == null || getClass() != obj.getClass())
+      return false;
+    return id == ((SellerSales) obj).id;
+  }
+
+  @Override
+  public String toString() {
+    return "SellerSales(" + rank + "," + code + "," + fullName + "," + Money.format(revenue) + ","
+        + numOrders + "," + numLines + ")";
+  }
+}
@@ -0,0 +1,240 @@
+package model.report;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import domainapp.basics.core.dodm.dom.DOMBasic;
+import domainapp.basics.core.dodm.qrm.QRM;
+import domainapp.basics.exceptions.DataSourceException;
+import domainapp.basics.exceptions.NotPossibleException;
+import domainapp.basics.model.Oid;
+import domainapp.basics.model.meta.AttrRef;
+import domainapp.basics.model.meta.DAssoc;
+import domainapp.basics.model.meta.DAssoc.AssocEndType;
+import domainapp.basics.model.meta.DAssoc.AssocType;
+import domainapp.basics.model.meta.DAssoc.Associate;
+import domainapp.basics.model.meta.DAttr;
+import domainapp.basics.model.meta.DAttr.Type;
+import domainapp.basics.model.meta.DClass;
+import domainapp.basics.model.meta.DOpt;
+import domainapp.basics.model.meta.MetaConstants;
+import domainapp.basics.model.meta.Select;
+import domainapp.basics.modules.report.model.meta.Output;
+import model.Coffee;
+import model.util.StockLedger;
+
+/**
+ * @overview
+ * 	Represent the reports about the stock on hand of the coffees that have been imported
+ *  or sold, optionally only of those whose stock is at most a given quantity (e.g. to find
+ *  the coffees to re-order).
+ *
+ *  <p>The stock is read from the {@link StockLedger}, which is kept up to date as the
+ *  order lines are stored, so no order line is read.
+ *
+ * @version 1.0
+ */
+@DClass(schema="SS2_Final",serialisable=false)
+public class StockReport {
+  @DAttr(name = "id", id = true, auto = true, type = Type.Integer, length = 5, optional = false, mutable = false)
+  private int id;
+  private static int idCounter = 0;
+
+  /**input: the largest stock of the coffees (all coffees if not specified) */
+  @DAttr(name = "maxStock", type = Type.Integer, length = 10, optional = true)
+  private Integer maxStock;
+
+  /**output: the stock of each coffee, in the order of the coffee ids */
+  @DAttr(name="stocks",type=Type.Collection,optional=false, mutable=false,
+      serialisable=false,filter=@Select(clazz=CoffeeStock.class,
+      attributes={CoffeeStock.CS_code, CoffeeStock.CS_nameCoffee, CoffeeStock.CS_onHand})
+      ,derivedFrom={"maxStock"}
+      )
+  @DAssoc(ascName="stock-report-has-coffee-stocks",role="report",
+      ascType=AssocType.One2Many,endType=AssocEndType.One,
+    associate=@Associate(type=CoffeeStock.class,cardMin=0,cardMax=MetaConstants.CARD_MORE
+    ))
+  @Output
+  private Collection<CoffeeStock> stocks;
+
+  /**output: number of coffees found (if any), derived from {@link #stocks} */
+  @DAttr(name = "numCoffees", type = Type.Integer, length = 20, auto=true, mutable=false)
+  @Output
+  private int numCoffees;
+
+  /**
+   * @effects
+   *  initialise this with <tt>maxStock</tt> and read the stock of the coffees whose stock
+   *  is at most <tt>maxStock</tt>.
+   *
+   *  <p>throws NotPossibleException if failed to read the stock ledger;
+   *  DataSourceException if fails to read the coffees from the data source
+   */
+  @DOpt(type=DOpt.Type.ObjectFormConstructor)
+  @DOpt(type=DOpt.Type.RequiredConstructor)
+  public StockReport(@AttrRef("maxStock") Integer maxStock) throws NotPossibleException, DataSourceException {
+    this.id=++idCounter;
+
+    this.maxStock = maxStock;
+
+    doReportQuery();
+  }
+
+  /**
+   * @effects return maxStock
+   */
+  public Integer getMaxStock() {
+    return maxStock;
+  }
+
+  /**
+   * @effects <pre>
+   *  set this.maxStock = maxStock
+   *  if this.maxStock is changed
+   *    invoke {@link #doReportQuery()} to update the output attribute value
+   *    throws NotPossibleException if failed to read the stock ledger;
+   *    DataSourceException if fails to read the coffees from the data source.
+   *  </pre>
+   */
+  public void setMaxStock(Integer maxStock) throws NotPossibleException, DataSourceException {
+    this.maxStock = maxStock;
+
+    doReportQuery();
+  }
+
+  /**
+   * This method is invoked when the report input has be set by the user.
+   *
+   * @effects <pre>
+   *   read the stock of the coffees whose stock is at most maxStock from the stock ledger
+   *   update the output attributes accordingly.
+   *
+   *  <p>throws NotPossibleException if failed to read the stock ledger;
+   *  DataSourceException if fails to read the coffees from the data source. </pre>
+   */
+  @DOpt(type=DOpt.Type.DerivedAttributeUpdater)
+  @AttrRef(value="stocks")
+  public void doReportQuery() throws NotPossibleException, DataSourceException {
+    List<CoffeeStock> result = retrieveStocks(maxStock);
+
+    if (!result.isEmpty()) {
+      // update the main output data
+      stocks = result;
+
+      // update other output (if any)
+      numCoffees = stocks.size();
+    } else {
+      // no data found: reset output
+      resetOutput();
+    }
+  }
+
+  /**
+   * @effects
+   *  return the stock of each coffee whose stock is at most <tt>maxStock</tt> (any stock if
+   *  <tt>maxStock = null</tt>), in the order of the coffee ids
+   *
+   *  <p>throws NotPossibleException if failed to read the stock ledger;
+   *  DataSourceException if fails to read the coffees from the data source.
+   */
+  private static List<CoffeeStock> retrieveStocks(Integer maxStock)
+      throws NotPossibleException, DataSourceException {
+    DOMBasic dom = QRM.getInstance().getDom();
+    DAttr idAttrib = dom.getDsm().getIDDomainConstraints(Coffee.class).get(0);
+
+    List<Oid> oids = new ArrayList<>();
+    List<Long> onHands = new ArrayList<>();
+    for (Map.Entry<Long, Long> e : StockLedger.getStocks().entrySet()) {
+      if (maxStock == null || e.getValue() <= maxStock) {
+        oids.add(dom.genObjectId(Coffee.class, idAttrib, e.getKey()));
+        onHands.add(e.getValue());
+      }
+    }
+
+    List<CoffeeStock> result = new ArrayList<>(oids.size());
+    if (oids.isEmpty()) {
+      return result;
+    }
+
+    Map<Oid, Coffee> coffees = dom.retrieveObjects(Coffee.class, oids, null);
+    for (int i = 0; i < oids.size(); i++) {
+      Coffee c = (coffees != null) ? coffees.get(oids.get(i)) : null;
+      if (c != null) {
+        // (a coffee that has been deleted is not reported)
+        result.add(new CoffeeStock(c.getCode(), c.getNameCoffee(), onHands.get(i)));
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * @effects
+   *  reset all output attributes to their initial values
+   */
+  private void resetOutput() {
+    stocks = null;
+    numCoffees = 0;
+  }
+
+  /**
+   * A link-adder method for {@link #stocks}, required for the object form to function.
+   * However, this method is empty because the stocks have already be recorded in the attribute {@link #stocks}.
+   */
+  @DOpt(type=DOpt.Type.LinkAdder)
+  public boolean addCoffeeStock(Collection<CoffeeStock> stocks) {
+    // do nothing
+    return false;
+  }
+
+  /**
+   * @effects return stocks
+   */
+  public Collection<CoffeeStock> getStocks() {
+    return stocks;
+  }
+
+  /**
+   * @effects return numCoffees
+   */
+  public int getNumCoffees() {
+    return numCoffees;
+  }
+
+  /**
+   * @effects return id
+   */
+  public int getId() {
+    return id;
+  }
+
+  @Override
+  public int hashCode() {
+    final int prime = 31;
+    int result = 1;
+    result = prime * result + id;
+    return result;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (obj == null)
+      return false;
+    if (getClass() != obj.getClass())
+      return false;
+    StockReport other = (StockReport) obj;
+    if (id != other.id)
+      return false;
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    return "StockReport (" + id + ", " + maxStock + ")";
+  }
+
+}
@@ -0,0 +1,464 @@
+package model.report;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import domainapp.basics.core.dodm.dom.DOMBasic;
+import domainapp.basics.core.dodm.dsm.DSMBasic;
+import domainapp.basics.core.dodm.osm.relational.RelationalOSMBasic;
+import domainapp.basics.core.dodm.qrm.QRM;
+import domainapp.basics.exceptions.DataSourceException;
+import domainapp.basics.exceptions.NotPossibleException;
+import domainapp.basics.model.Oid;
+import domainapp.basics.model.meta.AttrRef;
+import domainapp.basics.model.meta.DAssoc;
+import domainapp.basics.model.meta.DAssoc.AssocEndType;
+import domainapp.basics.model.meta.DAssoc.AssocType;
+import domainapp.basics.model.meta.DAssoc.Associate;
+import domainapp.basics.model.meta.DAttr;
+import domainapp.basics.model.meta.DAttr.Type;
+import domainapp.basics.model.meta.DClass;
+import domainapp.basics.model.meta.DOpt;
+import domainapp.basics.model.meta.MetaConstants;
+import domainapp.basics.model.meta.Select;
+import domainapp.basics.modules.report.model.meta.Output;
+import model.Coffee;
+import model.DetailImOrder;
+import model.ImportOrder;
+import model.Supplier;
+import model.util.DataSourceToolKit;
+import model.util.PurchaseAnalytics;
+import model.util.ReportQuery;
+import model.util.ReportResultCache;
+
+/**
+ * @overview
+ * 	Represent the reports about the purchases from the suppliers in a date range: for each
+ *  supplier, the number of orders and the average number of days between them, and the
+ *  quantity purchased and the spend, in total and per coffee (with the average unit price).
+ *
+ *  <p>The import order lines of the range are read in one query and aggregated in parallel
+ *  (see {@link PurchaseAnalytics}); only the suppliers and coffees that are reported are
+ *  loaded.
+ *
+ * @version 1.0
+ */
+@DClass(schema="SS2_Final",serialisable=false)
+public class SupplierAnalyticsReport {
+  @DAttr(name = "id", id = true, auto = true, type = Type.Integer, length = 5, optional = false, mutable = false)
+  private int id;
+  private static int idCounter = 0;
+
+  /** the earliest and latest dates that a data source date column can hold (used for missing bounds) */
+  private static final Date MIN_DATE = java.sql.Date.valueOf("0001-01-01");
+  private static final Date MAX_DATE = java.sql.Date.valueOf("9999-12-31");
+
+  /** the SQL of the query of the lines of a date range, see {@link #getSql()} */
+  private static String sql;
+
+  /**input: the first date of the orders (none if not specified) */
+  @DAttr(name = "fromDate", type = Type.Date, optional = true)
+  private Date fromDate;
+
+  /**input: the last date of the orders (none if not specified) */
+  @DAttr(name = "toDate", type = Type.Date, optional = true)
+  private Date toDate;
+
+  /**output: the purchases from each supplier, the largest spend first */
+  @DAttr(name="suppliers",type=Type.Collection,optional=false, mutable=false,
+      serialisable=false,filter=@Select(clazz=SupplierPurchases.class,
+      attributes={SupplierPurchases.SP_code, SupplierPurchases.SP_supplierName,
+          SupplierPurchases.SP_numOrders, SupplierPurchases.SP_daysBetweenOrders,
+          SupplierPurchases.SP_quantity, SupplierPurchases.SP_spend})
+      ,derivedFrom={"fromDate", "toDate"}
+      )
+  @DAssoc(ascName="supplier-analytics-report-has-supplier-purchases",role="report",
+      ascType=AssocType.One2Many,endType=AssocEndType.One,
+    associate=@Associate(type=SupplierPurchases.class,cardMin=0,cardMax=MetaConstants.CARD_MORE
+    ))
+  @Output
+  private Collection<SupplierPurchases> suppliers;
+
+  /**output: the purchases of each coffee from each supplier, in the order of {@link #suppliers} then the largest spend first */
+  @DAttr(name="coffees",type=Type.Collection,optional=false, mutable=false,
+      serialisable=false,filter=@Select(clazz=SupplierCoffeePurchases.class,
+      attributes={SupplierCoffeePurchases.SCP_supplierCode, SupplierCoffeePurchases.SCP_nameCoffee,
+          SupplierCoffeePurchases.SCP_quantity, SupplierCoffeePurchases.SCP_spend,
+          SupplierCoffeePurchases.SCP_avgImPrice})
+      ,derivedFrom={"fromDate", "toDate"}
+      )
+  @DAssoc(ascName="supplier-analytics-report-has-supplier-coffee-purchases",role="report",
+      ascType=AssocType.One2Many,endType=AssocEndType.One,
+    associate=@Associate(type=SupplierCoffeePurchases.class,cardMin=0,cardMax=MetaConstants.CARD_MORE
+    ))
+  @Output
+  private Collection<SupplierCoffeePurchases> coffees;
+
+  /**output: number of suppliers found (if any), derived from {@link #suppliers} */
+  @DAttr(name = "numSuppliers", type = Type.Integer, length = 10, auto=true, mutable=false)
+  @Output
+  private int numSuppliers;
+
+  /**
+   * @effects
+   *  initialise this with <tt>fromDate, toDate</tt> and aggregate the purchases of the
+   *  import orders in <tt>[fromDate, toDate]</tt>.
+   *
+   *  <p>throws NotPossibleException if failed to generate data source query;
+   *  DataSourceException if fails to read from the data source
+   */
+  @DOpt(type=DOpt.Type.ObjectFormConstructor)
+  @DOpt(type=DOpt.Type.RequiredConstructor)
+  public SupplierAnalyticsReport(@AttrRef("fromDate") Date fromDate, @AttrRef("toDate") Date toDate)
+      throws NotPossibleException, DataSourceException {
+    this.id=++idCounter;
+
+    this.fromDate = fromDate;
+    this.toDate = toDate;
+
+    doReportQuery();
+  }
+
+  /**
+   * @effects return fromDate
+   */
+  public Date getFromDate() {
+    return fromDate;
+  }
+
+  /**
+   * @effects set this.fromDate = fromDate
+   */
+  public void setFromDate(Date fromDate) {
+    this.fromDate = fromDate;
+
+    // there are > 1 input attributes: doReportQuery() is invoked by the caller
+  }
+
+  /**
+   * @effects return toDate
+   */
+  public Date getToDate() {
+    return toDate;
+  }
+
+  /**
+   * @effects set this.toDate = toDate
+   */
+  public void setToDate(Date toDate) {
+    this.toDate = toDate;
+
+    // there are > 1 input attributes: doReportQuery() is invoked by the caller
+  }
+
+  /**
+   * This method is invoked when the report input has be set by the user.
+   *
+   * @effects <pre>
+   *   read the import order lines of the orders in [fromDate, toDate] and aggregate
+   *   them per supplier and per coffee
+   *   update the output attributes accordingly.
+   *
+   *  <p>throws NotPossibleException if failed to generate data source query;
+   *  DataSourceException if fails to read from the data source. </pre>
+   */
+  @DOpt(type=DOpt.Type.DerivedAttributeUpdater)
+  @AttrRef(value="suppliers")
+  public void doReportQuery() throws NotPossibleException, DataSourceException {
+    final Date from = (fromDate != null) ? fromDate : MIN_DATE;
+    final Date to = (toDate != null) ? toDate : MAX_DATE;
+
+    // (the result is re-used until an import order, a line, a supplier or a coffee is changed)
+    Analytics result = ReportResultCache.retrieve(SupplierAnalyticsReport.class,
+        new Object[] {from, to},
+        () -> retrieveAnalytics(from, to),
+        ImportOrder.class, DetailImOrder.class, Supplier.class, Coffee.class);
+
+    if (!result.suppliers.isEmpty()) {
+      // update the main output data
+      suppliers = result.suppliers;
+      coffees = result.coffees;
+
+      // update other output (if any)
+      numSuppliers = suppliers.size();
+    } else {
+      // no data found: reset output
+      resetOutput();
+    }
+  }
+
+  /**
+   * @overview
+   *  The report rows of a date range.
+   */
+  private static final class Analytics {
+    private final List<SupplierPurchases> suppliers;
+    private final List<SupplierCoffeePurchases> coffees;
+
+    private Analytics(List<SupplierPurchases> suppliers, List<SupplierCoffeePurchases> coffees) {
+      this.suppliers = suppliers;
+      this.coffees = coffees;
+    }
+  }
+
+  /**
+   * @effects
+   *  return the purchases of the import order lines of the orders in <tt>[from, to]</tt>,
+   *  per supplier and per coffee of each supplier
+   *
+   *  <p>throws NotPossibleException if failed to generate data source query;
+   *  DataSourceException if fails to read from the data source.
+   */
+  private static Analytics retrieveAnalytics(Date from, Date to)
+      throws NotPossibleException, DataSourceException {
+    String sql = getSql();
+    PurchaseAnalytics.Lines lines = new PurchaseAnalytics.Lines();
+
+    Connection conn = DataSourceToolKit.getConnection();
+    synchronized (conn) {
+      PreparedStatement stmt = DataSourceToolKit.prepare(sql);
+      try {
+        stmt.setDate(1, new java.sql.Date(from.getTime()));
+        stmt.setDate(2, new java.sql.Date(to.getTime()));
+
+        ResultSet rs = stmt.executeQuery();
+        try {
+          while (rs.next()) {
+            lines.add(rs.getLong(1), rs.getLong(2), rs.getDate(3).toLocalDate().toEpochDay(),
+                rs.getLong(4), rs.getInt(5), rs.getLong(6));
+          }
+        } finally {
+          rs.close();
+        }
+      } catch (SQLException e) {
+        throw new DataSourceException(DataSourceException.Code.FAIL_TO_EXECUTE_QUERY, e,
+            new Object[] {sql});
+      }
+    }
+
+    // aggregated outside the connection lock
+    PurchaseAnalytics.Accumulator acc = PurchaseAnalytics.aggregate(lines);
+
+    Set<Long> coffeeIds = new HashSet<>();
+    for (Map<Long, long[]> byCoffee : acc.getCoffees().values()) {
+      coffeeIds.addAll(byCoffee.keySet());
+    }
+    Map<Long, Supplier> supplierObjs = retrieveObjects(Supplier.class, acc.getSuppliers().keySet());
+    Map<Long, Coffee> coffeeObjs = retrieveObjects(Coffee.class, coffeeIds);
+
+    // the largest spend first
+    List<Map.Entry<Long, long[]>> supplierFigs = new ArrayList<>(acc.getSuppliers().entrySet());
+    supplierFigs.sort(bySpend());
+
+    List<SupplierPurchases> supplierRows = new ArrayList<>();
+    List<SupplierCoffeePurchases> coffeeRows = new ArrayList<>();
+    for (Map.Entry<Long, long[]> e : supplierFigs) {
+      Supplier s = supplierObjs.get(e.getKey());
+      if (s == null) {
+        // deleted
+        continue;
+      }
+
+      long[] f = e.getValue();
+      supplierRows.add(new SupplierPurchases(s.getCode(), s.getSupplierName(),
+          f[PurchaseAnalytics.ORDERS], f[PurchaseAnalytics.QUANTITY], f[PurchaseAnalytics.SPEND],
+          f[PurchaseAnalytics.FIRST_DAY], f[PurchaseAnalytics.LAST_DAY]));
+
+      List<Map.Entry<Long, long[]>> coffeeFigs = new ArrayList<>(acc.getCoffees().get(e.getKey()).entrySet());
+      coffeeFigs.sort(bySpend());
+      for (Map.Entry<Long, long[]> ce : coffeeFigs) {
+        Coffee c = coffeeObjs.get(ce.getKey());
+        if (c != null) {
+          coffeeRows.add(new SupplierCoffeePurchases(s.getCode(), c.getNameCoffee(),
+              ce.getValue()[PurchaseAnalytics.QUANTITY], ce.getValue()[PurchaseAnalytics.SPEND]));
+        }
+      }
+    }
+
+    return new Analytics(supplierRows, coffeeRows);
+  }
+
+  /**
+   * @effects
+   *  return the order of figures by their spend, the largest first (ties by their ids)
+   */
+  private static Comparator<Map.Entry<Long, long[]>> bySpend() {
+    return Comparator.<Map.Entry<Long, long[]>>comparingLong(e -> -e.getValue()[PurchaseAnalytics.SPEND])
+        .thenComparing(Map.Entry::getKey);
+  }
+
+  /**
+   * @effects
+   *  return the objects of <tt>c</tt> whose ids are in <tt>ids</tt>, keyed by their ids (an
+   *  object that has been deleted is not included)
+   */
+  private static <T> Map<Long, T> retrieveObjects(Class<T> c, Collection<Long> ids)
+      throws NotPossibleException, DataSourceException {
+    Map<Long, T> result = new HashMap<>();
+    if (ids.isEmpty()) {
+      return result;
+    }
+
+    DOMBasic dom = QRM.getInstance().getDom();
+    DAttr idAttrib = dom.getDsm().getIDDomainConstraints(c).get(0);
+    Map<Long, Oid> oids = new HashMap<>();
+    for (Long id : ids) {
+      oids.put(id, dom.genObjectId(c, idAttrib, id));
+    }
+
+    Map<Oid, T> loaded = dom.retrieveObjects(c, new ArrayList<>(oids.values()), null);
+    if (loaded != null) {
+      for (Map.Entry<Long, Oid> e : oids.entrySet()) {
+        T o = loaded.get(e.getValue());
+        if (o != null) {
+          result.put(e.getKey(), o);
+        }
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * @effects
+   *  return the SQL of the query of the (supplier id, order id, order date, coffee id,
+   *  quantity, unit price) of the import order lines of a date range, in the order of the
+   *  orders (shared by all instances of this report), generating it (and creating the index
+   *  of the order dates, which the query scans) if this has not been done before.
+   *
+   *  <p>throws NotPossibleException if failed to generate the query;
+   *  DataSourceException if failed to create the index
+   */
+  private static synchronized String getSql() throws NotPossibleException, DataSourceException {
+    if (sql == null) {
+      ReportQuery.createIndex(ImportOrder.class, ImportOrder.IO_date);
+
+      DOMBasic dom = QRM.getInstance().getDom();
+      DSMBasic dsm = dom.getDsm();
+      RelationalOSMBasic osm = (RelationalOSMBasic) dom.getOsm();
+
+      String orderId = osm.toDBColumnName(ImportOrder.class,
+          dsm.getIDDomainConstraints(ImportOrder.class).get(0), false);
+      String supplierCol = osm.toDBColumnName(ImportOrder.class,
+          dsm.getDomainConstraint(ImportOrder.class, ImportOrder.IO_sup), false);
+      String dateCol = osm.toDBColumnName(ImportOrder.class,
+          dsm.getDomainConstraint(ImportOrder.class, ImportOrder.IO_date), false);
+
+      sql = "select o." + supplierCol + ", o." + orderId + ", o." + dateCol
+          + ", d." + column(dsm, osm, "coffee")
+          + ", d." + column(dsm, osm, "quantity")
+          + ", d." + column(dsm, osm, "imPrice")
+          + " from " + dsm.getDomainClassName(DetailImOrder.class) + " d"
+          + " join " + dsm.getDomainClassName(ImportOrder.class) + " o"
+          + " on d." + column(dsm, osm, "importOrder") + " = o." + orderId
+          + " where o." + dateCol + " >= ? and o." + dateCol + " <= ?"
+          + " order by o." + orderId;
+    }
+
+    return sql;
+  }
+
+  private static String column(DSMBasic dsm, RelationalOSMBasic osm, String attribName) {
+    return osm.toDBColumnName(DetailImOrder.class,
+        dsm.getDomainConstraint(DetailImOrder.class, attribName), false);
+  }
+
+  /**
+   * @effects
+   *  reset all output attributes to their initial values
+   */
+  private void resetOutput() {
+    suppliers = null;
+    coffees = null;
+    numSuppliers = 0;
+  }
+
+  /**
+   * A link-adder method for {@link #suppliers}, required for the object form to function.
+   * However, this method is empty because the purchases have already be recorded in the attribute {@link #suppliers}.
+   */
+  @DOpt(type=DOpt.Type.LinkAdder)
+  @AttrRef(value="suppliers")
+  public boolean addSupplierPurchases(Collection<SupplierPurchases> purchases) {
+    // do nothing
+    return false;
+  }
+
+  /**
+   * A link-adder method for {@link #coffees}, required for the object form to function.
+   * However, this method is empty because the purchases have already be recorded in the attribute {@link #coffees}.
+   */
+  @DOpt(type=DOpt.Type.LinkAdder)
+  @AttrRef(value="coffees")
+  public boolean addSupplierCoffeePurchases(Collection<SupplierCoffeePurchases> purchases) {
+    // do nothing
+    return false;
+  }
+
+  /**
+   * @effects return suppliers
+   */
+  public Collection<SupplierPurchases> getSuppliers() {
+    return suppliers;
+  }
+
+  /**
+   * @effects return coffees
+   */
+  public Collection<SupplierCoffeePurchases> getCoffees() {
+    return coffees;
+  }
+
+  /**
+   * @effects return numSuppliers
+   */
+  public int getNumSuppliers() {
+    return numSuppliers;
+  }
+
+  /**
+   * @effects return id
+   */
+  public int getId() {
+    return id;
+  }
+
+  @Override
+  public int hashCode() {
+    final int prime = 31;
+    int result = 1;
+    result = prime * result + id;
+    return result;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (obj == null)
+      return false;
+    if (getClass() != obj.getClass())
+      return false;
+    SupplierAnalyticsReport other = (SupplierAnalyticsReport) obj;
+    if (id != other.id)
+      return false;
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    return "SupplierAnalyticsReport (" + id + ", " + fromDate + ", " + toDate + ")";
+  }
+
+}
@@ -0,0 +1,105 @@
+package model.report;
+
+import domainapp.basics.model.meta.DAttr;
+import domainapp.basics.model.meta.DAttr.Type;
+import domainapp.basics.model.meta.DClass;
+import model.util.Money;
+
+/**
+ * @overview
+ * 	Represent the purchases of a coffee from a supplier (a row of a
+ *  {@link SupplierAnalyticsReport}).
+ *
+ * @version 1.0
+ */
+@DClass(schema="SS2_Final",serialisable=false)
+public class SupplierCoffeePurchases {
+  public static final String SCP_id = "id";
+  public static final String SCP_supplierCode = "supplierCode";
+  public static final String SCP_nameCoffee = "nameCoffee";
+  public static final String SCP_quantity = "quantity";
+  public static final String SCP_spend = "spend";
+  public static final String SCP_avgImPrice = "avgImPrice";
+
+  @DAttr(name = SCP_id, id = true, auto = true, type = Type.Integer, length = 5, optional = false, mutable = false)
+  private int id;
+  private static int idCounter = 0;
+
+  /** the code of the supplier, see {@link model.Supplier#getCode()} */
+  @DAttr(name = SCP_supplierCode, type = Type.String, length = 20, optional = false, mutable = false)
+  private String supplierCode;
+
+  @DAttr(name = SCP_nameCoffee, type = Type.String, length = 15, optional = false, mutable = false)
+  private String nameCoffee;
+
+  /** the quantity purchased */
+  @DAttr(name = SCP_quantity, type = Type.Long, optional = false, mutable = false)
+  private long quantity;
+
+  /** the total price of the lines (in minor units, see {@link Money}) */
+  @DAttr(name = SCP_spend, type = Type.Long, optional = false, mutable = false)
+  private long spend;
+
+  /** the unit price, averaged over the quantity purchased (in minor units) */
+  @DAttr(name = SCP_avgImPrice, type = Type.Long, optional = false, mutable = false)
+  private long avgImPrice;
+
+  /**
+   * @effects
+   *  initialise this as the purchases <tt>quantity, spend</tt> of the coffee named
+   *  <tt>nameCoffee</tt> from the supplier whose code is <tt>supplierCode</tt>
+   */
+  public SupplierCoffeePurchases(String supplierCode, String nameCoffee, long quantity, long spend) {
+    this.id = ++idCounter;
+    this.supplierCode = supplierCode;
+    this.nameCoffee = nameCoffee;
+    this.quantity = quantity;
+    this.spend = spend;
+    // rounded half up
+    this.avgImPrice = (quantity > 0) ? (spend + quantity / 2) / quantity : 0;
+  }
+
+  public int getId() {
+    return id;
+  }
+
+  public String getSupplierCode() {
+    return supplierCode;
+  }
+
+  public String getNameCoffee() {
+    return nameCoffee;
+  }
+
+  public long getQuantity() {
+    return quantity;
+  }
+
+  public long getSpend() {
+    return spend;
+  }
+
+  public long getAvgImPrice() {
+    return avgImPrice;
+  }
+
+  @Override
+  public int hashCode() {
+    return id;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (obj == null || getClass() != obj.getClass())
+      return false;
+    return id == ((SupplierCoffeePurchases) obj).id;
+  }
+
+  @Override
+  public String toString() {
+    return "SupplierCoffeePurchases(" + supplierCode + "," + nameCoffee + "," + quantity + ","
+        + Money.format(spend) + "," + Money.format(avgImPrice) + ")";
+  }
+}
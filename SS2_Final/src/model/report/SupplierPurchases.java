@@ -0,0 +1,119 @@
+package model.report;
+
+import domainapp.basics.model.meta.DAttr;
+import domainapp.basics.model.meta.DAttr.Type;
+import domainapp.basics.model.meta.DClass;
+import model.util.Money;
+
+/**
+ * @overview
+ * 	Represent the purchases from a supplier (a row of a {@link SupplierAnalyticsReport}).
+ *
+ * @version 1.0
+ */
+@DClass(schema="SS2_Final",serialisable=false)
+public class SupplierPurchases {
+  public static final String SP_id = "id";
+  public static final String SP_code = "code";
+  public static final String SP_supplierName = "supplierName";
+  public static final String SP_numOrders = "numOrders";
+  public static final String SP_quantity = "quantity";
+  public static final String SP_spend = "spend";
+  public static final String SP_daysBetweenOrders = "daysBetweenOrders";
+
+  @DAttr(name = SP_id, id = true, auto = true, type = Type.Integer, length = 5, optional = false, mutable = false)
+  private int id;
+  private static int idCounter = 0;
+
+  /** the code of the supplier, see {@link model.Supplier#getCode()} */
+  @DAttr(name = SP_code, type = Type.String, length = 20, optional = false, mutable = false)
+  private String code;
+
+  @DAttr(name = SP_supplierName, type = Type.String, length = 15, optional = false, mutable = false)
+  private String supplierName;
+
+  @DAttr(name = SP_numOrders, type = Type.Long, optional = false, mutable = false)
+  private long numOrders;
+
+  /** the quantity purchased */
+  @DAttr(name = SP_quantity, type = Type.Long, optional = false, mutable = false)
+  private long quantity;
+
+  /** the total price of the lines (in minor units, see {@link Money}) */
+  @DAttr(name = SP_spend, type = Type.Long, optional = false, mutable = false)
+  private long spend;
+
+  /** the average number of days between two orders (0 if there is only one order) */
+  @DAttr(name = SP_daysBetweenOrders, type = Type.Long, optional = false, mutable = false)
+  private long daysBetweenOrders;
+
+  /**
+   * @requires
+   *  numOrders > 0 /\ firstDay <= lastDay
+   * @effects
+   *  initialise this as the purchases <tt>quantity, spend</tt> in <tt>numOrders</tt> orders
+   *  dated from the epoch days <tt>firstDay</tt> to <tt>lastDay</tt>, from the supplier
+   *  whose code and name are <tt>code, supplierName</tt>
+   */
+  public SupplierPurchases(String code, String supplierName, long numOrders, long quantity,
+      long spend, long firstDay, long lastDay) {
+    this.id = ++idCounter;
+    this.code = code;
+    this.supplierName = supplierName;
+    this.numOrders = numOrders;
+    this.quantity = quantity;
+    this.spend = spend;
+    // rounded half up
+    this.daysBetweenOrders = (numOrders > 1)
+        ? ((lastDay - firstDay) + (numOrders - 1) / 2) / (numOrders - 1)
+        : 0;
+  }
+
+  public int getId() {
+    return id;
+  }
+
+  public String getCode() {
+    return code;
+  }
+
+  public String getSupplierName() {
+    return supplierName;
+  }
+
+  public long getNumOrders() {
+    return numOrders;
+  }
+
+  public long getQuantity() {
+    return quantity;
+  }
+
+  public long getSpend() {
+    return spend;
+  }
+
+  public long getDaysBetweenOrders() {
+    return daysBetweenOrders;
+  }
+
+  @Override
+  public int hashCode() {
+    return id;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (obj == null || getClass() != obj.getClass())
+      return false;
+    return id == ((SupplierPurchases) obj).id;
+  }
+
+  @Override
+  public String toString() {
+    return "SupplierPurchases(" + code + "," + supplierName + "," + numOrders + "," + quantity
+        + "," + Money.format(spend) + "," + daysBetweenOrders + ")";
+  }
+}
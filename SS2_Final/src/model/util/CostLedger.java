@@ -0,0 +1,305 @@
+package model.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import domainapp.basics.core.dodm.dom.DOMBasic;
+import domainapp.basics.core.dodm.dsm.DSMBasic;
+import domainapp.basics.core.dodm.osm.relational.RelationalOSMBasic;
+import domainapp.basics.core.dodm.qrm.QRM;
+import domainapp.basics.exceptions.DataSourceException;
+import domainapp.basics.exceptions.NotPossibleException;
+import domainapp.basics.util.events.ChangeEvent;
+import domainapp.basics.util.events.ChangeEventSource;
+import domainapp.basics.util.events.ChangeListener;
+import model.DetailImOrder;
+import model.ImportOrder;
+
+/**
+ * @overview
+ *  The weighted-average unit cost of each coffee: the total price of its import order lines
+ *  ({@link DetailImOrder}) divided by their total quantity.
+ *
+ *  <p>The totals are not re-computed from the lines: like the {@link StockLedger}, this
+ *  listens to the import order lines that are stored in, updated in and deleted from the
+ *  data source (and to the import orders that are deleted with their lines) and posts each
+ *  change of a line, after it has been stored, to the totals in memory and in its own table
+ *  (<tt>CoffeeCost</tt>). Each line records what this has accounted for (see
+ *  {@link DetailImOrder#getCost()}), so a change is posted once however many events report
+ *  it, and a line that is loaded from the data source is not posted.
+ *
+ *  <p>This is started (see {@link #start()}) by the software once the object pool of the
+ *  framework is connected to the data source: the table is then created and filled from
+ *  the stored lines if it does not exist, and loaded into memory, so looking up the average
+ *  cost of a coffee takes constant time.
+ *
+ *  <p>If a change fails to be posted to the table, or an order is deleted, the totals are
+ *  re-computed from the lines (see {@link #rebuild()}) when they are next read, and the
+ *  table is marked as out of date in the data source so that it is re-computed when this is
+ *  next started if this run ends first.
+ *
+ *  <p>If the data source is not available, this is not started and has no totals.
+ *
+ * @version 1.0
+ */
+public class CostLedger {
+
+  /** the result of {@link #getAverageCost(long)} for a coffee that has not been imported */
+  public static final long NO_COST = -1L;
+
+  private static final String TABLE = "CoffeeCost";
+
+  /** the ledger table */
+  private static final LedgerTable table = new LedgerTable(TABLE, "quantity", "cost");
+
+  /** the total quantity and cost of the imports of each coffee, keyed by the coffee ids */
+  private static final Map<Long, long[]> totals = new HashMap<>();
+
+  /** whether this has been started */
+  private static volatile boolean started;
+
+  /** whether {@link #totals} is out of date with the lines (e.g. as a change failed to be posted) */
+  private static boolean stale;
+
+  private CostLedger() {
+    // no instances
+  }
+
+  /**
+   * @effects
+   *  if this has not been started and the data source is available
+   *    create the ledger table (filled from the stored lines) if it does not exist (or
+   *    re-fill it if it is marked as out of date), load the totals from it and start
+   *    listening to the changes of the import order lines and orders
+   *
+   *  <p>throws NotPossibleException if failed to load the totals from the data source.
+   */
+  public static void start() throws NotPossibleException {
+    if (started) {
+      return;
+    }
+
+    synchronized (CostLedger.class) {
+      if (started) {
+        return;
+      }
+
+      if (!DataSourceToolKit.isAvailable()) {
+        // the object pool is not (yet) connected to the data source
+        return;
+      }
+
+      load();
+
+      ChangeListener listener = new ChangeListener() {
+        @Override
+        public void stateChanged(ChangeEvent e) {
+          post((ChangeEventSource) e.getSource());
+        }
+      };
+
+      DOMBasic dom = QRM.getInstance().getDom();
+      dom.addChangeListener(DetailImOrder.class, listener);
+      dom.addChangeListener(ImportOrder.class, listener);
+
+      started = true;
+    }
+  }
+
+  /**
+   * @effects
+   *  post to this the change of the lines of <tt>src</tt>, which have been stored (or loaded),
+   *  updated or deleted, or of the lines of the orders of <tt>src</tt>, which have been deleted
+   */
+  private static synchronized void post(ChangeEventSource src) {
+    boolean deleted = src.isDelete();
+
+    for (Object o : src.getObjects()) {
+      if (o instanceof DetailImOrder) {
+        post((DetailImOrder) o, deleted);
+      } else if (deleted && o instanceof ImportOrder) {
+        for (DetailImOrder d : ((ImportOrder) o).getDetailImOrders()) {
+          post(d, true);
+        }
+        // the lines that were not loaded are deleted with the order, unseen
+        markStale();
+      }
+    }
+  }
+
+  /**
+   * @effects
+   *  move the quantity and cost of the import order line <tt>d</tt> from the coffee, quantity
+   *  and cost that this has accounted for to its current ones or, if <tt>deleted</tt>, remove them
+   */
+  private static void post(DetailImOrder d, boolean deleted) {
+    if (!deleted && !d.isCostChanged()) {
+      return;
+    }
+
+    adjust(d.getCostCoffeeId(), -d.getCostQuantity(), -d.getCost());
+    if (deleted) {
+      d.clearCost();
+    } else {
+      adjust(d.getCoffeeId(), d.getQuantity(), d.getTotalPrice());
+      d.clearCostHistory();
+    }
+  }
+
+  /**
+   * @effects
+   *  add <tt>quantity</tt> and <tt>cost</tt> (in minor units, see {@link Money}) to the
+   *  imports of coffee <tt>coffeeId</tt> (in the data source and in memory), unless the
+   *  coffee is not set.
+   *
+   *  <p>If failed to update the data source, the totals are marked to be re-computed from the
+   *  lines when they are next read.
+   */
+  private static void adjust(long coffeeId, long quantity, long cost) {
+    if ((quantity == 0 && cost == 0) || coffeeId == DetailImOrder.UNSET_ID) {
+      return;
+    }
+
+    long[] t = totals.get(coffeeId);
+    if (t == null) {
+      t = new long[2];
+      totals.put(coffeeId, t);
+    }
+    t[0] += quantity;
+    t[1] = Money.plus(t[1], cost);
+
+    if (!stale) {
+      try {
+        table.add(coffeeId, quantity, cost);
+      } catch (DataSourceException e) {
+        // the line is stored: re-compute the totals from the lines rather than lose the change
+        markStale();
+      }
+    }
+  }
+
+  /**
+   * @effects
+   *  mark the totals (in memory and, if possible, in the data source) to be re-computed from
+   *  the lines
+   */
+  private static void markStale() {
+    stale = true;
+    try {
+      table.markStale();
+    } catch (DataSourceException e) {
+      // they are still re-computed when they are next read by this run
+    }
+  }
+
+  /**
+   * @effects
+   *  return the weighted-average unit cost (in minor units, rounded half up) of coffee
+   *  <tt>coffeeId</tt>, or {@link #NO_COST} if no quantity of it has been imported
+   *
+   *  <p>throws NotPossibleException if failed to load the totals from the data source.
+   */
+  public static synchronized long getAverageCost(long coffeeId) throws NotPossibleException {
+    start();
+    if (stale) {
+      rebuild();
+    }
+
+    long[] t = totals.get(coffeeId);
+    return (t != null && t[0] > 0) ? averageOf(t[0], t[1]) : NO_COST;
+  }
+
+  /**
+   * @effects
+   *  return the weighted-average unit cost of each coffee that has been imported, keyed by
+   *  the coffee ids
+   *
+   *  <p>throws NotPossibleException if failed to load the totals from the data source.
+   */
+  public static synchronized Map<Long, Long> getAverageCosts() throws NotPossibleException {
+    start();
+    if (stale) {
+      rebuild();
+    }
+
+    Map<Long, Long> result = new HashMap<>();
+    for (Map.Entry<Long, long[]> e : totals.entrySet()) {
+      long[] t = e.getValue();
+      if (t[0] > 0) {
+        result.put(e.getKey(), averageOf(t[0], t[1]));
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * @effects
+   *  re-compute the totals of all the coffees from the import order lines in the data source
+   *  and replace the content of the ledger table and of this with them
+   *
+   *  <p>throws NotPossibleException if failed.
+   */
+  public static synchronized void rebuild() throws NotPossibleException {
+    try {
+      setTotals(table.reload(getSqlSumOfLines()));
+    } catch (DataSourceException e) {
+      throw new NotPossibleException(NotPossibleException.Code.FAIL_TO_POST_UPDATE_OBJECT, e,
+          new Object[] {TABLE, "*"});
+    }
+
+    stale = false;
+  }
+
+  /**
+   * @effects
+   *  create the ledger table (filled from the import order lines) if it does not exist, then
+   *  load the totals from it
+   */
+  private static void load() throws NotPossibleException {
+    try {
+      setTotals(table.load(getSqlSumOfLines()));
+    } catch (DataSourceException e) {
+      throw new NotPossibleException(NotPossibleException.Code.FAIL_TO_POST_UPDATE_OBJECT, e,
+          new Object[] {TABLE, "*"});
+    }
+  }
+
+  private static void setTotals(Map<Long, long[]> rows) {
+    totals.clear();
+    totals.putAll(rows);
+  }
+
+  /**
+   * @effects
+   *  return the SQL query of the total quantity and cost of each coffee, summed from the
+   *  import order lines in the data source
+   */
+  private static String getSqlSumOfLines() throws NotPossibleException {
+    DOMBasic dom = QRM.getInstance().getDom();
+    DSMBasic dsm = dom.getDsm();
+    RelationalOSMBasic osm = (RelationalOSMBasic) dom.getOsm();
+
+    String coffee = column(dsm, osm, "coffee");
+    String quantity = column(dsm, osm, "quantity");
+    String price = column(dsm, osm, "imPrice");
+
+    return "select " + coffee + ", sum(" + quantity + "), sum(" + quantity + " * " + price + ")"
+        + " from " + dsm.getDomainClassName(DetailImOrder.class)
+        + " group by " + coffee;
+  }
+
+  private static String column(DSMBasic dsm, RelationalOSMBasic osm, String attribName) {
+    return osm.toDBColumnName(DetailImOrder.class,
+        dsm.getDomainConstraint(DetailImOrder.class, attribName), false);
+  }
+
+  /**
+   * @requires
+   *  quantity > 0
+   */
+  private static long averageOf(long quantity, long cost) {
+    // rounded half up
+    return (cost + quantity / 2) / quantity;
+  }
+}
@@ -0,0 +1,189 @@
+package model.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * @overview
+ *  Write rows of values to a CSV file (RFC 4180, UTF-8), one field at a time.
+ *
+ *  <p>The fields are encoded straight into a fixed-size buffer, which is written to the
+ *  file channel whenever it is full, so a file of any number of rows is written in
+ *  constant memory. The size of the buffer (in bytes) is given by the system property
+ *  <tt>coffee.exportBufferSize</tt> (default: 65536).
+ *
+ *  <p>A field is quoted if it contains a comma, a double quote or a line break (double
+ *  quotes are then doubled); a <tt>null</tt> field is written as an empty field and a date
+ *  as <tt>yyyy-mm-dd</tt>. Rows end with <tt>CRLF</tt>.
+ *
+ * @version 1.0
+ */
+public class CsvWriter implements Closeable {
+
+  /** the size of the buffer */
+  public static final int BUFFER_SIZE = Math.max(1024, Integer.getInteger("coffee.exportBufferSize", 65536));
+
+  private static final char SEPARATOR = ',';
+  private static final char QUOTE = '"';
+  private static final String EOL = "\r\n";
+
+  private final FileChannel channel;
+  private final ByteBuffer buf;
+  private final CharsetEncoder encoder;
+
+  /** whether the next field is the first of its row */
+  private boolean rowStart;
+
+  /** the number of rows written */
+  private long numRows;
+
+  /**
+   * @effects
+   *  create (or truncate) <tt>file</tt> and initialise this to write to it
+   *
+   *  <p>throws IOException if failed to open the file.
+   */
+  public CsvWriter(Path file) throws IOException {
+    channel = FileChannel.open(file, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    encoder = StandardCharsets.UTF_8.newEncoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    rowStart = true;
+  }
+
+  /**
+   * @effects
+   *  write <tt>values</tt> as a row
+   *
+   *  <p>throws IOException if failed to write to the file.
+   */
+  public void writeRow(Object... values) throws IOException {
+    for (Object val : values) {
+      writeField(val);
+    }
+    endRow();
+  }
+
+  /**
+   * @effects
+   *  write <tt>val</tt> as the next field of the current row
+   *
+   *  <p>throws IOException if failed to write to the file.
+   */
+  public void writeField(Object val) throws IOException {
+    if (!rowStart) {
+      write(String.valueOf(SEPARATOR));
+    }
+    rowStart = false;
+
+    if (val == null) {
+      return;
+    }
+
+    String s;
+    if (val instanceof java.util.Date && !(val instanceof java.sql.Date)
+        && !(val instanceof java.sql.Timestamp)) {
+      s = new java.sql.Date(((java.util.Date) val).getTime()).toString();
+    } else {
+      s = val.toString();
+    }
+
+    if (needsQuotes(s)) {
+      write(QUOTE + s.replace("\"", "\"\"") + QUOTE);
+    } else {
+      write(s);
+    }
+  }
+
+  /**
+   * @effects
+   *  end the current row
+   *
+   *  <p>throws IOException if failed to write to the file.
+   */
+  public void endRow() throws IOException {
+    write(EOL);
+    rowStart = true;
+    numRows++;
+  }
+
+  /**
+   * @effects
+   *  return the number of rows written by this
+   */
+  public long getNumRows() {
+    return numRows;
+  }
+
+  /**
+   * @effects
+   *  write the buffered bytes to the file and close it
+   *
+   *  <p>throws IOException if failed to write to or close the file.
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      flush();
+    } finally {
+      channel.close();
+    }
+  }
+
+  /**
+   * @effects
+   *  if <tt>s</tt> must be quoted
+   *    return true
+   *  else
+   *    return false
+   */
+  private static boolean needsQuotes(String s) {
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == SEPARATOR || c == QUOTE || c == '\n' || c == '\r') {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @effects
+   *  encode <tt>s</tt> into the buffer, writing the buffer to the file each time it is full
+   */
+  private void write(String s) throws IOException {
+    CharBuffer chars = CharBuffer.wrap(s);
+    while (true) {
+      CoderResult res = encoder.encode(chars, buf, true);
+      if (res.isOverflow()) {
+        flush();
+      } else {
+        break;
+      }
+    }
+    encoder.reset();
+  }
+
+  /**
+   * @effects
+   *  write the buffered bytes to the file and empty the buffer
+   */
+  private void flush() throws IOException {
+    buf.flip();
+    while (buf.hasRemaining()) {
+      channel.write(buf);
+    }
+    buf.clear();
+  }
+}
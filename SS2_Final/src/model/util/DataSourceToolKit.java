@@ -0,0 +1,248 @@
+package model.util;
+
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+
+import domainapp.basics.core.dodm.osm.OSM;
+import domainapp.basics.core.dodm.qrm.QRM;
+import domainapp.basics.exceptions.DataSourceException;
+import domainapp.basics.exceptions.NotPossibleException;
+import domainapp.basics.model.config.dodm.OsmConfig;
+
+/**
+ * @overview 
+ *  Provide direct JDBC access to the (Derby) data source of the application, for the 
+ *  few tasks that the object store of the framework does not support (e.g. sequence tables). 
+ *  
+ *  <p>The connection is a dedicated one, opened against the same data source URL as the one 
+ *  used by the framework's {@link OSM}, so that transactions started here never interfere 
+ *  with those of the framework.
+ *  
+ * @version 1.0
+ */
+public class DataSourceToolKit {
+  
+  /** the dedicated connection (lazily opened) */
+  private static Connection conn;
+  
+  /** the prepared statements of {@link #conn}, keyed by their SQL */
+  private static final Map<String, PreparedStatement> statements = new HashMap<>();
+  
+  private DataSourceToolKit() {
+    // no instances
+  }
+  
+  /**
+   * @effects 
+   *  if the framework's object store has been initialised and is connected to a data source 
+   *    return true
+   *  else
+   *    return false
+   */
+  public static boolean isAvailable() {
+    try {
+      return QRM.getInstance().getDom().isConnectedToDataSource();
+    } catch (RuntimeException e) {
+      // QRM not yet initialised
+      return false;
+    }
+  }
+  
+  /**
+   * @effects 
+   *  return the dedicated JDBC connection to the data source, opening it if needed.
+   *  
+   *  <p>throws DataSourceException if failed to connect to the data source.
+   */
+  public static synchronized Connection getConnection() throws DataSourceException {
+    try {
+      if (conn == null || conn.isClosed()) {
+        conn = openConnection();
+        // statements of a previous connection can not be reused 
+        statements.clear();
+      }
+      
+      return conn;
+    } catch (SQLException e) {
+      throw new DataSourceException(DataSourceException.Code.FAIL_TO_CONNECT, e, 
+          new Object[] {"DataSourceToolKit"});
+    }
+  }
+  
+  /**
+   * @effects 
+   *  open and return a new JDBC connection to the data source, separate from the dedicated 
+   *  one (see {@link #getConnection()}), for a long task that must not hold the dedicated 
+   *  one (e.g. an export). The caller must close it.
+   *  
+   *  <p>throws DataSourceException if failed to connect to the data source.
+   */
+  public static Connection openConnection() throws DataSourceException {
+    try {
+      OsmConfig config = getOsmConfig();
+      return DriverManager.getConnection(config.getDataSourceURL(), config.getProperties());
+    } catch (SQLException | NotPossibleException e) {
+      throw new DataSourceException(DataSourceException.Code.FAIL_TO_CONNECT, e, 
+          new Object[] {"DataSourceToolKit"});
+    }
+  }
+  
+  /**
+   * @effects 
+   *  return the configuration of the framework's {@link OSM}
+   *  
+   *  <p>throws NotPossibleException if the object store is not initialised.
+   */
+  private static OsmConfig getOsmConfig() throws NotPossibleException {
+    OSM osm = QRM.getInstance().getDom().getOsm();
+    
+    try {
+      // OSM.getConfig() is not public
+      Method getConfig = OSM.class.getDeclaredMethod("getConfig");
+      getConfig.setAccessible(true);
+      return (OsmConfig) getConfig.invoke(osm);
+    } catch (ReflectiveOperationException e) {
+      throw new NotPossibleException(NotPossibleException.Code.DATA_SOURCE_NOT_CONNECTED, e, 
+          new Object[] {osm});
+    }
+  }
+  
+  /**
+   * @effects 
+   *  if table <tt>tableName</tt> does not exist in the data source 
+   *    create it using the SQL statement <tt>createSql</tt>, return true
+   *  else 
+   *    return false
+   *    
+   *  <p>throws DataSourceException if failed.
+   */
+  public static boolean createTableIfNotExists(String tableName, String createSql) throws DataSourceException {
+    Connection conn = getConnection();
+    
+    synchronized (conn) {
+      try {
+        DatabaseMetaData meta = conn.getMetaData();
+        ResultSet rs = meta.getTables(null, null, tableName.toUpperCase(), new String[] {"TABLE"});
+        try {
+          if (rs.next())
+            return false;
+        } finally {
+          rs.close();
+        }
+        
+        Statement stmt = conn.createStatement();
+        try {
+          stmt.executeUpdate(createSql);
+        } finally {
+          stmt.close();
+        }
+        
+        return true;
+      } catch (SQLException e) {
+        throw new DataSourceException(DataSourceException.Code.FAIL_TO_CREATE_CLASS_STORE, e, 
+            new Object[] {tableName});
+      }
+    }
+  }
+  
+  /**
+   * @effects 
+   *  if table <tt>tableName</tt> has no index named <tt>indexName</tt> 
+   *    create it over the columns <tt>columnNames</tt>, return true
+   *  else 
+   *    return false
+   *    
+   *  <p>throws DataSourceException if failed.
+   */
+  public static boolean createIndexIfNotExists(String tableName, String indexName, String... columnNames) 
+      throws DataSourceException {
+    Connection conn = getConnection();
+    
+    synchronized (conn) {
+      try {
+        DatabaseMetaData meta = conn.getMetaData();
+        ResultSet rs = meta.getIndexInfo(null, null, tableName.toUpperCase(), false, false);
+        try {
+          while (rs.next()) {
+            if (indexName.equalsIgnoreCase(rs.getString("INDEX_NAME")))
+              return false;
+          }
+        } finally {
+          rs.close();
+        }
+        
+        StringBuilder sql = new StringBuilder("create index ").append(indexName)
+            .append(" on ").append(tableName).append(" (");
+        for (int i = 0; i < columnNames.length; i++) {
+          if (i > 0)
+            sql.append(", ");
+          sql.append(columnNames[i]);
+        }
+        sql.append(")");
+        
+        Statement stmt = conn.createStatement();
+        try {
+          stmt.executeUpdate(sql.toString());
+        } finally {
+          stmt.close();
+        }
+        
+        return true;
+      } catch (SQLException e) {
+        throw new DataSourceException(DataSourceException.Code.FAIL_TO_CREATE_CLASS_STORE, e, 
+            new Object[] {tableName});
+      }
+    }
+  }
+  
+  /**
+   * @requires 
+   *  the caller holds the lock of {@link #getConnection()} while it uses the result 
+   * @effects 
+   *  return the prepared statement of the dedicated connection for <tt>sql</tt>, 
+   *  preparing it if this has not been done before. 
+   *  
+   *  <p>The statement is kept open and reused by later invocations, so that the 
+   *  data source compiles <tt>sql</tt> only once.
+   *  
+   *  <p>throws DataSourceException if failed to prepare the statement.
+   */
+  public static PreparedStatement prepare(String sql) throws DataSourceException {
+    Connection conn = getConnection();
+    
+    synchronized (conn) {
+      PreparedStatement stmt = statements.get(sql);
+      try {
+        if (stmt == null || stmt.isClosed()) {
+          stmt = conn.prepareStatement(sql);
+          statements.put(sql, stmt);
+        }
+      } catch (SQLException e) {
+        throw new DataSourceException(DataSourceException.Code.FAIL_TO_EXECUTE_QUERY, e, 
+            new Object[] {sql});
+      }
+      
+      return stmt;
+    }
+  }
+  
+  /**
+   * @effects 
+   *  roll back the current transaction of <tt>conn</tt>, ignoring any errors 
+   */
+  public static void rollbackQuietly(Connection conn) {
+    try {
+      conn.rollback();
+    } catch (SQLException e) {
+      // ignore
+    }
+  }
+}
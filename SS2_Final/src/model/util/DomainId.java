@@ -0,0 +1,123 @@
+package model.util;
+
+import java.io.Serializable;
+
+import domainapp.basics.exceptions.ConstraintViolationException;
+
+/**
+ * @overview 
+ *  A compact, human-readable domain object id, which consists of a prefix tag 
+ *  (e.g. <tt>"SO"</tt> for {@link model.SaleOrder}) and a <tt>long</tt> number. 
+ *  
+ *  <p>Only the number is stored in the data source (as a fixed-width numeric column); 
+ *  the prefix is a constant of the domain class and is only used to format 
+ *  and parse the id for the user (e.g. <tt>"SO1024"</tt>). 
+ *  
+ * @version 1.0
+ */
+public final class DomainId implements Comparable<DomainId>, Serializable {
+  
+  private static final long serialVersionUID = 1L;
+
+  /** the maximum number of digits of a <tt>long</tt> number */
+  private static final int MAX_DIGITS = 19;
+  
+  private final String prefix;
+  
+  private final long value;
+  
+  public DomainId(String prefix, long value) {
+    this.prefix = prefix;
+    this.value = value;
+  }
+  
+  /**
+   * @effects 
+   *  return the prefix tag of this
+   */
+  public String getPrefix() {
+    return prefix;
+  }
+  
+  /**
+   * @effects 
+   *  return the number of this
+   */
+  public long getValue() {
+    return value;
+  }
+  
+  /**
+   * @effects 
+   *  return the string <tt>prefix + value</tt>
+   */
+  public static String format(String prefix, long value) {
+    return new StringBuilder(prefix.length() + MAX_DIGITS).append(prefix).append(value).toString();
+  }
+  
+  /**
+   * @effects 
+   *  if <tt>text</tt> is <tt>prefix</tt> followed by a non-negative number 
+   *    return the number
+   *  else 
+   *    throws ConstraintViolationException
+   */
+  public static long parse(String prefix, String text) throws ConstraintViolationException {
+    int len = (text != null) ? text.length() : 0;
+    int start = prefix.length();
+    
+    if (len <= start || len - start > MAX_DIGITS || !text.startsWith(prefix))
+      throw new ConstraintViolationException(ConstraintViolationException.Code.INVALID_VALUE, 
+          new Object[] {text});
+    
+    long num = 0;
+    for (int i = start; i < len; i++) {
+      int digit = text.charAt(i) - '0';
+      if (digit < 0 || digit > 9)
+        throw new ConstraintViolationException(ConstraintViolationException.Code.INVALID_VALUE, 
+            new Object[] {text});
+      
+      num = num * 10 + digit;
+      if (num < 0) // overflow
+        throw new ConstraintViolationException(ConstraintViolationException.Code.INVALID_VALUE, 
+            new Object[] {text});
+    }
+    
+    return num;
+  }
+  
+  /**
+   * @effects 
+   *  return the <tt>DomainId</tt> whose string form is <tt>text</tt>; 
+   *  throws ConstraintViolationException if <tt>text</tt> is not well-formed
+   */
+  public static DomainId valueOf(String prefix, String text) throws ConstraintViolationException {
+    return new DomainId(prefix, parse(prefix, text));
+  }
+
+  @Override
+  public int compareTo(DomainId o) {
+    int c = prefix.compareTo(o.prefix);
+    return (c != 0) ? c : Long.compare(value, o.value);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * prefix.hashCode() + (int) (value ^ (value >>> 32));
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (!(obj instanceof DomainId))
+      return false;
+    DomainId other = (DomainId) obj;
+    return value == other.value && prefix.equals(other.prefix);
+  }
+
+  @Override
+  public String toString() {
+    return format(prefix, value);
+  }
+}
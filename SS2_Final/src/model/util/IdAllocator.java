@@ -0,0 +1,206 @@
+package model.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import domainapp.basics.exceptions.DataSourceException;
+import domainapp.basics.exceptions.NotPossibleException;
+
+/**
+ * @overview 
+ *  A thread-safe allocator of the auto-generated ids of the domain classes. 
+ *  
+ *  <p>Each domain class has its own sequence, which is an {@link AtomicLong} that is 
+ *  only ever advanced using compare-and-set. There is no global lock: threads creating 
+ *  objects of different classes never contend, and threads creating objects of the same 
+ *  class only contend on that class's counter.  
+ *  
+ *  <p>Ids are handed out from blocks of {@link #BLOCK_SIZE} ids that are reserved in the 
+ *  {@link IdSequenceTable} of the data source (hi/lo), so the data source is 
+ *  accessed only once per block. If the data source is not available, blocks are 
+ *  reserved in memory.
+ *  
+ * @version 1.1
+ */
+public class IdAllocator {
+  
+  /** the number of ids that are reserved at a time (system property <tt>coffee.idBlockSize</tt>) */
+  public static final int BLOCK_SIZE = Integer.getInteger("coffee.idBlockSize", 50);
+  
+  /** the id sequences, one per domain class */
+  private static final ConcurrentMap<Class<?>, Sequence> sequences = new ConcurrentHashMap<>();
+  
+  /**
+   * @overview 
+   *  The id sequence of a domain class. 
+   */
+  private static class Sequence {
+    /** the last allocated (or observed) id */
+    private final AtomicLong value = new AtomicLong();
+    
+    /** the highest id of the reserved block; <tt>value < limit</tt> iff the block has free ids */
+    private volatile long limit;
+    
+    /** the first id allocated by this run, i.e. of its first reserved block (<tt>Long.MAX_VALUE</tt> if none) */
+    private volatile long first = Long.MAX_VALUE;
+  }
+  
+  private IdAllocator() {
+    // no instances
+  }
+  
+  /**
+   * @effects 
+   *  return the sequence of <tt>c</tt>, creating it if it does not yet exist
+   */
+  private static Sequence sequenceOf(Class<?> c) {
+    Sequence seq = sequences.get(c);
+    
+    if (seq == null) {
+      Sequence newSeq = new Sequence();
+      seq = sequences.putIfAbsent(c, newSeq);
+      if (seq == null)
+        seq = newSeq;
+    }
+    
+    return seq;
+  }
+  
+  /**
+   * @effects 
+   *  atomically advance the sequence of <tt>c</tt> and return the new value.
+   *  
+   *  <p>throws NotPossibleException if failed to reserve a new block of ids in the data source.
+   */
+  public static long nextId(Class<?> c) throws NotPossibleException {
+    Sequence seq = sequenceOf(c);
+    
+    for (;;) {
+      long curr = seq.value.get();
+      if (curr < seq.limit) {
+        if (seq.value.compareAndSet(curr, curr + 1))
+          return curr + 1;
+      } else {
+        reserveBlock(c, seq);
+      }
+    }
+  }
+  
+  /**
+   * @requires 
+   *  the ids of <tt>c</tt> are only allocated with this method
+   * @effects 
+   *  atomically advance the sequence of <tt>c</tt> by one, without reserving a block, and 
+   *  return the new value (i.e. one more than the highest id allocated or observed).
+   *  
+   *  <p>This is for the classes whose id columns are too narrow to lose the unused ids of 
+   *  a reserved block at every restart.
+   *  
+   *  <p>throws NotPossibleException if the new value would be greater than <tt>max</tt>.
+   */
+  public static long nextUnreservedId(Class<?> c, long max) throws NotPossibleException {
+    Sequence seq = sequenceOf(c);
+    
+    for (;;) {
+      long curr = seq.value.get();
+      if (curr >= max) {
+        throw new NotPossibleException(NotPossibleException.Code.FAIL_TO_CREATE_OBJECT, 
+            new Object[] {c.getSimpleName() + " (no id left below " + max + ")"});
+      }
+      
+      if (seq.value.compareAndSet(curr, curr + 1)) {
+        if (seq.first == Long.MAX_VALUE) {
+          synchronized (seq) {
+            // the first id of this run (see isAllocated)
+            seq.first = Math.min(seq.first, curr + 1);
+          }
+        }
+        return curr + 1;
+      }
+    }
+  }
+  
+  /**
+   * @effects 
+   *  if the current block of <tt>seq</tt> is used up 
+   *    reserve the next block of ids of <tt>c</tt> and make it the current block of <tt>seq</tt>
+   *  
+   *  <p>throws NotPossibleException if failed to reserve the block in the data source.
+   */
+  private static void reserveBlock(Class<?> c, Sequence seq) throws NotPossibleException {
+    synchronized (seq) {
+      long curr = seq.value.get();
+      if (curr < seq.limit) {
+        // reserved by another thread
+        return;
+      }
+      
+      long hi;
+      if (DataSourceToolKit.isAvailable()) {
+        try {
+          hi = IdSequenceTable.reserve(c, curr, BLOCK_SIZE);
+        } catch (DataSourceException e) {
+          throw new NotPossibleException(NotPossibleException.Code.FAIL_TO_PERFORM_DB, e, 
+              new Object[] {IdSequenceTable.TABLE});
+        }
+      } else {
+        hi = curr + BLOCK_SIZE;
+      }
+      
+      // move to the start of the block before publishing its limit, so that 
+      // no thread can allocate an id below the block
+      advance(seq.value, hi - BLOCK_SIZE);
+      if (seq.first == Long.MAX_VALUE) {
+        seq.first = hi - BLOCK_SIZE + 1;
+      }
+      seq.limit = hi;
+    }
+  }
+  
+  /**
+   * @effects 
+   *  if <tt>num</tt> is greater than the current value of the sequence of <tt>c</tt>
+   *    atomically advance the sequence to <tt>num</tt>
+   *  else 
+   *    do nothing
+   */
+  public static void observe(Class<?> c, long num) {
+    advance(sequenceOf(c).value, num);
+  }
+  
+  /**
+   * @effects 
+   *  atomically set <tt>value</tt> to <tt>max(value, num)</tt>
+   */
+  private static void advance(AtomicLong value, long num) {
+    long curr = value.get();
+    while (num > curr) {
+      if (value.compareAndSet(curr, num))
+        break;
+      curr = value.get();
+    }
+  }
+  
+  /**
+   * @effects 
+   *  return the current (i.e. last allocated or observed) value of the sequence of <tt>c</tt>
+   */
+  public static long currentId(Class<?> c) {
+    return sequenceOf(c).value.get();
+  }
+  
+  /**
+   * @effects 
+   *  if <tt>id</tt> may have been handed out by {@link #nextId(Class)} for <tt>c</tt> in this run 
+   *  (i.e. it is not lower than the first id reserved by this run) 
+   *    return true
+   *  else
+   *    return false
+   *    
+   *  <p>An object of <tt>c</tt> whose id is not is one that was stored by an earlier run.
+   */
+  public static boolean isAllocated(Class<?> c, long id) {
+    return id >= sequenceOf(c).first;
+  }
+}
@@ -0,0 +1,119 @@
+package model.util;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import domainapp.basics.exceptions.DataSourceException;
+
+/**
+ * @overview 
+ *  The persistent (hi/lo) sequence table of the domain classes. 
+ *  
+ *  <p>The table has one row per domain class, which records the highest id that has been 
+ *  handed out to any {@link IdAllocator}. An allocator reserves a whole block of ids 
+ *  with a single transaction and then hands them out from memory.
+ *  
+ * @version 1.0
+ */
+class IdSequenceTable {
+  
+  /** the name of the sequence table */
+  static final String TABLE = "IdSequence";
+  
+  private static final String SQL_CREATE = 
+      "create table " + TABLE + " (className varchar(100) not null primary key, hiValue bigint not null)";
+
+  private static final String SQL_RESERVE = 
+      "update " + TABLE + " set hiValue = (case when hiValue < ? then ? else hiValue end) + ? where className = ?";
+
+  private static final String SQL_INSERT = 
+      "insert into " + TABLE + " (className, hiValue) values (?, ?)";
+
+  private static final String SQL_READ = 
+      "select hiValue from " + TABLE + " where className = ?";
+  
+  private static boolean initialised;
+  
+  private IdSequenceTable() {
+    // no instances
+  }
+  
+  /**
+   * @requires 
+   *  blockSize > 0
+   * @effects 
+   *  reserve in the sequence table the next block of <tt>blockSize</tt> ids of <tt>c</tt>, 
+   *  none of which is lower than or equal to <tt>floor</tt>; 
+   *  return the highest id of the reserved block (i.e. the block is 
+   *  <tt>(result - blockSize, result]</tt>).
+   *  
+   *  <p>throws DataSourceException if failed to read or update the sequence table.
+   */
+  static long reserve(Class<?> c, long floor, int blockSize) throws DataSourceException {
+    Connection conn = DataSourceToolKit.getConnection();
+    
+    synchronized (conn) {
+      if (!initialised) {
+        DataSourceToolKit.createTableIfNotExists(TABLE, SQL_CREATE);
+        initialised = true;
+      }
+      
+      String className = c.getName();
+      try {
+        conn.setAutoCommit(false);
+        try {
+          PreparedStatement update = conn.prepareStatement(SQL_RESERVE);
+          int updated;
+          try {
+            update.setLong(1, floor);
+            update.setLong(2, floor);
+            update.setLong(3, blockSize);
+            update.setString(4, className);
+            updated = update.executeUpdate();
+          } finally {
+            update.close();
+          }
+          
+          long hi;
+          if (updated == 0) {
+            // first block of this class
+            hi = floor + blockSize;
+            PreparedStatement insert = conn.prepareStatement(SQL_INSERT);
+            try {
+              insert.setString(1, className);
+              insert.setLong(2, hi);
+              insert.executeUpdate();
+            } finally {
+              insert.close();
+            }
+          } else {
+            PreparedStatement read = conn.prepareStatement(SQL_READ);
+            try {
+              read.setString(1, className);
+              ResultSet rs = read.executeQuery();
+              rs.next();
+              hi = rs.getLong(1);
+              rs.close();
+            } finally {
+              read.close();
+            }
+          }
+          
+          conn.commit();
+          
+          return hi;
+        } catch (SQLException e) {
+          DataSourceToolKit.rollbackQuietly(conn);
+          throw e;
+        } finally {
+          conn.setAutoCommit(true);
+        }
+      } catch (SQLException e) {
+        throw new DataSourceException(DataSourceException.Code.FAIL_TO_UPDATE_OBJECT_ATTRIB, e, 
+            new Object[] {TABLE, className});
+      }
+    }
+  }
+}
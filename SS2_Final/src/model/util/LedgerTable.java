@@ -0,0 +1,262 @@
+package model.util;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+
+import domainapp.basics.exceptions.DataSourceException;
+
+/**
+ * @overview
+ *  The table of a ledger of coffees (e.g. {@link StockLedger}, {@link CostLedger}): one row
+ *  per coffee, keyed by its id, with one or more running totals.
+ *
+ *  <p>The totals are changed by adding deltas to them (see {@link #add(long, long...)}) and
+ *  are computed from the order lines only when the table is created or re-filled, with the
+ *  grouped query of the ledger.
+ *
+ *  <p>A ledger whose totals are found to be out of date with the lines (e.g. as a delta
+ *  failed to be added) is marked as such in the data source (see {@link #markStale()}), in
+ *  the table <tt>LedgerState</tt> that is shared by all the ledgers. The mark is removed
+ *  when the table is re-filled, and a marked table is re-filled when it is next loaded, so
+ *  the totals are not left out of date by a run that ends before it has re-filled them.
+ *
+ * @version 1.0
+ */
+class LedgerTable {
+
+  /** the table of the names of the ledger tables that are out of date with the lines */
+  private static final String STATE_TABLE = "LedgerState";
+
+  private static final String SQL_CREATE_STATE =
+      "create table " + STATE_TABLE + " (ledger varchar(64) primary key)";
+
+  private static final String SQL_IS_STALE = "select count(*) from " + STATE_TABLE + " where ledger = ?";
+
+  private static final String SQL_MARK_STALE = "insert into " + STATE_TABLE + " (ledger) values (?)";
+
+  private static final String SQL_UNMARK_STALE = "delete from " + STATE_TABLE + " where ledger = ?";
+
+  /** the name of the table */
+  private final String table;
+
+  /** the names of the total columns */
+  private final String[] columns;
+
+  private final String sqlCreate;
+
+  private final String sqlSelect;
+
+  private final String sqlUpdate;
+
+  private final String sqlInsert;
+
+  /**
+   * @requires
+   *  columns.length > 0
+   * @effects
+   *  initialise this as the table <tt>table</tt> with the total columns <tt>columns</tt>
+   */
+  LedgerTable(String table, String... columns) {
+    this.table = table;
+    this.columns = columns.clone();
+
+    StringBuilder create = new StringBuilder("create table " + table + " (coffeeId bigint primary key");
+    StringBuilder names = new StringBuilder("coffeeId");
+    StringBuilder set = new StringBuilder();
+    StringBuilder params = new StringBuilder("?");
+    for (String col : columns) {
+      create.append(", ").append(col).append(" bigint not null");
+      names.append(", ").append(col);
+      set.append((set.length() > 0) ? ", " : "").append(col).append(" = ").append(col).append(" + ?");
+      params.append(", ?");
+    }
+
+    sqlCreate = create.append(")").toString();
+    sqlSelect = "select " + names + " from " + table;
+    sqlUpdate = "update " + table + " set " + set + " where coffeeId = ?";
+    sqlInsert = "insert into " + table + " (" + names + ") values (" + params + ")";
+  }
+
+  /**
+   * @requires
+   *  deltas.length = the number of the total columns
+   * @effects
+   *  add <tt>deltas</tt> to the totals of coffee <tt>coffeeId</tt>, inserting its row if
+   *  it does not exist
+   *
+   *  <p>throws DataSourceException if failed.
+   */
+  void add(long coffeeId, long... deltas) throws DataSourceException {
+    try {
+      Connection conn = DataSourceToolKit.getConnection();
+      synchronized (conn) {
+        PreparedStatement update = DataSourceToolKit.prepare(sqlUpdate);
+        for (int i = 0; i < deltas.length; i++) {
+          update.setLong(i + 1, deltas[i]);
+        }
+        update.setLong(deltas.length + 1, coffeeId);
+
+        if (update.executeUpdate() == 0) {
+          PreparedStatement insert = DataSourceToolKit.prepare(sqlInsert);
+          insert.setLong(1, coffeeId);
+          for (int i = 0; i < deltas.length; i++) {
+            insert.setLong(i + 2, deltas[i]);
+          }
+          insert.executeUpdate();
+        }
+      }
+    } catch (SQLException e) {
+      throw new DataSourceException(DataSourceException.Code.FAIL_TO_UPDATE_OBJECT_ATTRIB, e,
+          new Object[] {table, coffeeId});
+    }
+  }
+
+  /**
+   * @effects
+   *  if the table does not exist
+   *    create it and fill it from <tt>sqlSumOfLines</tt> (which selects the coffee id and
+   *    the totals, in the order of the total columns)
+   *  else if it is marked as out of date
+   *    re-fill it (see {@link #reload(String)})
+   *  return the totals in the table, keyed by the coffee ids
+   *
+   *  <p>throws DataSourceException if failed.
+   */
+  Map<Long, long[]> load(String sqlSumOfLines) throws DataSourceException {
+    try {
+      Connection conn = DataSourceToolKit.getConnection();
+      synchronized (conn) {
+        DataSourceToolKit.createTableIfNotExists(STATE_TABLE, SQL_CREATE_STATE);
+
+        if (DataSourceToolKit.createTableIfNotExists(table, sqlCreate)) {
+          // a new ledger: account for the existing lines
+          fill(conn, sqlSumOfLines);
+        } else if (isMarkedStale()) {
+          // left out of date by a previous run
+          return reload(sqlSumOfLines);
+        }
+
+        return select();
+      }
+    } catch (SQLException e) {
+      throw new DataSourceException(DataSourceException.Code.FAIL_TO_UPDATE_OBJECT_ATTRIB, e,
+          new Object[] {table, "*"});
+    }
+  }
+
+  /**
+   * @requires
+   *  the table has been loaded (see {@link #load(String)})
+   * @effects
+   *  mark the table as out of date with the lines (if it is not yet), so that it is re-filled
+   *  when it is next loaded unless it is re-filled before
+   *
+   *  <p>throws DataSourceException if failed.
+   */
+  void markStale() throws DataSourceException {
+    try {
+      Connection conn = DataSourceToolKit.getConnection();
+      synchronized (conn) {
+        if (!isMarkedStale()) {
+          PreparedStatement mark = DataSourceToolKit.prepare(SQL_MARK_STALE);
+          mark.setString(1, table);
+          mark.executeUpdate();
+        }
+      }
+    } catch (SQLException e) {
+      throw new DataSourceException(DataSourceException.Code.FAIL_TO_UPDATE_OBJECT_ATTRIB, e,
+          new Object[] {STATE_TABLE, table});
+    }
+  }
+
+  private boolean isMarkedStale() throws SQLException, DataSourceException {
+    PreparedStatement query = DataSourceToolKit.prepare(SQL_IS_STALE);
+    query.setString(1, table);
+
+    ResultSet rs = query.executeQuery();
+    try {
+      return rs.next() && rs.getInt(1) > 0;
+    } finally {
+      rs.close();
+    }
+  }
+
+  /**
+   * @effects
+   *  replace the content of the table (creating it if it does not exist) with the result of
+   *  <tt>sqlSumOfLines</tt> and remove its mark of being out of date (if any), in a single
+   *  transaction; return the new totals, keyed by the coffee ids
+   *
+   *  <p>throws DataSourceException if failed, in which case the table is unchanged.
+   */
+  Map<Long, long[]> reload(String sqlSumOfLines) throws DataSourceException {
+    try {
+      Connection conn = DataSourceToolKit.getConnection();
+      synchronized (conn) {
+        DataSourceToolKit.createTableIfNotExists(STATE_TABLE, SQL_CREATE_STATE);
+        DataSourceToolKit.createTableIfNotExists(table, sqlCreate);
+
+        conn.setAutoCommit(false);
+        try {
+          Statement stmt = conn.createStatement();
+          try {
+            stmt.executeUpdate("delete from " + table);
+          } finally {
+            stmt.close();
+          }
+          fill(conn, sqlSumOfLines);
+
+          PreparedStatement unmark = DataSourceToolKit.prepare(SQL_UNMARK_STALE);
+          unmark.setString(1, table);
+          unmark.executeUpdate();
+
+          conn.commit();
+        } catch (SQLException e) {
+          DataSourceToolKit.rollbackQuietly(conn);
+          throw e;
+        } finally {
+          conn.setAutoCommit(true);
+        }
+
+        return select();
+      }
+    } catch (SQLException e) {
+      throw new DataSourceException(DataSourceException.Code.FAIL_TO_UPDATE_OBJECT_ATTRIB, e,
+          new Object[] {table, "*"});
+    }
+  }
+
+  private void fill(Connection conn, String sqlSumOfLines) throws SQLException {
+    Statement stmt = conn.createStatement();
+    try {
+      stmt.executeUpdate("insert into " + table + " (coffeeId, " + String.join(", ", columns) + ") "
+          + sqlSumOfLines);
+    } finally {
+      stmt.close();
+    }
+  }
+
+  private Map<Long, long[]> select() throws SQLException, DataSourceException {
+    Map<Long, long[]> rows = new HashMap<>();
+
+    ResultSet rs = DataSourceToolKit.prepare(sqlSelect).executeQuery();
+    try {
+      while (rs.next()) {
+        long[] totals = new long[columns.length];
+        for (int i = 0; i < totals.length; i++) {
+          totals[i] = rs.getLong(i + 2);
+        }
+        rows.put(rs.getLong(1), totals);
+      }
+    } finally {
+      rs.close();
+    }
+
+    return rows;
+  }
+}
@@ -0,0 +1,114 @@
+package model.util;
+
+/**
+ * @overview
+ *  Fixed-point arithmetic on money amounts.
+ *
+ *  <p>An amount is a primitive <tt>long</tt> number of minor units (1/{@link #SCALE}
+ *  of the major unit). Sums and products of amounts are therefore exact, and no objects
+ *  are created by the arithmetic operations. Overflow is reported as an
+ *  {@link ArithmeticException} instead of silently wrapping around.
+ *
+ *  <p>The scale is that of the shop's currency, the Vietnamese dong (VND), which has no
+ *  minor unit in use: {@link #SCALE} is <tt>1</tt>, i.e. an amount is a whole number of
+ *  dong (e.g. <tt>45000</tt>). The forms of the framework show and accept the amount
+ *  attributes as they are stored, so they need no conversion.
+ *
+ *  <p>Amounts are stored in the data source as <tt>BIGINT</tt> columns
+ *  (attribute type <tt>Long</tt>).
+ *
+ * @version 1.0
+ */
+public final class Money {
+
+  /** the number of minor units per major unit */
+  public static final int SCALE = 1;
+
+  /** the number of fraction digits of a major amount (i.e. <tt>log10(SCALE)</tt>) */
+  private static final int FRACTION_DIGITS = 0;
+
+  private Money() {
+    // no instances
+  }
+
+  /**
+   * @effects
+   *  return <tt>price * quantity</tt>
+   *
+   *  <p>throws ArithmeticException if the result overflows
+   */
+  public static long times(long price, long quantity) throws ArithmeticException {
+    return Math.multiplyExact(price, quantity);
+  }
+
+  /**
+   * @effects
+   *  return <tt>a + b</tt>
+   *
+   *  <p>throws ArithmeticException if the result overflows
+   */
+  public static long plus(long a, long b) throws ArithmeticException {
+    return Math.addExact(a, b);
+  }
+
+  /**
+   * @effects
+   *  return <tt>a - b</tt>
+   *
+   *  <p>throws ArithmeticException if the result overflows
+   */
+  public static long minus(long a, long b) throws ArithmeticException {
+    return Math.subtractExact(a, b);
+  }
+
+  /**
+   * @effects
+   *  return the amount (in minor units) of the major amount <tt>major</tt>, rounded
+   *  half-up to the nearest minor unit
+   */
+  public static long ofMajor(double major) {
+    return Math.round(major * SCALE);
+  }
+
+  /**
+   * @effects
+   *  return <tt>amount</tt> in major units
+   *
+   *  <p>This is for display and statistics only: do not use the result in further
+   *  money arithmetic.
+   */
+  public static double toMajor(long amount) {
+    return (double) amount / SCALE;
+  }
+
+  /**
+   * @effects
+   *  return <tt>amount</tt> formatted in major units, e.g. <tt>"45000"</tt> for <tt>45000</tt>
+   *  (with {@link #FRACTION_DIGITS} fraction digits, if any)
+   */
+  public static String format(long amount) {
+    StringBuilder sb = new StringBuilder(24);
+
+    if (amount < 0) {
+      sb.append('-');
+    }
+
+    // use the unsigned division so that Long.MIN_VALUE is also handled correctly
+    long abs = amount < 0 ? -amount : amount;
+    long major = Long.divideUnsigned(abs, SCALE);
+    long minor = Long.remainderUnsigned(abs, SCALE);
+
+    sb.append(Long.toUnsignedString(major));
+    if (FRACTION_DIGITS == 0) {
+      return sb.toString();
+    }
+    sb.append('.');
+
+    String fraction = Long.toString(minor);
+    for (int i = fraction.length(); i < FRACTION_DIGITS; i++) {
+      sb.append('0');
+    }
+
+    return sb.append(fraction).toString();
+  }
+}
@@ -0,0 +1,199 @@
+package model.util;
+
+import java.lang.reflect.Field;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicLong;
+
+import domainapp.basics.core.dodm.dom.DOMBasic;
+import domainapp.basics.core.dodm.dsm.DSMBasic;
+import domainapp.basics.core.dodm.osm.relational.RelationalOSMBasic;
+import domainapp.basics.core.dodm.qrm.QRM;
+import domainapp.basics.exceptions.DataSourceException;
+import domainapp.basics.exceptions.NotFoundException;
+import domainapp.basics.exceptions.NotPossibleException;
+import domainapp.basics.model.meta.DAttr;
+
+/**
+ * @overview
+ *  Store a new order (e.g. a {@link model.ImportOrder}) together with all of its lines
+ *  (e.g. {@link model.DetailImOrder}s) in the data source using JDBC batching, in a single
+ *  transaction.
+ *
+ *  <p>The object store of the framework inserts (and commits) one object at a time, so
+ *  storing an order of <tt>n</tt> lines takes <tt>n+1</tt> round trips. Here the lines are
+ *  sent in batches of {@link #BATCH_SIZE} rows, and are either all stored or none is.
+ *
+ *  <p>The table and column names, and the stored attributes, are those used by the
+ *  framework's object store, so the stored objects are read back by the framework as usual.
+ *
+ * @version 1.0
+ */
+public class OrderBatchWriter {
+
+  /** the maximum number of rows that are sent in one batch (system property <tt>coffee.batchSize</tt>) */
+  public static final int BATCH_SIZE = Math.max(1, Integer.getInteger("coffee.batchSize", 100));
+
+  /** the total number of rows written */
+  private static final AtomicLong rowCount = new AtomicLong();
+
+  /** the total number of statements or batches sent to the data source */
+  private static final AtomicLong roundTripCount = new AtomicLong();
+
+  private OrderBatchWriter() {
+    // no instances
+  }
+
+  /**
+   * @requires
+   *  <tt>header</tt> and the objects in <tt>lines</tt> are new objects (i.e. not yet stored) /\
+   *  all objects in <tt>lines</tt> are of the same class
+   * @effects
+   *  store <tt>header</tt> and <tt>lines</tt> in the data source in a single transaction,
+   *  then add them to the object pool of the framework (without storing them again).
+   *
+   *  <p>throws DataSourceException if failed to store the objects, in which case none of
+   *  them is stored.
+   */
+  public static void insert(Object header, Collection<?> lines) throws DataSourceException {
+    DOMBasic dom = QRM.getInstance().getDom();
+
+    Connection conn = DataSourceToolKit.getConnection();
+
+    synchronized (conn) {
+      try {
+        conn.setAutoCommit(false);
+        try {
+          insertAll(conn, dom, header.getClass(), Collections.singletonList(header));
+
+          if (!lines.isEmpty()) {
+            insertAll(conn, dom, lines.iterator().next().getClass(), lines);
+          }
+
+          conn.commit();
+        } catch (SQLException | NotFoundException | NotPossibleException e) {
+          DataSourceToolKit.rollbackQuietly(conn);
+          throw e;
+        } finally {
+          conn.setAutoCommit(true);
+        }
+      } catch (SQLException | NotFoundException | NotPossibleException e) {
+        throw new DataSourceException(DataSourceException.Code.FAIL_TO_INSERT_OBJECT, e,
+            new Object[] {header.getClass().getSimpleName(), header});
+      }
+    }
+
+    // the objects are stored: add them to the object pool
+    dom.addObject(header, false);
+    for (Object line : lines) {
+      dom.addObject(line, false);
+    }
+  }
+
+  /**
+   * @effects
+   *  insert <tt>objects</tt> (of class <tt>c</tt>) into the table of <tt>c</tt>, sending
+   *  at most {@link #BATCH_SIZE} rows at a time
+   */
+  private static void insertAll(Connection conn, DOMBasic dom, Class<?> c, Collection<?> objects)
+      throws SQLException, NotFoundException, NotPossibleException {
+    DSMBasic dsm = dom.getDsm();
+    RelationalOSMBasic osm = (RelationalOSMBasic) dom.getOsm();
+
+    Map<Field, DAttr> attribs = dsm.getSerialisableAttributes(c);
+    List<Entry<Field, DAttr>> columns = new ArrayList<>(attribs.entrySet());
+
+    StringBuilder sql = new StringBuilder("insert into ").append(dsm.getDomainClassName(c)).append(" (");
+    StringBuilder params = new StringBuilder();
+    for (Iterator<Entry<Field, DAttr>> it = columns.iterator(); it.hasNext(); ) {
+      sql.append(osm.toDBColumnName(c, it.next().getValue(), false));
+      params.append('?');
+      if (it.hasNext()) {
+        sql.append(", ");
+        params.append(", ");
+      }
+    }
+    sql.append(") values (").append(params).append(")");
+
+    PreparedStatement stmt = conn.prepareStatement(sql.toString());
+    try {
+      int pending = 0;
+      for (Object o : objects) {
+        int index = 1;
+        for (Entry<Field, DAttr> col : columns) {
+          stmt.setObject(index++, toColumnValue(dsm, col.getValue(), dsm.getAttributeValue(col.getKey(), o)));
+        }
+        stmt.addBatch();
+
+        if (++pending == BATCH_SIZE) {
+          executeBatch(stmt, pending);
+          pending = 0;
+        }
+      }
+
+      if (pending > 0) {
+        executeBatch(stmt, pending);
+      }
+    } finally {
+      stmt.close();
+    }
+  }
+
+  /**
+   * @effects
+   *  return the value that is stored in the column of the attribute <tt>attrib</tt>
+   *  whose value is <tt>val</tt>: this is the id of <tt>val</tt> if <tt>attrib</tt> is
+   *  a domain-typed attribute, a <tt>java.sql.Date</tt> if <tt>val</tt> is a
+   *  <tt>java.util.Date</tt> (which the data source does not accept), or <tt>val</tt> otherwise.
+   */
+  private static Object toColumnValue(DSMBasic dsm, DAttr attrib, Object val) throws NotPossibleException {
+    if (val != null && attrib.type().isDomainType()) {
+      DAttr idAttrib = dsm.getIDDomainConstraints(val.getClass()).get(0);
+      return dsm.getAttributeValue(val, idAttrib.name());
+    } else if (val instanceof java.util.Date && !(val instanceof java.sql.Date)) {
+      return new java.sql.Date(((java.util.Date) val).getTime());
+    } else {
+      return val;
+    }
+  }
+
+  private static void executeBatch(PreparedStatement stmt, int rows) throws SQLException {
+    stmt.executeBatch();
+    roundTripCount.incrementAndGet();
+    rowCount.addAndGet(rows);
+  }
+
+  /**
+   * @effects
+   *  return the total number of rows written
+   */
+  public static long getRowCount() {
+    return rowCount.get();
+  }
+
+  /**
+   * @effects
+   *  return the total number of batches sent to the data source
+   */
+  public static long getRoundTripCount() {
+    return roundTripCount.get();
+  }
+
+  /**
+   * @effects
+   *  return the average number of rows written per round trip to the data source,
+   *  or <tt>0</tt> if nothing has been written
+   */
+  public static double getRowsPerRoundTrip() {
+    long trips = roundTripCount.get();
+    return (trips == 0) ? 0 : (double) rowCount.get() / trips;
+  }
+}
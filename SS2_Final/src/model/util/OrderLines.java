@@ -0,0 +1,128 @@
+package model.util;
+
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/**
+ * @overview
+ *  The lines of an order (e.g. the {@link model.DetailExOrder}s of a {@link model.SaleOrder}),
+ *  keyed by their ids and kept in insertion order.
+ *
+ *  <p>Membership test, add and remove take constant time, so adding or loading
+ *  <tt>n</tt> lines takes <tt>O(n)</tt> time (instead of <tt>O(n^2)</tt> with
+ *  a list). A line whose id is already in this is not added again.
+ *
+ *  <p>This is not thread-safe.
+ *
+ * @version 1.0
+ */
+public class OrderLines<T> extends AbstractCollection<T> {
+
+  /** the class of the lines */
+  private final Class<T> lineClass;
+
+  /** the function that returns the id of a line */
+  private final ToLongFunction<? super T> idOf;
+
+  private final Map<Long, T> lines;
+
+  /**
+   * @effects
+   *  initialise this as an empty collection of <tt>lineClass</tt> lines whose ids are
+   *  given by <tt>idOf</tt>
+   */
+  public OrderLines(Class<T> lineClass, ToLongFunction<? super T> idOf) {
+    this.lineClass = lineClass;
+    this.idOf = idOf;
+    this.lines = new LinkedHashMap<>();
+  }
+
+  /**
+   * @effects
+   *  initialise this with the <tt>lineClass</tt> lines in <tt>c</tt>, whose ids are
+   *  given by <tt>idOf</tt>
+   */
+  public OrderLines(Class<T> lineClass, ToLongFunction<? super T> idOf, Collection<? extends T> c) {
+    this.lineClass = lineClass;
+    this.idOf = idOf;
+    // size the map so that it is not re-hashed while adding c
+    this.lines = new LinkedHashMap<>(Math.max(16, (int) (c.size() / .75f) + 1));
+    addAll(c);
+  }
+
+  /**
+   * @effects
+   *  return the line whose id is <tt>id</tt> or <tt>null</tt> if no such line exists
+   */
+  public T get(long id) {
+    return lines.get(id);
+  }
+
+  /**
+   * @effects
+   *  if a line with the same id as <tt>line</tt> is in this
+   *    return false
+   *  else
+   *    add <tt>line</tt> to the end of this, return true
+   */
+  @Override
+  public boolean add(T line) {
+    return lines.putIfAbsent(idOf.applyAsLong(line), line) == null;
+  }
+
+  /**
+   * @effects
+   *  if a line with the same id as <tt>o</tt> is in this
+   *    return true
+   *  else
+   *    return false
+   */
+  @Override
+  public boolean contains(Object o) {
+    T line = lineOf(o);
+    return line != null && lines.containsKey(idOf.applyAsLong(line));
+  }
+
+  /**
+   * @effects
+   *  if a line with the same id as <tt>o</tt> is in this
+   *    remove it, return true
+   *  else
+   *    return false
+   */
+  @Override
+  public boolean remove(Object o) {
+    T line = lineOf(o);
+    return line != null && lines.remove(idOf.applyAsLong(line)) != null;
+  }
+
+  @Override
+  public Iterator<T> iterator() {
+    return lines.values().iterator();
+  }
+
+  @Override
+  public int size() {
+    return lines.size();
+  }
+
+  @Override
+  public void clear() {
+    lines.clear();
+  }
+
+  /**
+   * @effects
+   *  if <tt>o</tt> is a <tt>lineClass</tt> object
+   *    return <tt>o</tt>
+   *  else
+   *    return null
+   */
+  private T lineOf(Object o) {
+    return lineClass.isInstance(o) ? lineClass.cast(o) : null;
+  }
+}
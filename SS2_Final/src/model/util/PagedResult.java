@@ -0,0 +1,405 @@
+package model.util;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.Predicate;
+
+import domainapp.basics.core.dodm.dom.DOMBasic;
+import domainapp.basics.core.dodm.qrm.QRM;
+import domainapp.basics.exceptions.DataSourceException;
+import domainapp.basics.exceptions.NotFoundException;
+import domainapp.basics.exceptions.NotPossibleException;
+import domainapp.basics.model.Oid;
+
+/**
+ * @overview
+ *  A read-only list of the objects of a report result, which are loaded in pages of
+ *  {@link #PAGE_SIZE} objects when they are first accessed.
+ *
+ *  <p>The ids of the objects of each page are obtained from a {@link PageSource} when the
+ *  page is loaded: e.g. a report query fetches them from the data source a page at a time
+ *  (see {@link ReportQuery#retrievePaged(Object...)}), so that only the number of objects
+ *  is known up front and the memory used is bounded by the pages kept, however many objects
+ *  match. At most {@link #MAX_PAGES} pages are kept; the least recently used page is
+ *  dropped when another one is loaded (and is loaded again if it is accessed again).
+ *
+ *  <p>A result whose ids are already in memory (e.g. those found by a {@link TrigramIndex},
+ *  or a small result of a report query) may also keep a key of each object (e.g. the value of the attribute that the report
+ *  searched), which is used to narrow the result without loading the objects (see
+ *  {@link #narrow(Predicate)}).
+ *
+ *  <p>An object that has been deleted since the result was computed is not in the result:
+ *  when a page is loaded that does not find some of its objects, they are dropped and the
+ *  result shrinks (the pages after it are loaded again).
+ *
+ *  <p>The system properties <tt>coffee.reportPageSize</tt> (default: 50) and
+ *  <tt>coffee.reportMaxPages</tt> (default: 4) set the page size and the number of pages kept.
+ *
+ * @version 1.0
+ */
+public class PagedResult<T> extends AbstractList<T> {
+
+  /** the number of objects in a page */
+  public static final int PAGE_SIZE = Math.max(1, Integer.getInteger("coffee.reportPageSize", 50));
+
+  /** the maximum number of pages kept */
+  public static final int MAX_PAGES = Math.max(1, Integer.getInteger("coffee.reportMaxPages", 4));
+
+  /**
+   * the maximum number of objects of a result whose ids (and keys) are kept in memory
+   * rather than fetched a page at a time (see {@link ReportQuery#retrievePaged(Object...)})
+   */
+  public static final int MAX_KEYED = PAGE_SIZE * MAX_PAGES;
+
+  /**
+   * @overview
+   *  The ids of the objects of a result, in the order of the result.
+   */
+  public static interface PageSource {
+    /**
+     * @effects
+     *  return the number of objects
+     *
+     *  <p>throws DataSourceException if failed to read the data source.
+     */
+    int count() throws DataSourceException;
+
+    /**
+     * @requires
+     *  offset >= 0 /\ limit > 0 /\
+     *  (after = null \/ after is the id of the object at position <tt>offset - 1</tt>)
+     * @effects
+     *  return the ids of at most <tt>limit</tt> objects from position <tt>offset</tt>; if
+     *  <tt>after != null</tt> these are the objects that follow <tt>after</tt> (so that the
+     *  source can seek to it rather than skip <tt>offset</tt> objects).
+     *
+     *  <p>throws DataSourceException if failed to read the data source.
+     */
+    List<Oid> fetch(int offset, int limit, Oid after) throws DataSourceException;
+
+    /**
+     * @effects
+     *  forget the object <tt>oid</tt>, which has been deleted
+     */
+    void remove(Oid oid);
+  }
+
+  private final Class<T> cls;
+
+  private final PageSource source;
+
+  /** the number of objects */
+  private int size;
+
+  /** the loaded pages, in least-recently-used order */
+  private final Map<Integer, List<T>> pages = new LinkedHashMap<Integer, List<T>>(16, .75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Integer, List<T>> eldest) {
+      return size() > MAX_PAGES;
+    }
+  };
+
+  /**
+   * the id of the last object of each recently loaded page, from which the next page is
+   * fetched (in least-recently-used order)
+   */
+  private final Map<Integer, Oid> pageEnds = new LinkedHashMap<Integer, Oid>(16, .75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Integer, Oid> eldest) {
+      return size() > MAX_PAGES;
+    }
+  };
+
+  /**
+   * @effects
+   *  initialise this as the result of the <tt>c</tt> objects whose ids are <tt>oids</tt>
+   */
+  public PagedResult(Class<T> c, List<Oid> oids) {
+    this(c, oids, null);
+  }
+
+  /**
+   * @requires
+   *  keys = null \/ keys.size() = oids.size()
+   * @effects
+   *  initialise this as the result of the <tt>c</tt> objects whose ids are <tt>oids</tt>
+   *  and whose keys are <tt>keys</tt>
+   */
+  public PagedResult(Class<T> c, List<Oid> oids, List<?> keys) {
+    this(c, oids.size(), new IdList(oids, keys));
+  }
+
+  /**
+   * @requires
+   *  size = source.count()
+   * @effects
+   *  initialise this as the result of the <tt>size</tt> <tt>c</tt> objects whose ids are
+   *  given by <tt>source</tt>
+   */
+  public PagedResult(Class<T> c, int size, PageSource source) {
+    this.cls = c;
+    this.size = size;
+    this.source = source;
+  }
+
+  /**
+   * @effects
+   *  if this keeps the keys of its objects
+   *    return true
+   *  else
+   *    return false
+   */
+  public boolean isNarrowable() {
+    return (source instanceof IdList) && ((IdList) source).keys != null;
+  }
+
+  /**
+   * @requires
+   *  isNarrowable()
+   * @effects
+   *  return the result of the objects of this whose keys satisfy <tt>keyTest</tt> (in the
+   *  same order), or <tt>null</tt> if there are none. No object is loaded.
+   */
+  public synchronized PagedResult<T> narrow(Predicate<Object> keyTest) {
+    if (!isNarrowable()) {
+      throw new IllegalStateException("PagedResult: no keys to narrow " + this);
+    }
+
+    IdList ids = (IdList) source;
+    List<Oid> narrowOids = new ArrayList<>();
+    List<Object> narrowKeys = new ArrayList<>();
+    for (int i = 0; i < ids.oids.size(); i++) {
+      Object key = ids.keys.get(i);
+      if (keyTest.test(key)) {
+        narrowOids.add(ids.oids.get(i));
+        narrowKeys.add(key);
+      }
+    }
+
+    return narrowOids.isEmpty() ? null : new PagedResult<>(cls, narrowOids, narrowKeys);
+  }
+
+  /**
+   * @effects
+   *  return the number of objects in this (without loading any)
+   */
+  @Override
+  public synchronized int size() {
+    return size;
+  }
+
+  /**
+   * @effects
+   *  return the number of pages of this
+   */
+  public synchronized int getPageCount() {
+    return (size + PAGE_SIZE - 1) / PAGE_SIZE;
+  }
+
+  /**
+   * @requires
+   *  0 <= i < size()
+   * @effects
+   *  return the <tt>i</tt>-th object of this, loading its page if needed.
+   *
+   *  <p>throws NotPossibleException if failed to load the page; IndexOutOfBoundsException
+   *  if <tt>i</tt> is not in this (e.g. as objects of its page have been deleted).
+   */
+  @Override
+  public synchronized T get(int i) throws NotPossibleException {
+    if (i < 0 || i >= size) {
+      throw new IndexOutOfBoundsException("PagedResult: " + i + " (size: " + size + ")");
+    }
+
+    List<T> page = getPage(i / PAGE_SIZE);
+    if (i % PAGE_SIZE >= page.size()) {
+      throw new IndexOutOfBoundsException("PagedResult: " + i + " (size: " + size + ")");
+    }
+
+    return page.get(i % PAGE_SIZE);
+  }
+
+  /**
+   * @effects
+   *  return an iterator over the objects of this, which loads each page when it reaches it
+   *  (and so skips the objects of the page that have been deleted)
+   */
+  @Override
+  public Iterator<T> iterator() {
+    return new Iterator<T>() {
+      private int cursor;
+
+      @Override
+      public boolean hasNext() {
+        synchronized (PagedResult.this) {
+          if (cursor < size && cursor % PAGE_SIZE == 0) {
+            // load the page first: this may shrink the result
+            getPage(cursor / PAGE_SIZE);
+          }
+          return cursor < size;
+        }
+      }
+
+      @Override
+      public T next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return get(cursor++);
+      }
+    };
+  }
+
+  /**
+   * @requires
+   *  0 <= page < getPageCount()
+   * @effects
+   *  return the objects of the page <tt>page</tt> of this, loading them if needed.
+   *
+   *  <p>throws NotPossibleException if failed to load the page.
+   */
+  public synchronized List<T> getPage(int page) throws NotPossibleException {
+    List<T> objects = pages.get(page);
+    if (objects == null) {
+      objects = loadPage(page);
+      pages.put(page, objects);
+    }
+
+    return objects;
+  }
+
+  /**
+   * @effects
+   *  fetch the ids of page <tt>page</tt> of this from {@link #source} and return its objects
+   *  from the object pool of the framework, which loads those that are not yet in the pool.
+   *
+   *  <p>If some of the objects have been deleted, they are removed from this, which shrinks,
+   *  and the page is fetched again (once) to fill it.
+   */
+  private List<T> loadPage(int page) throws NotPossibleException {
+    try {
+      List<T> objects = null;
+      for (int attempt = 0; attempt < 2; attempt++) {
+        Oid after = (page > 0) ? pageEnds.get(page - 1) : null;
+        List<Oid> pageOids = source.fetch(page * PAGE_SIZE, PAGE_SIZE, after);
+
+        Map<Oid, T> loaded = retrieve(pageOids);
+
+        objects = new ArrayList<>(pageOids.size());
+        boolean deleted = false;
+        for (Oid oid : pageOids) {
+          T o = loaded.get(oid);
+          if (o != null) {
+            objects.add(o);
+          } else {
+            // deleted since the result was computed
+            source.remove(oid);
+            deleted = true;
+          }
+        }
+
+        if (!pageOids.isEmpty()) {
+          pageEnds.put(page, pageOids.get(pageOids.size() - 1));
+        }
+
+        if (!deleted && (objects.size() == PAGE_SIZE || page * PAGE_SIZE + objects.size() == size)) {
+          break;
+        }
+
+        // the objects after page * PAGE_SIZE have moved: forget the later pages
+        size = source.count();
+        pages.keySet().removeIf(p -> p > page);
+        pageEnds.keySet().removeIf(p -> p >= page);
+      }
+
+      return objects;
+    } catch (DataSourceException e) {
+      // List.get can not throw checked exceptions
+      throw new NotPossibleException(NotPossibleException.Code.FAIL_TO_PERFORM_REPORT, e,
+          new Object[] {cls.getSimpleName()});
+    }
+  }
+
+  /**
+   * @effects
+   *  return the objects <tt>oids</tt> from the object pool of the framework (which loads
+   *  those that are not yet in the pool), keyed by their ids; the objects that are no longer
+   *  in the data source are not in the result
+   *
+   *  <p>throws DataSourceException if failed to load the objects.
+   */
+  private Map<Oid, T> retrieve(List<Oid> oids) throws DataSourceException {
+    if (oids.isEmpty()) {
+      return new LinkedHashMap<>();
+    }
+
+    DOMBasic dom = QRM.getInstance().getDom();
+    try {
+      return dom.retrieveObjects(cls, oids, null);
+    } catch (NotFoundException e) {
+      // some have been deleted: load the objects one by one to find which
+      Map<Oid, T> loaded = new LinkedHashMap<>();
+      for (Oid oid : oids) {
+        try {
+          T o = dom.retrieveObject(cls, oid);
+          if (o != null) {
+            loaded.put(oid, o);
+          }
+        } catch (NotFoundException notFound) {
+          // deleted
+        }
+      }
+
+      return loaded;
+    }
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "PagedResult(" + cls.getSimpleName() + ", size=" + size + ", pages loaded="
+        + pages.size() + ")";
+  }
+
+  /**
+   * @overview
+   *  A {@link PageSource} of ids (and keys) that are kept in memory.
+   */
+  private static final class IdList implements PageSource {
+    private final List<Oid> oids;
+
+    /** the keys of the objects (in the same order as {@link #oids}), or <tt>null</tt> */
+    private final List<?> keys;
+
+    IdList(List<Oid> oids, List<?> keys) {
+      this.oids = oids;
+      this.keys = keys;
+    }
+
+    @Override
+    public int count() {
+      return oids.size();
+    }
+
+    @Override
+    public List<Oid> fetch(int offset, int limit, Oid after) {
+      int from = Math.min(offset, oids.size());
+      return new ArrayList<>(oids.subList(from, Math.min(oids.size(), from + limit)));
+    }
+
+    @Override
+    public void remove(Oid oid) {
+      int i = oids.indexOf(oid);
+      if (i >= 0) {
+        oids.remove(i);
+        if (keys != null) {
+          keys.remove(i);
+        }
+      }
+    }
+  }
+}
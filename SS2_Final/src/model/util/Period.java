@@ -0,0 +1,88 @@
+package model.util;
+
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * @overview
+ *  A calendar period by which dated records (e.g. sale orders) are grouped: a day, a week
+ *  (starting on Monday) or a month.
+ *
+ *  <p>Each period of a kind is identified by a number (its key), which the data source
+ *  computes from a date column (see {@link #toSQLKey(String)}), so that the records can be
+ *  grouped in SQL.
+ *
+ * @version 1.0
+ */
+public enum Period {
+  /** key: the number of days since 1970-01-01 */
+  DAY,
+  /** key: the number of weeks since Monday 1970-01-05 */
+  WEEK,
+  /** key: <tt>year * 100 + month</tt> */
+  MONTH;
+
+  /** the Monday from which weeks are counted */
+  private static final LocalDate FIRST_MONDAY = LocalDate.of(1970, 1, 5);
+
+  /**
+   * @effects
+   *  return the period whose name is <tt>name</tt> (ignoring case), or {@link #MONTH} if
+   *  <tt>name</tt> is <tt>null</tt>
+   *
+   *  <p>throws IllegalArgumentException if no period is named <tt>name</tt>
+   */
+  public static Period of(String name) throws IllegalArgumentException {
+    return (name == null) ? MONTH : valueOf(name.trim().toUpperCase());
+  }
+
+  /**
+   * @requires
+   *  the dates in <tt>dateCol</tt> are after 1970-01-05
+   * @effects
+   *  return the (Derby) SQL expression of the key of the period of the date in the
+   *  column <tt>dateCol</tt>
+   */
+  public String toSQLKey(String dateCol) {
+    switch (this) {
+      case DAY:
+        return "{fn TIMESTAMPDIFF(SQL_TSI_DAY, DATE('1970-01-01'), " + dateCol + ")}";
+      case WEEK:
+        return "{fn TIMESTAMPDIFF(SQL_TSI_DAY, DATE('" + FIRST_MONDAY + "'), " + dateCol + ")} / 7";
+      default:
+        return "YEAR(" + dateCol + ") * 100 + MONTH(" + dateCol + ")";
+    }
+  }
+
+  /**
+   * @effects
+   *  return the first day of the period whose key is <tt>key</tt>
+   */
+  public LocalDate startOf(long key) {
+    switch (this) {
+      case DAY:
+        return LocalDate.ofEpochDay(key);
+      case WEEK:
+        return FIRST_MONDAY.plus(key, ChronoUnit.WEEKS);
+      default:
+        return LocalDate.of((int) (key / 100), (int) (key % 100), 1);
+    }
+  }
+
+  /**
+   * @effects
+   *  return a label of the period whose key is <tt>key</tt>, e.g. <tt>2026-01-05</tt> (day),
+   *  <tt>2026-01-05/W</tt> (the week starting on that day) or <tt>2026-01</tt> (month)
+   */
+  public String format(long key) {
+    LocalDate start = startOf(key);
+    switch (this) {
+      case DAY:
+        return start.toString();
+      case WEEK:
+        return start + "/W";
+      default:
+        return start.toString().substring(0, 7);
+    }
+  }
+}
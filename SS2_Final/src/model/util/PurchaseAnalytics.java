@@ -0,0 +1,262 @@
+package model.util;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * @overview
+ *  The purchasing figures of the suppliers, aggregated from the import order lines.
+ *
+ *  <p>The lines are kept in parallel primitive arrays (see {@link Lines}), in the order of
+ *  their orders. They are aggregated on the common fork/join pool: the lines are split into
+ *  partitions, each of which is summed into its own {@link Accumulator}, and the
+ *  accumulators are then merged pairwise. No state is shared between the partitions, so
+ *  the aggregation scales with the number of cores.
+ *
+ * @version 1.0
+ */
+public final class PurchaseAnalytics {
+
+  /** the largest number of lines that are aggregated by a single task */
+  public static final int THRESHOLD = Math.max(1, Integer.getInteger("coffee.analyticsThreshold", 4096));
+
+  /** the figures of a supplier: {@link #QUANTITY}, ..., {@link #LAST_DAY} */
+  public static final int QUANTITY = 0, SPEND = 1, ORDERS = 2, FIRST_DAY = 3, LAST_DAY = 4;
+
+  private PurchaseAnalytics() {
+    // no instances
+  }
+
+  /**
+   * @overview
+   *  The import order lines, in the order of their orders: the supplier and the date (as an
+   *  epoch day) of the order, and the coffee, quantity and unit price of the line.
+   */
+  public static final class Lines {
+    private int size;
+    private long[] supplierIds = new long[64];
+    private long[] orderIds = new long[64];
+    private long[] days = new long[64];
+    private long[] coffeeIds = new long[64];
+    private int[] quantities = new int[64];
+    private long[] prices = new long[64];
+
+    /**
+     * @requires
+     *  <tt>orderId</tt> is not less than the order id of the lines that have been added
+     * @effects
+     *  add a line to this
+     */
+    public void add(long supplierId, long orderId, long day, long coffeeId, int quantity, long price) {
+      if (size == orderIds.length) {
+        int cap = size * 2;
+        supplierIds = Arrays.copyOf(supplierIds, cap);
+        orderIds = Arrays.copyOf(orderIds, cap);
+        days = Arrays.copyOf(days, cap);
+        coffeeIds = Arrays.copyOf(coffeeIds, cap);
+        quantities = Arrays.copyOf(quantities, cap);
+        prices = Arrays.copyOf(prices, cap);
+      }
+
+      supplierIds[size] = supplierId;
+      orderIds[size] = orderId;
+      days[size] = day;
+      coffeeIds[size] = coffeeId;
+      quantities[size] = quantity;
+      prices[size] = price;
+      size++;
+    }
+
+    /**
+     * @effects
+     *  return the number of lines of this
+     */
+    public int size() {
+      return size;
+    }
+  }
+
+  /**
+   * @overview
+   *  The figures of a contiguous range of lines: for each supplier, its figures
+   *  (see {@link PurchaseAnalytics#QUANTITY}) and, for each coffee that it supplied, the
+   *  quantity and the spend.
+   *
+   *  <p>The orders of the range are counted when their first line is met. An order whose
+   *  lines are split between two adjacent ranges is therefore counted by both, which
+   *  {@link #merge(Accumulator)} corrects.
+   */
+  public static final class Accumulator {
+    private final Map<Long, long[]> suppliers = new HashMap<>();
+    private final Map<Long, Map<Long, long[]>> coffees = new HashMap<>();
+
+    /** the first and last order of the range (-1 if empty) */
+    private long firstOrderId = -1, lastOrderId = -1;
+    private long firstSupplierId;
+
+    private void add(Lines lines, int i) {
+      long supplierId = lines.supplierIds[i];
+      long orderId = lines.orderIds[i];
+      long day = lines.days[i];
+      long spend = Money.times(lines.prices[i], lines.quantities[i]);
+
+      long[] s = suppliers.get(supplierId);
+      if (s == null) {
+        s = new long[] {0, 0, 0, day, day};
+        suppliers.put(supplierId, s);
+      }
+      s[QUANTITY] += lines.quantities[i];
+      s[SPEND] = Money.plus(s[SPEND], spend);
+      if (orderId != lastOrderId) {
+        // the first line of an order
+        s[ORDERS]++;
+      }
+      s[FIRST_DAY] = Math.min(s[FIRST_DAY], day);
+      s[LAST_DAY] = Math.max(s[LAST_DAY], day);
+
+      Map<Long, long[]> byCoffee = coffees.get(supplierId);
+      if (byCoffee == null) {
+        byCoffee = new HashMap<>();
+        coffees.put(supplierId, byCoffee);
+      }
+      long[] c = byCoffee.get(lines.coffeeIds[i]);
+      if (c == null) {
+        c = new long[2];
+        byCoffee.put(lines.coffeeIds[i], c);
+      }
+      c[QUANTITY] += lines.quantities[i];
+      c[SPEND] = Money.plus(c[SPEND], spend);
+
+      if (firstOrderId < 0) {
+        firstOrderId = orderId;
+        firstSupplierId = supplierId;
+      }
+      lastOrderId = orderId;
+    }
+
+    /**
+     * @requires
+     *  the lines of <tt>next</tt> immediately follow those of this
+     * @effects
+     *  add the figures of <tt>next</tt> to this
+     */
+    private void merge(Accumulator next) {
+      if (next.firstOrderId < 0) {
+        return;
+      }
+
+      for (Map.Entry<Long, long[]> e : next.suppliers.entrySet()) {
+        long[] n = e.getValue();
+        long[] s = suppliers.get(e.getKey());
+        if (s == null) {
+          suppliers.put(e.getKey(), n);
+        } else {
+          s[QUANTITY] += n[QUANTITY];
+          s[SPEND] = Money.plus(s[SPEND], n[SPEND]);
+          s[ORDERS] += n[ORDERS];
+          s[FIRST_DAY] = Math.min(s[FIRST_DAY], n[FIRST_DAY]);
+          s[LAST_DAY] = Math.max(s[LAST_DAY], n[LAST_DAY]);
+        }
+      }
+
+      for (Map.Entry<Long, Map<Long, long[]>> e : next.coffees.entrySet()) {
+        Map<Long, long[]> byCoffee = coffees.get(e.getKey());
+        if (byCoffee == null) {
+          coffees.put(e.getKey(), e.getValue());
+        } else {
+          for (Map.Entry<Long, long[]> ce : e.getValue().entrySet()) {
+            long[] n = ce.getValue();
+            long[] c = byCoffee.get(ce.getKey());
+            if (c == null) {
+              byCoffee.put(ce.getKey(), n);
+            } else {
+              c[QUANTITY] += n[QUANTITY];
+              c[SPEND] = Money.plus(c[SPEND], n[SPEND]);
+            }
+          }
+        }
+      }
+
+      if (next.firstOrderId == lastOrderId) {
+        // an order split between the two ranges: counted twice
+        suppliers.get(next.firstSupplierId)[ORDERS]--;
+      }
+
+      if (firstOrderId < 0) {
+        firstOrderId = next.firstOrderId;
+        firstSupplierId = next.firstSupplierId;
+      }
+      lastOrderId = next.lastOrderId;
+    }
+
+    /**
+     * @effects
+     *  return the figures of each supplier (see {@link PurchaseAnalytics#QUANTITY}), keyed
+     *  by the supplier ids
+     */
+    public Map<Long, long[]> getSuppliers() {
+      return suppliers;
+    }
+
+    /**
+     * @effects
+     *  return the quantity and spend (see {@link PurchaseAnalytics#QUANTITY},
+     *  {@link PurchaseAnalytics#SPEND}) of each coffee of each supplier, keyed by the
+     *  supplier ids then the coffee ids
+     */
+    public Map<Long, Map<Long, long[]>> getCoffees() {
+      return coffees;
+    }
+  }
+
+  /**
+   * @overview
+   *  Aggregate the lines <tt>[from, to)</tt>, splitting them in halves while there are more
+   *  than {@link PurchaseAnalytics#THRESHOLD} of them.
+   */
+  private static final class AggregateTask extends RecursiveTask<Accumulator> {
+    private static final long serialVersionUID = 1L;
+
+    private final Lines lines;
+    private final int from, to;
+
+    private AggregateTask(Lines lines, int from, int to) {
+      this.lines = lines;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected Accumulator compute() {
+      if (to - from <= THRESHOLD) {
+        Accumulator acc = new Accumulator();
+        for (int i = from; i < to; i++) {
+          acc.add(lines, i);
+        }
+        return acc;
+      }
+
+      int mid = (from + to) >>> 1;
+      AggregateTask left = new AggregateTask(lines, from, mid);
+      AggregateTask right = new AggregateTask(lines, mid, to);
+      left.fork();
+      Accumulator rightAcc = right.compute();
+      Accumulator leftAcc = left.join();
+      leftAcc.merge(rightAcc);
+      return leftAcc;
+    }
+  }
+
+  /**
+   * @effects
+   *  return the figures of <tt>lines</tt>, aggregated in parallel
+   *
+   *  <p>throws ArithmeticException if a spend overflows
+   */
+  public static Accumulator aggregate(Lines lines) throws ArithmeticException {
+    return ForkJoinPool.commonPool().invoke(new AggregateTask(lines, 0, lines.size()));
+  }
+}
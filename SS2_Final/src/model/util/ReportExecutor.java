@@ -0,0 +1,264 @@
+package model.util;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * @overview
+ *  Run report queries in the background, at most one at a time for each report.
+ *
+ *  <p>A query only reads the data source (e.g. the ids of the matching objects): the
+ *  report prepares what it needs from the object pool of the framework (e.g. its compiled
+ *  query and the listeners of its result cache) on the calling thread before it submits the
+ *  query, and the objects of the result are loaded when they are accessed.
+ *
+ *  <p>Submitting a query for a report cancels the query that is in flight for the same
+ *  report (if any): it is not run if it has not started yet, and its result is discarded
+ *  if it has. Only the result of the latest query of a report is published, by invoking
+ *  the given result (or error) handler on the event dispatch thread, which is the thread
+ *  that reads the output of the report to show it. The {@link ReportListener}s of this
+ *  are then told that the output of the report has changed (see
+ *  {@link #firePublished(Object)}), e.g. to refresh the form of the report.
+ *
+ *  <p>A running query is not interrupted, as the embedded data source may close its
+ *  files when the thread that uses them is interrupted, and its statements are not
+ *  cancelled, as the embedded data source does not support this. Instead, a cancelled
+ *  query runs no further statement (see {@link #checkCancelled()}).
+ *
+ *  <p>The number of threads is given by the system property <tt>coffee.reportThreads</tt>
+ *  (default: 2). The threads are daemon threads.
+ *
+ * @version 1.0
+ */
+public class ReportExecutor {
+
+  /**
+   * @overview
+   *  Told (on the event dispatch thread) when the query of a report has completed.
+   */
+  public static interface ReportListener {
+    /**
+     * @effects
+     *  handle that the output of <tt>report</tt> has been updated with the result of its
+     *  query
+     */
+    void published(Object report);
+
+    /**
+     * @effects
+     *  handle that the query of <tt>report</tt> failed with <tt>e</tt>
+     */
+    void failed(Object report, Exception e);
+  }
+
+  /** the number of threads that run the queries */
+  public static final int THREADS = Math.max(1, Integer.getInteger("coffee.reportThreads", 2));
+
+  private static final AtomicInteger threadCount = new AtomicInteger();
+
+  private static final ExecutorService executor = Executors.newFixedThreadPool(THREADS, r -> {
+    Thread t = new Thread(r, "report-query-" + threadCount.incrementAndGet());
+    t.setDaemon(true);
+    return t;
+  });
+
+  /** the query that is in flight for each report */
+  private static final Map<Object, ReportTask<?>> inFlight = new HashMap<>();
+
+  /** the query that is run by the current thread (if any) */
+  private static final ThreadLocal<ReportTask<?>> current = new ThreadLocal<>();
+
+  private static final List<ReportListener> listeners = new CopyOnWriteArrayList<>();
+
+  private static final AtomicLong submitted = new AtomicLong();
+  private static final AtomicLong superseded = new AtomicLong();
+
+  private ReportExecutor() {
+    // no instances
+  }
+
+  /**
+   * @effects
+   *  cancel the query that is in flight for <tt>report</tt> (if any), then run
+   *  <tt>query</tt> in the background and return its future.
+   *
+   *  <p>When <tt>query</tt> completes, unless it has been cancelled or superseded by then,
+   *  invoke <tt>onResult</tt> with its result or, if it failed, <tt>onError</tt> with its
+   *  exception, on the event dispatch thread.
+   */
+  public static <V> Future<V> submit(final Object report, Callable<V> query,
+      final Consumer<? super V> onResult, final Consumer<? super Exception> onError) {
+    ReportTask<V> task = new ReportTask<>(report, query, onResult, onError);
+
+    synchronized (inFlight) {
+      ReportTask<?> prev = inFlight.put(report, task);
+      if (prev != null) {
+        prev.cancel(false);
+        superseded.incrementAndGet();
+      }
+    }
+
+    submitted.incrementAndGet();
+    executor.execute(task);
+
+    return task;
+  }
+
+  /**
+   * @effects
+   *  if a query is in flight for <tt>report</tt>
+   *    cancel it (its result is not published), return true
+   *  else
+   *    return false
+   */
+  public static boolean cancel(Object report) {
+    ReportTask<?> prev;
+    synchronized (inFlight) {
+      prev = inFlight.remove(report);
+    }
+
+    if (prev != null) {
+      prev.cancel(false);
+      superseded.incrementAndGet();
+      return true;
+    } else {
+      return false;
+    }
+  }
+
+  /**
+   * @effects
+   *  if the current thread runs a query of this that has been cancelled or superseded
+   *    throw CancellationException
+   *
+   *  <p>A query invokes this before each statement that it runs, so that it stops at the
+   *  next statement once it is cancelled.
+   */
+  public static void checkCancelled() throws CancellationException {
+    ReportTask<?> task = current.get();
+    if (task != null && task.isCancelled()) {
+      throw new CancellationException();
+    }
+  }
+
+  /**
+   * @effects
+   *  add <tt>l</tt> to the listeners that are told when the query of a report completes
+   */
+  public static void addListener(ReportListener l) {
+    listeners.add(l);
+  }
+
+  /**
+   * @effects
+   *  tell the listeners of this that the output of <tt>report</tt> has been updated
+   */
+  public static void firePublished(Object report) {
+    for (ReportListener l : listeners) {
+      l.published(report);
+    }
+  }
+
+  /**
+   * @effects
+   *  tell the listeners of this that the query of <tt>report</tt> failed with <tt>e</tt>
+   */
+  public static void fireFailed(Object report, Exception e) {
+    for (ReportListener l : listeners) {
+      l.failed(report, e);
+    }
+  }
+
+  /**
+   * @effects
+   *  return the number of queries submitted to this
+   */
+  public static long getSubmittedCount() {
+    return submitted.get();
+  }
+
+  /**
+   * @effects
+   *  return the number of queries that were cancelled or superseded before their results
+   *  were published
+   */
+  public static long getSupersededCount() {
+    return superseded.get();
+  }
+
+  /**
+   * @overview
+   *  A query of a report, which publishes its result when it completes unless it has been
+   *  cancelled or superseded.
+   */
+  private static final class ReportTask<V> extends FutureTask<V> {
+    private final Object report;
+    private final Consumer<? super V> onResult;
+    private final Consumer<? super Exception> onError;
+
+    ReportTask(Object report, Callable<V> query, Consumer<? super V> onResult,
+        Consumer<? super Exception> onError) {
+      super(query);
+      this.report = report;
+      this.onResult = onResult;
+      this.onError = onError;
+    }
+
+    @Override
+    public void run() {
+      current.set(this);
+      try {
+        super.run();
+      } finally {
+        current.remove();
+      }
+    }
+
+    @Override
+    protected void done() {
+      if (!isCancelled()) {
+        SwingUtilities.invokeLater(this::publish);
+      }
+    }
+
+    /**
+     * @effects
+     *  if this is still the query of its report (i.e. it has not been superseded while its
+     *  result was handed over to this thread)
+     *    publish its result or its exception
+     */
+    private void publish() {
+      synchronized (inFlight) {
+        if (inFlight.get(report) != this) {
+          // cancelled or superseded
+          return;
+        }
+        inFlight.remove(report);
+      }
+
+      try {
+        onResult.accept(get());
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        onError.accept((cause instanceof Exception) ? (Exception) cause : e);
+      } catch (InterruptedException e) {
+        // not possible: this is done
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
@@ -0,0 +1,623 @@
+package model.util;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import domainapp.basics.core.dodm.dom.DOMBasic;
+import domainapp.basics.core.dodm.dsm.DSMBasic;
+import domainapp.basics.core.dodm.osm.relational.RelationalOSMBasic;
+import domainapp.basics.core.dodm.qrm.QRM;
+import domainapp.basics.exceptions.DataSourceException;
+import domainapp.basics.exceptions.NotFoundException;
+import domainapp.basics.exceptions.NotPossibleException;
+import domainapp.basics.model.Oid;
+import domainapp.basics.model.meta.DAttr;
+import domainapp.basics.model.query.Expression.Op;
+
+/**
+ * @overview
+ *  A compiled, parameterised search query over the objects of a domain class, e.g.
+ *  "<tt>SaleOrder</tt>s whose <tt>date</tt> matches <tt>?</tt>".
+ *
+ *  <p>A report compiles its query once (see {@link #compile(Class, String[], Op[])} and
+ *  {@link #compileJoin(Class, String, String[], Op[])}) and keeps
+ *  it, then runs it with the current input value(s) using {@link #retrieveObjects(Object...)}.
+ *  Each run only binds the values to a prepared statement that is reused across runs (see
+ *  {@link DataSourceToolKit#prepare(String)}), so neither the query nor its SQL is
+ *  re-created, and the data source does not re-compile the SQL.
+ *
+ *  <p>The query selects the ids of the matching objects. The objects themselves are
+ *  obtained from the object pool of the framework, or loaded by it if they are not yet in
+ *  the pool. A paged result (see {@link #retrievePaged(Object...)}) counts the matching
+ *  objects and then selects the ids of a page at a time, when the page is accessed, or all
+ *  of them with their keys if there are few enough to be narrowed in memory.
+ *
+ *  <p>When the query is run for a report by {@link ReportExecutor}, it runs no further
+ *  statement once the report query is superseded.
+ *
+ *  <p>The matching objects can also be exported as CSV (see {@link #exportCsv(Path, Object...)}):
+ *  their rows are then streamed from the data source into the file, without the objects being
+ *  created.
+ *
+ * @version 1.0
+ */
+public class ReportQuery<T> {
+
+  private final Class<T> cls;
+
+  /** the id attribute of {@link #cls} */
+  private final DAttr idAttrib;
+
+  /** the compiled SQL */
+  private final String sql;
+
+  /**
+   * the <tt>from</tt> and <tt>where</tt> clauses of {@link #sql}, the id column in them and
+   * the alias of the table of {@link #cls} in them (<tt>""</tt> or <tt>"o."</tt>)
+   */
+  private final String fromWhere;
+  private final String idCol;
+  private final String alias;
+
+  /** the SQL that counts the matching objects */
+  private final String countSql;
+
+  /**
+   * the SQL that selects a page of the ids of the matching objects: from an offset, or
+   * (seeking in the id order) after a given id
+   */
+  private final String offsetSql;
+  private final String seekSql;
+
+  /**
+   * the SQL that selects the ids of the matching objects together with their keys (the
+   * values of the first queried attribute)
+   */
+  private final String keySql;
+
+  private final int numParams;
+
+  /** the SQL that selects all serialisable columns of the matching objects (created on first use) */
+  private String exportSql;
+
+  /** the names of the attributes that {@link #exportSql} selects, in order */
+  private String[] exportAttribNames;
+
+  /**
+   * for each column of {@link #exportSql}: the id prefix of the class of its ids (if it is
+   * the id or a domain-typed attribute, <tt>null</tt> otherwise), and whether it is a money
+   * amount
+   */
+  private String[] exportIdPrefixes;
+  private boolean[] exportMoney;
+
+  private ReportQuery(Class<T> cls, DAttr idAttrib, String fromWhere, String idCol,
+      String alias, String keyCol, int numParams) {
+    this.cls = cls;
+    this.idAttrib = idAttrib;
+    this.fromWhere = fromWhere;
+    this.idCol = idCol;
+    this.alias = alias;
+    this.numParams = numParams;
+
+    String select = "select " + idCol + fromWhere;
+    this.sql = select + " order by " + idCol;
+    this.countSql = "select count(*)" + fromWhere;
+    this.offsetSql = sql + " offset ? rows fetch next ? rows only";
+    this.seekSql = select + " and " + idCol + " > ? order by " + idCol + " fetch first ? rows only";
+    this.keySql = "select " + idCol + ", " + keyCol + fromWhere + " order by " + idCol;
+  }
+
+  /**
+   * @requires
+   *  attribNames.length = ops.length > 0 /\
+   *  ops does not contain Op.IN, Op.NOIN, Op.CONTAINS, Op.BETWEEN, Op.Nil
+   * @effects
+   *  return a query for the objects of <tt>c</tt> whose attribute <tt>attribNames[i]</tt>
+   *  satisfies <tt>ops[i]</tt> against the <tt>i</tt>-th parameter value, for all <tt>i</tt>.
+   *
+   *  <p>The objects are returned in the order of their ids.
+   *
+   *  <p>throws NotPossibleException if the object store is not initialised or an
+   *  attribute or operator is not supported.
+   */
+  public static <T> ReportQuery<T> compile(Class<T> c, String[] attribNames, Op[] ops)
+      throws NotPossibleException {
+    DOMBasic dom = QRM.getInstance().getDom();
+    DSMBasic dsm = dom.getDsm();
+    RelationalOSMBasic osm = (RelationalOSMBasic) dom.getOsm();
+
+    DAttr idAttrib = dsm.getIDDomainConstraints(c).get(0);
+    String idCol = osm.toDBColumnName(c, idAttrib, false);
+
+    StringBuilder sql = new StringBuilder(" from ").append(dsm.getDomainClassName(c))
+        .append(" where ");
+
+    String[] cols = new String[attribNames.length];
+    for (int i = 0; i < attribNames.length; i++) {
+      if (i > 0) {
+        sql.append(" and ");
+      }
+      DAttr attrib = dsm.getDomainConstraint(c, attribNames[i]);
+      cols[i] = osm.toDBColumnName(c, attrib, false);
+      sql.append(cols[i]).append(' ').append(toSQL(ops[i])).append(" ?");
+    }
+
+    return new ReportQuery<>(c, idAttrib, sql.toString(), idCol, "", cols[0], attribNames.length);
+  }
+
+  /**
+   * @requires
+   *  <tt>joinAttribName</tt> is a domain-typed attribute of <tt>c</tt>, whose type is
+   *  <tt>d</tt> /\
+   *  attribNames.length = ops.length > 0 /\
+   *  ops does not contain Op.IN, Op.NOIN, Op.CONTAINS, Op.BETWEEN, Op.Nil
+   * @effects
+   *  return a query for the objects <tt>o</tt> of <tt>c</tt> such that the attribute
+   *  <tt>attribNames[i]</tt> of the <tt>d</tt> object <tt>o.joinAttribName</tt> satisfies
+   *  <tt>ops[i]</tt> against the <tt>i</tt>-th parameter value, for all <tt>i</tt>.
+   *
+   *  <p>The two tables are joined in the data source, so the query takes one round trip
+   *  however many <tt>d</tt> objects match. The objects are returned in the order of
+   *  their ids.
+   *
+   *  <p>throws NotPossibleException if the object store is not initialised or an
+   *  attribute or operator is not supported.
+   */
+  public static <T> ReportQuery<T> compileJoin(Class<T> c, String joinAttribName,
+      String[] attribNames, Op[] ops) throws NotPossibleException {
+    DOMBasic dom = QRM.getInstance().getDom();
+    DSMBasic dsm = dom.getDsm();
+    RelationalOSMBasic osm = (RelationalOSMBasic) dom.getOsm();
+
+    DAttr idAttrib = dsm.getIDDomainConstraints(c).get(0);
+    String idCol = "o." + osm.toDBColumnName(c, idAttrib, false);
+
+    DAttr joinAttrib = dsm.getDomainConstraint(c, joinAttribName);
+    Class<?> d = dsm.getDomainClassFor(c, joinAttrib);
+    DAttr joinIdAttrib = dsm.getIDDomainConstraints(d).get(0);
+
+    StringBuilder sql = new StringBuilder(" from ").append(dsm.getDomainClassName(c)).append(" o")
+        .append(" join ").append(dsm.getDomainClassName(d)).append(" j")
+        .append(" on o.").append(osm.toDBColumnName(c, joinAttrib, false))
+        .append(" = j.").append(osm.toDBColumnName(d, joinIdAttrib, false))
+        .append(" where ");
+
+    String[] cols = new String[attribNames.length];
+    for (int i = 0; i < attribNames.length; i++) {
+      if (i > 0) {
+        sql.append(" and ");
+      }
+      DAttr attrib = dsm.getDomainConstraint(d, attribNames[i]);
+      cols[i] = "j." + osm.toDBColumnName(d, attrib, false);
+      sql.append(cols[i]).append(' ').append(toSQL(ops[i])).append(" ?");
+    }
+
+    return new ReportQuery<>(c, idAttrib, sql.toString(), idCol, "o.", cols[0], attribNames.length);
+  }
+
+  /**
+   * @effects
+   *  if the table of <tt>c</tt> has no index over the columns of the attributes
+   *  <tt>attribNames</tt> (named after the table and the columns)
+   *    create it
+   *
+   *  <p>Queries of <tt>c</tt> that compare these attributes (e.g. with Op.GTEQ and Op.LTEQ)
+   *  are then answered by the data source with a range scan of the index, rather than
+   *  a scan of the whole table.
+   *
+   *  <p>throws DataSourceException if failed to create the index; NotPossibleException if
+   *  the object store is not initialised.
+   */
+  public static void createIndex(Class<?> c, String... attribNames)
+      throws DataSourceException, NotPossibleException {
+    DOMBasic dom = QRM.getInstance().getDom();
+    DSMBasic dsm = dom.getDsm();
+    RelationalOSMBasic osm = (RelationalOSMBasic) dom.getOsm();
+
+    String table = dsm.getDomainClassName(c);
+    String[] cols = new String[attribNames.length];
+    StringBuilder indexName = new StringBuilder(table);
+    for (int i = 0; i < attribNames.length; i++) {
+      cols[i] = osm.toDBColumnName(c, dsm.getDomainConstraint(c, attribNames[i]), false);
+      indexName.append('_').append(cols[i]);
+    }
+    indexName.append("_idx");
+
+    DataSourceToolKit.createIndexIfNotExists(table, indexName.toString(), cols);
+  }
+
+  /**
+   * @effects
+   *  return the SQL operator of <tt>op</tt>
+   *
+   *  <p>throws NotPossibleException if <tt>op</tt> is not supported
+   */
+  private static String toSQL(Op op) throws NotPossibleException {
+    switch (op) {
+      case EQ:    return "=";
+      case NOTEQ: return "<>";
+      case LT:    return "<";
+      case LTEQ:  return "<=";
+      case GT:    return ">";
+      case GTEQ:  return ">=";
+      case MATCH: return "like";
+      default:
+        throw new NotPossibleException(NotPossibleException.Code.FAIL_TO_PERFORM_REPORT,
+            new Object[] {op});
+    }
+  }
+
+  /**
+   * @effects
+   *  return the domain class of this
+   */
+  public Class<T> getDomainClass() {
+    return cls;
+  }
+
+  /**
+   * @requires
+   *  values.length = the number of attributes of this
+   * @effects
+   *  run this with the parameter values <tt>values</tt> and return the ids of the
+   *  matching objects, in the order of their ids.
+   *
+   *  <p>throws DataSourceException if failed to run the query.
+   */
+  public List<Oid> retrieveObjectOids(Object... values) throws DataSourceException {
+    checkValues(values);
+
+    List<Oid> oids = new ArrayList<>();
+    retrieve(sql, values, oids, null);
+    return oids;
+  }
+
+  /**
+   * @requires
+   *  values.length = the number of attributes of this
+   * @effects
+   *  run this with the parameter values <tt>values</tt> and return the number of the
+   *  matching objects.
+   *
+   *  <p>throws DataSourceException if failed to run the query.
+   */
+  public int count(Object... values) throws DataSourceException {
+    checkValues(values);
+
+    Connection conn = DataSourceToolKit.getConnection();
+    synchronized (conn) {
+      PreparedStatement stmt = DataSourceToolKit.prepare(countSql);
+      try {
+        bind(stmt, values);
+
+        ReportExecutor.checkCancelled();
+        ResultSet rs = stmt.executeQuery();
+        try {
+          return rs.next() ? rs.getInt(1) : 0;
+        } finally {
+          rs.close();
+        }
+      } catch (SQLException e) {
+        throw new DataSourceException(DataSourceException.Code.FAIL_TO_EXECUTE_QUERY, e,
+            new Object[] {countSql});
+      }
+    }
+  }
+
+  /**
+   * @requires
+   *  <tt>sql</tt> is {@link #sql}, {@link #offsetSql}, {@link #seekSql} or {@link #keySql} /\
+   *  <tt>params</tt> are the values of its parameters /\
+   *  (keys != null -> <tt>sql</tt> is {@link #keySql})
+   * @effects
+   *  run <tt>sql</tt> with <tt>params</tt> and add the ids that it selects (in order) to
+   *  <tt>oids</tt> and, if <tt>keys != null</tt>, their keys to <tt>keys</tt>
+   */
+  private void retrieve(String sql, Object[] params, List<Oid> oids, List<Object> keys)
+      throws DataSourceException {
+    DOMBasic dom = QRM.getInstance().getDom();
+
+    Connection conn = DataSourceToolKit.getConnection();
+    synchronized (conn) {
+      PreparedStatement stmt = DataSourceToolKit.prepare(sql);
+      try {
+        bind(stmt, params);
+
+        ReportExecutor.checkCancelled();
+        ResultSet rs = stmt.executeQuery();
+        try {
+          while (rs.next()) {
+            oids.add(dom.genObjectId(cls, idAttrib, (Comparable) rs.getObject(1)));
+            if (keys != null) {
+              keys.add(rs.getObject(2));
+            }
+          }
+        } finally {
+          rs.close();
+        }
+      } catch (SQLException e) {
+        throw new DataSourceException(DataSourceException.Code.FAIL_TO_EXECUTE_QUERY, e,
+            new Object[] {sql});
+      }
+    }
+  }
+
+  /**
+   * @requires
+   *  values.length = the number of attributes of this
+   * @effects
+   *  run this with the parameter values <tt>values</tt> and write the matching objects
+   *  (in the order of their ids) to <tt>file</tt> as CSV, one row per object, after a
+   *  header row of the names of their serialisable attributes. Return the number of
+   *  objects written.
+   *
+   *  <p>The rows are written to the file as they are read from the data source cursor (see
+   *  {@link CsvWriter}), so neither the objects nor the result are kept in memory, however
+   *  many objects match. The id and a domain-typed attribute are written as domain ids
+   *  (e.g. <tt>SO1024</tt>, see {@link DomainId}) and a money amount as a major amount
+   *  (see {@link Money#format(long)}).
+   *
+   *  <p>The rows are read on a connection of their own (see
+   *  {@link DataSourceToolKit#openConnection()}), so the shared connection is not held while
+   *  the file is written.
+   *
+   *  <p>throws DataSourceException if failed to run the query; NotPossibleException if
+   *  failed to write the file.
+   */
+  public long exportCsv(Path file, Object... values) throws DataSourceException, NotPossibleException {
+    checkValues(values);
+
+    String exportSql = getExportSql();
+
+    try (Connection conn = DataSourceToolKit.openConnection();
+        PreparedStatement stmt = conn.prepareStatement(exportSql);
+        CsvWriter out = new CsvWriter(file)) {
+      bind(stmt, values);
+      stmt.setFetchSize(CsvWriter.BUFFER_SIZE / 256);
+
+      out.writeRow((Object[]) exportAttribNames);
+
+      int numCols = exportAttribNames.length;
+      ResultSet rs = stmt.executeQuery();
+      try {
+        while (rs.next()) {
+          for (int i = 0; i < numCols; i++) {
+            Object val = rs.getObject(i + 1);
+            if (val instanceof Number) {
+              if (exportIdPrefixes[i] != null) {
+                val = DomainId.format(exportIdPrefixes[i], ((Number) val).longValue());
+              } else if (exportMoney[i]) {
+                val = Money.format(((Number) val).longValue());
+              }
+            }
+            out.writeField(val);
+          }
+          out.endRow();
+        }
+      } finally {
+        rs.close();
+      }
+
+      // not counting the header
+      return out.getNumRows() - 1;
+    } catch (SQLException e) {
+      throw new DataSourceException(DataSourceException.Code.FAIL_TO_EXECUTE_QUERY, e,
+          new Object[] {exportSql});
+    } catch (IOException e) {
+      throw new NotPossibleException(NotPossibleException.Code.FAIL_TO_WRITE_TO_FILE, e,
+          new Object[] {file});
+    }
+  }
+
+  /**
+   * @effects
+   *  return the SQL that selects the serialisable columns of the objects that match this,
+   *  creating it (and {@link #exportAttribNames}) if this has not been done before
+   */
+  private synchronized String getExportSql() throws NotPossibleException {
+    if (exportSql == null) {
+      DOMBasic dom = QRM.getInstance().getDom();
+      DSMBasic dsm = dom.getDsm();
+      RelationalOSMBasic osm = (RelationalOSMBasic) dom.getOsm();
+
+      Map<Field, DAttr> attribs;
+      try {
+        attribs = dsm.getSerialisableAttributes(cls);
+      } catch (NotFoundException e) {
+        throw new NotPossibleException(NotPossibleException.Code.FAIL_TO_PERFORM_REPORT, e,
+            new Object[] {cls});
+      }
+
+      String[] names = new String[attribs.size()];
+      String[] idPrefixes = new String[names.length];
+      boolean[] money = new boolean[names.length];
+      StringBuilder select = new StringBuilder("select ");
+      int i = 0;
+      for (DAttr attrib : attribs.values()) {
+        if (i > 0) {
+          select.append(", ");
+        }
+        select.append(alias).append(osm.toDBColumnName(cls, attrib, false));
+        names[i] = attrib.name();
+
+        if (attrib.id()) {
+          idPrefixes[i] = getIdPrefix(cls);
+        } else if (attrib.type() == DAttr.Type.Domain) {
+          idPrefixes[i] = getIdPrefix(dsm.getDomainClassFor(cls, attrib));
+        } else {
+          // amounts are the Long attributes (see Money)
+          money[i] = attrib.type() == DAttr.Type.Long;
+        }
+        i++;
+      }
+
+      exportAttribNames = names;
+      exportIdPrefixes = idPrefixes;
+      exportMoney = money;
+      exportSql = select.append(fromWhere).append(" order by ").append(idCol).toString();
+    }
+
+    return exportSql;
+  }
+
+  /**
+   * @effects
+   *  return the id prefix of domain class <tt>c</tt> (its <tt>ID_PREFIX</tt> constant, see
+   *  {@link DomainId}), or <tt>null</tt> if it has none
+   */
+  private static String getIdPrefix(Class<?> c) {
+    try {
+      Field f = c.getField("ID_PREFIX");
+      if (!Modifier.isStatic(f.getModifiers())) {
+        return null;
+      }
+      Object prefix = f.get(null);
+      return (prefix instanceof String) ? (String) prefix : null;
+    } catch (NoSuchFieldException | IllegalAccessException e) {
+      return null;
+    }
+  }
+
+  /**
+   * @effects
+   *  if values.length is not the number of attributes of this
+   *    throw IllegalArgumentException
+   */
+  private void checkValues(Object[] values) {
+    if (values.length != numParams) {
+      throw new IllegalArgumentException("ReportQuery: expected " + numParams
+          + " value(s) but got " + values.length);
+    }
+  }
+
+  /**
+   * @effects
+   *  bind <tt>values</tt> to the parameters of <tt>stmt</tt>
+   */
+  private static void bind(PreparedStatement stmt, Object[] values) throws SQLException {
+    for (int i = 0; i < values.length; i++) {
+      stmt.setObject(i + 1, toSQLValue(values[i]));
+    }
+  }
+
+  /**
+   * @effects
+   *  return the value that is bound to a parameter for <tt>val</tt>: a <tt>java.sql.Date</tt>
+   *  if <tt>val</tt> is a <tt>java.util.Date</tt>, or <tt>val</tt> otherwise
+   */
+  private static Object toSQLValue(Object val) {
+    if (val instanceof java.util.Date && !(val instanceof java.sql.Date)) {
+      return new java.sql.Date(((java.util.Date) val).getTime());
+    } else {
+      return val;
+    }
+  }
+
+  /**
+   * @requires
+   *  values.length = the number of attributes of this
+   * @effects
+   *  run this with the parameter values <tt>values</tt> and return the matching objects
+   *  (in the order of their ids), or <tt>null</tt> if there are none.
+   *
+   *  <p>throws DataSourceException if failed to run the query or to load the objects.
+   */
+  public Map<Oid, T> retrieveObjects(Object... values) throws DataSourceException {
+    Collection<Oid> oids = retrieveObjectOids(values);
+
+    if (oids.isEmpty()) {
+      return null;
+    }
+
+    return QRM.getInstance().getDom().retrieveObjects(cls, oids, null);
+  }
+
+  /**
+   * @requires
+   *  values.length = the number of attributes of this
+   * @effects
+   *  run this with the parameter values <tt>values</tt> and return the matching objects
+   *  (in the order of their ids) as a result whose objects are loaded a page at a time
+   *  when accessed, or <tt>null</tt> if there are none.
+   *
+   *  <p>The matching objects are counted first. If there are no more than
+   *  {@link PagedResult#MAX_KEYED} of them, their ids are selected at once, together with
+   *  their keys (the values of the first attribute of this), so that the result can be
+   *  narrowed (see {@link PagedResult#narrow(java.util.function.Predicate)}). Otherwise the
+   *  ids of each page are selected when the page is loaded: after the last id of the
+   *  previous page if it is known (so that the data source seeks to it in the id order), or
+   *  else from the offset of the page.
+   *
+   *  <p>throws DataSourceException if failed to run the query.
+   */
+  public PagedResult<T> retrievePaged(Object... values) throws DataSourceException {
+    int size = count(values);
+
+    if (size == 0) {
+      return null;
+    }
+
+    if (size <= PagedResult.MAX_KEYED) {
+      List<Oid> oids = new ArrayList<>(size);
+      List<Object> keys = new ArrayList<>(size);
+      retrieve(keySql, values, oids, keys);
+      return oids.isEmpty() ? null : new PagedResult<>(cls, oids, keys);
+    }
+
+    return new PagedResult<>(cls, size, new QueryPages(values.clone()));
+  }
+
+  /**
+   * @overview
+   *  The pages of the objects that match this with some parameter values.
+   */
+  private class QueryPages implements PagedResult.PageSource {
+    private final Object[] values;
+
+    QueryPages(Object[] values) {
+      this.values = values;
+    }
+
+    @Override
+    public int count() throws DataSourceException {
+      return ReportQuery.this.count(values);
+    }
+
+    @Override
+    public List<Oid> fetch(int offset, int limit, Oid after) throws DataSourceException {
+      Object[] params = Arrays.copyOf(values, values.length + 2);
+      if (after != null) {
+        params[values.length] = after.getIdValue(0);
+      } else {
+        params[values.length] = offset;
+      }
+      params[values.length + 1] = limit;
+
+      List<Oid> oids = new ArrayList<>(limit);
+      retrieve((after != null) ? seekSql : offsetSql, params, oids, null);
+      return oids;
+    }
+
+    @Override
+    public void remove(Oid oid) {
+      // not selected again: its row has been deleted
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "ReportQuery(" + sql + ")";
+  }
+}
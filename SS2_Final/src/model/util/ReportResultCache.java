@@ -0,0 +1,416 @@
+package model.util;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+import domainapp.basics.core.dodm.dsm.DSMBasic;
+import domainapp.basics.core.dodm.qrm.QRM;
+import domainapp.basics.exceptions.DataSourceException;
+import domainapp.basics.model.meta.DAttr;
+import domainapp.basics.util.events.ChangeEvent;
+import domainapp.basics.util.events.ChangeEventSource;
+import domainapp.basics.util.events.ChangeListener;
+
+/**
+ * @overview
+ *  A bounded (least-recently-used) cache of report results, keyed by the report class and
+ *  the report input.
+ *
+ *  <p>Each result depends on the domain classes that the report queries (e.g.
+ *  <tt>Customer</tt>). Every such class has a version number, which is incremented whenever
+ *  an object of the class is created, updated or deleted (this cache listens to the changes
+ *  of the class in the object pool). A cached result is only used if none of the classes that it
+ *  depends on has changed since the result was computed; otherwise the result is discarded
+ *  and re-computed.
+ *
+ *  <p>Objects that are loaded into the object pool are also reported by the pool as "new".
+ *  These do not change the data source, so they do not change the version of their class:
+ *  a "new" object only does if it was created by this run (see
+ *  {@link IdAllocator#isAllocated(Class, long)}). Thus loading the objects of a result (e.g.
+ *  a page of it) does not invalidate it.
+ *
+ *  <p>A report whose input is typed in (e.g. a name that is searched as it is typed) may
+ *  also have its result narrowed from the previous result of the report, without running
+ *  the report query again, when the new input refines the previous one (see
+ *  {@link #retrieveNarrowing(Class, Object, Loader, Predicate, Predicate, Class...)}).
+ *
+ *  <p>The maximum number of results is given by the system property
+ *  <tt>coffee.reportCacheSize</tt> (default: 256).
+ *
+ * @version 1.0
+ */
+public class ReportResultCache {
+
+  /** the maximum number of cached results */
+  public static final int MAX_SIZE = Math.max(1, Integer.getInteger("coffee.reportCacheSize", 256));
+
+  /**
+   * @overview
+   *  Compute a report result.
+   */
+  public static interface Loader<V> {
+    /**
+     * @effects
+     *  compute and return the result
+     *
+     *  <p>throws DataSourceException if failed to read from the data source
+     */
+    V load() throws DataSourceException;
+  }
+
+  /** the cached results, in least-recently-used order */
+  private static final Map<Key, CachedResult> cache = new LinkedHashMap<Key, CachedResult>(16, .75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Key, CachedResult> eldest) {
+      if (size() > MAX_SIZE) {
+        evictions.incrementAndGet();
+        return true;
+      } else {
+        return false;
+      }
+    }
+  };
+
+  /** the key of the result that was last returned for each report class */
+  private static final Map<Class<?>, Key> lastKeys = new HashMap<>();
+
+  /** the version numbers of the queried domain classes */
+  private static final ConcurrentMap<Class<?>, AtomicLong> versions = new ConcurrentHashMap<>();
+
+  private static final AtomicLong hits = new AtomicLong();
+  private static final AtomicLong misses = new AtomicLong();
+  private static final AtomicLong evictions = new AtomicLong();
+  private static final AtomicLong invalidations = new AtomicLong();
+  private static final AtomicLong narrowings = new AtomicLong();
+
+  private ReportResultCache() {
+    // no instances
+  }
+
+  /**
+   * @requires
+   *  queriedClasses.length > 0
+   * @effects
+   *  if a result of report <tt>reportCls</tt> for <tt>input</tt> is cached and none of
+   *  <tt>queriedClasses</tt> has changed since it was computed
+   *    return it
+   *  else
+   *    compute the result using <tt>loader</tt>, cache it and return it.
+   *
+   *  <p>throws DataSourceException if <tt>loader</tt> failed.
+   */
+  public static <V> V retrieve(Class<?> reportCls, Object input, Loader<V> loader, Class<?>... queriedClasses)
+      throws DataSourceException {
+    if (!DataSourceToolKit.isAvailable()) {
+      // changes can not be tracked
+      return loader.load();
+    }
+
+    Key key = new Key(reportCls, input);
+
+    synchronized (cache) {
+      CachedResult e = cache.get(key);
+      if (e != null) {
+        if (e.isValid(queriedClasses)) {
+          hits.incrementAndGet();
+          lastKeys.put(reportCls, key);
+          @SuppressWarnings("unchecked")
+          V result = (V) e.result;
+          return result;
+        } else {
+          cache.remove(key);
+          invalidations.incrementAndGet();
+        }
+      }
+    }
+
+    misses.incrementAndGet();
+
+    // read the versions before computing the result, so that any change made
+    // while it is being computed invalidates it
+    long[] vers = new long[queriedClasses.length];
+    for (int i = 0; i < queriedClasses.length; i++) {
+      vers[i] = versionOf(queriedClasses[i]).get();
+    }
+
+    V result = loader.load();
+
+    synchronized (cache) {
+      cache.put(key, new CachedResult(result, vers));
+      lastKeys.put(reportCls, key);
+    }
+
+    return result;
+  }
+
+  /**
+   * @requires
+   *  queriedClasses.length > 0
+   * @effects
+   *  same as {@link #retrieve(Class, Object, Loader, Class...)}, except that if the result
+   *  is not cached and the result that was last returned for report <tt>reportCls</tt>
+   *  is still valid and its input <tt>prevInput</tt> satisfies <tt>refines</tt> (i.e. the
+   *  objects that match <tt>input</tt> are among those that match <tt>prevInput</tt>)
+   *    the result is computed by narrowing that result to the objects whose keys satisfy
+   *    <tt>matches</tt>, without using <tt>loader</tt>.
+   *
+   *  <p>throws DataSourceException if <tt>loader</tt> failed.
+   */
+  public static <T> PagedResult<T> retrieveNarrowing(final Class<?> reportCls, Object input,
+      final Loader<PagedResult<T>> loader, final Predicate<Object> refines,
+      final Predicate<Object> matches, final Class<?>... queriedClasses) throws DataSourceException {
+    return retrieve(reportCls, input, () -> {
+      Object prevResult = null;
+      boolean narrowable = false;
+
+      synchronized (cache) {
+        Key prevKey = lastKeys.get(reportCls);
+        CachedResult prev = (prevKey != null) ? cache.get(prevKey) : null;
+        if (prev != null && prev.isValid(queriedClasses) && refines.test(prevKey.input)) {
+          prevResult = prev.result;
+          narrowable = (prevResult == null) || ((PagedResult) prevResult).isNarrowable();
+        }
+      }
+
+      if (!narrowable) {
+        return loader.load();
+      }
+
+      narrowings.incrementAndGet();
+
+      if (prevResult == null) {
+        // nothing matched the previous input
+        return null;
+      }
+
+      @SuppressWarnings("unchecked")
+      PagedResult<T> prevPaged = (PagedResult<T>) prevResult;
+      return prevPaged.narrow(matches);
+    }, queriedClasses);
+  }
+
+  /**
+   * @effects
+   *  start listening to the changes of <tt>classes</tt> in the object pool, if this has not
+   *  been done before.
+   *
+   *  <p>A report whose result is computed on another thread (see {@link ReportExecutor})
+   *  invokes this with its queried classes on the calling thread first, so that the object
+   *  pool is not used on the other thread.
+   */
+  public static void watch(Class<?>... classes) {
+    for (Class<?> c : classes) {
+      versionOf(c);
+    }
+  }
+
+  /**
+   * @effects
+   *  return the version number of <tt>c</tt>, starting to listen to the changes of
+   *  <tt>c</tt> if this has not been done before
+   */
+  private static AtomicLong versionOf(final Class<?> c) {
+    AtomicLong ver = versions.get(c);
+    if (ver == null) {
+      AtomicLong newVer = new AtomicLong();
+      ver = versions.putIfAbsent(c, newVer);
+      if (ver == null) {
+        ver = newVer;
+        QRM.getInstance().getDom().addChangeListener(c, new ChangeListener() {
+          @Override
+          public void stateChanged(ChangeEvent e) {
+            ChangeEventSource src = (ChangeEventSource) e.getSource();
+            // objects that are loaded into the pool are reported as new
+            if (!src.isAddNew() || containsCreated(c, src.getObjects())) {
+              invalidate(c);
+            }
+          }
+        });
+      }
+    }
+
+    return ver;
+  }
+
+  /**
+   * @effects
+   *  if any of <tt>objects</tt> (of class <tt>c</tt>) was created by this run, rather than
+   *  loaded from the data source
+   *    return true
+   *  else
+   *    return false
+   */
+  private static boolean containsCreated(Class<?> c, List<?> objects) {
+    DSMBasic dsm = QRM.getInstance().getDom().getDsm();
+    DAttr idAttrib = dsm.getIDDomainConstraints(c).get(0);
+
+    for (Object o : objects) {
+      Object id = dsm.getAttributeValue(o, idAttrib.name());
+      if (!(id instanceof Number) || IdAllocator.isAllocated(c, ((Number) id).longValue())) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * @effects
+   *  mark all the cached results that depend on <tt>c</tt> as invalid
+   */
+  public static void invalidate(Class<?> c) {
+    AtomicLong ver = versions.get(c);
+    if (ver != null) {
+      ver.incrementAndGet();
+    }
+  }
+
+  /**
+   * @effects
+   *  remove all cached results
+   */
+  public static void clear() {
+    synchronized (cache) {
+      cache.clear();
+      lastKeys.clear();
+    }
+  }
+
+  /**
+   * @effects
+   *  return the number of cached results
+   */
+  public static int size() {
+    synchronized (cache) {
+      return cache.size();
+    }
+  }
+
+  /**
+   * @effects
+   *  return the number of results that were returned from this
+   */
+  public static long getHitCount() {
+    return hits.get();
+  }
+
+  /**
+   * @effects
+   *  return the number of results that were computed
+   */
+  public static long getMissCount() {
+    return misses.get();
+  }
+
+  /**
+   * @effects
+   *  return the number of results that were removed because they were the least recently used
+   */
+  public static long getEvictionCount() {
+    return evictions.get();
+  }
+
+  /**
+   * @effects
+   *  return the number of results that were removed because a queried class had changed
+   */
+  public static long getInvalidationCount() {
+    return invalidations.get();
+  }
+
+  /**
+   * @effects
+   *  return the number of results (counted as misses) that were narrowed from a previous
+   *  result rather than computed by a report query
+   */
+  public static long getNarrowingCount() {
+    return narrowings.get();
+  }
+
+  /**
+   * @effects
+   *  return <tt>hits / (hits + misses)</tt>, or <tt>0</tt> if no result has been requested
+   */
+  public static double getHitRatio() {
+    long h = hits.get();
+    long total = h + misses.get();
+    return (total == 0) ? 0 : (double) h / total;
+  }
+
+  /**
+   * @effects
+   *  return a string of the statistics of this
+   */
+  public static String getStats() {
+    return "ReportResultCache(size=" + size() + ", hits=" + hits.get() + ", misses=" + misses.get()
+        + ", evictions=" + evictions.get() + ", invalidations=" + invalidations.get()
+        + ", narrowings=" + narrowings.get() + ")";
+  }
+
+  /**
+   * @overview
+   *  The key of a cached result.
+   */
+  private static final class Key {
+    private final Class<?> reportCls;
+    private final Object input;
+
+    Key(Class<?> reportCls, Object input) {
+      this.reportCls = reportCls;
+      this.input = input;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o)
+        return true;
+      if (!(o instanceof Key))
+        return false;
+      Key other = (Key) o;
+      return reportCls == other.reportCls && Objects.deepEquals(input, other.input);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * reportCls.hashCode() + Arrays.deepHashCode(new Object[] {input});
+    }
+  }
+
+  /**
+   * @overview
+   *  A cached result, together with the versions of the queried classes when it was computed.
+   */
+  private static final class CachedResult {
+    private final Object result;
+    private final long[] versions;
+
+    CachedResult(Object result, long[] versions) {
+      this.result = result;
+      this.versions = versions;
+    }
+
+    /**
+     * @effects
+     *  if none of <tt>classes</tt> has changed since this was computed
+     *    return true
+     *  else
+     *    return false
+     */
+    boolean isValid(Class<?>[] classes) {
+      for (int i = 0; i < classes.length; i++) {
+        if (versionOf(classes[i]).get() != versions[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
@@ -0,0 +1,431 @@
+package model.util;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import domainapp.basics.core.dodm.dom.DOMBasic;
+import domainapp.basics.core.dodm.dsm.DSMBasic;
+import domainapp.basics.core.dodm.osm.relational.RelationalOSMBasic;
+import domainapp.basics.core.dodm.qrm.QRM;
+import domainapp.basics.exceptions.DataSourceException;
+import domainapp.basics.exceptions.NotPossibleException;
+import model.SaleOrder;
+
+/**
+ * @overview
+ *  A batch job that computes the recency (days since the last order), frequency (number
+ *  of orders) and monetary value (total price of the orders) of every customer that has
+ *  sale orders, scores each of them from 1 to {@link #SCORES} relative to the other
+ *  customers (quintiles) and writes a {@link Segment} per customer into its own table
+ *  (<tt>CustomerSegment</tt>), replacing the result of the previous run.
+ *
+ *  <p>The orders are read in one streaming pass, sorted by customer, into parallel primitive
+ *  arrays. The arrays are split into partitions at customer boundaries, which are
+ *  aggregated in parallel on the common fork/join pool: as no customer spans two
+ *  partitions, the partition results are simply concatenated. The segments are written in
+ *  JDBC batches in a single transaction.
+ *
+ * @version 1.0
+ */
+public final class RfmJob {
+
+  /** the table of the segments */
+  public static final String TABLE = "CustomerSegment";
+
+  /** the highest score */
+  public static final int SCORES = 5;
+
+  private static final String SQL_CREATE = "create table " + TABLE + " ("
+      + "customerId bigint primary key, asOf date not null, recencyDays int not null, "
+      + "frequency int not null, monetary bigint not null, rScore smallint not null, "
+      + "fScore smallint not null, mScore smallint not null, segment varchar(20) not null)";
+
+  private static final String SQL_INSERT = "insert into " + TABLE
+      + " (customerId, asOf, recencyDays, frequency, monetary, rScore, fScore, mScore, segment)"
+      + " values (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+  /** the number of runs of this */
+  private static final AtomicLong runCount = new AtomicLong();
+
+  /**
+   * @overview
+   *  A customer segment, given by the recency and frequency scores of the customer.
+   */
+  public static enum Segment {
+    /** ordered recently and often */
+    CHAMPIONS,
+    /** orders often */
+    LOYAL,
+    /** ordered recently, but not often */
+    NEW,
+    /** has not ordered for some time, and not often */
+    NEEDS_ATTENTION,
+    /** used to order often, but has not for a long time */
+    AT_RISK,
+    /** has not ordered for a long time, and rarely did */
+    LOST;
+
+    /**
+     * @requires
+     *  1 <= r, f <= {@link RfmJob#SCORES}
+     * @effects
+     *  return the segment of the recency and frequency scores <tt>r, f</tt>
+     */
+    public static Segment of(int r, int f) {
+      if (r >= 4) {
+        return (f >= 4) ? CHAMPIONS : (f >= 3) ? LOYAL : NEW;
+      } else if (r == 3) {
+        return (f >= 3) ? LOYAL : NEEDS_ATTENTION;
+      } else {
+        return (f >= 3) ? AT_RISK : LOST;
+      }
+    }
+  }
+
+  /**
+   * @overview
+   *  The sale orders (customer id, date as an epoch day, total price), sorted by customer.
+   */
+  private static final class Orders {
+    private int size;
+    private long[] customerIds = new long[1024];
+    private long[] days = new long[1024];
+    private long[] totals = new long[1024];
+
+    private void add(long customerId, long day, long total) {
+      if (size == customerIds.length) {
+        int cap = size * 2;
+        customerIds = Arrays.copyOf(customerIds, cap);
+        days = Arrays.copyOf(days, cap);
+        totals = Arrays.copyOf(totals, cap);
+      }
+
+      customerIds[size] = customerId;
+      days[size] = day;
+      totals[size] = total;
+      size++;
+    }
+  }
+
+  /**
+   * @overview
+   *  The recency, frequency and monetary value of the customers of a partition, in the
+   *  order of the customers.
+   */
+  private static final class Rfm {
+    private final long[] customerIds;
+    private final int[] recencies;
+    private final int[] frequencies;
+    private final long[] monetaries;
+    private int size;
+
+    private Rfm(int capacity) {
+      customerIds = new long[capacity];
+      recencies = new int[capacity];
+      frequencies = new int[capacity];
+      monetaries = new long[capacity];
+    }
+  }
+
+  private RfmJob() {
+    // no instances
+  }
+
+  /**
+   * @effects
+   *  compute the segments of the customers from their sale orders up to <tt>asOf</tt> and
+   *  replace the content of the segment table with them; return the number of customers
+   *  segmented
+   *
+   *  <p>throws NotPossibleException if failed to generate the data source queries;
+   *  DataSourceException if failed to read the orders or write the segments, in which case
+   *  the segments of the previous run are kept.
+   */
+  public static synchronized int run(Date asOf) throws NotPossibleException, DataSourceException {
+    long asOfDay = toDay(asOf);
+
+    Orders orders = readOrders(asOf);
+    Rfm rfm = aggregate(orders, asOfDay);
+
+    // the scores: the higher the better (the lower the recency, the better)
+    int n = rfm.size;
+    long[] rs = new long[n], fs = new long[n], ms = new long[n];
+    for (int i = 0; i < n; i++) {
+      rs[i] = -rfm.recencies[i];
+      fs[i] = rfm.frequencies[i];
+      ms[i] = rfm.monetaries[i];
+    }
+    long[] rSorted = rs.clone(), fSorted = fs.clone(), mSorted = ms.clone();
+    Arrays.parallelSort(rSorted);
+    Arrays.parallelSort(fSorted);
+    Arrays.parallelSort(mSorted);
+
+    write(rfm, new java.sql.Date(asOf.getTime()), rs, fs, ms, rSorted, fSorted, mSorted);
+
+    runCount.incrementAndGet();
+    return n;
+  }
+
+  /**
+   * @effects
+   *  return whether the segment table exists and has any segment
+   *
+   *  <p>throws DataSourceException if failed to read the data source
+   */
+  public static boolean hasSegments() throws DataSourceException {
+    Connection conn = DataSourceToolKit.getConnection();
+    synchronized (conn) {
+      DataSourceToolKit.createTableIfNotExists(TABLE, SQL_CREATE);
+
+      String sql = "select count(*) from " + TABLE;
+      try {
+        ResultSet rs = DataSourceToolKit.prepare(sql).executeQuery();
+        try {
+          return rs.next() && rs.getLong(1) > 0;
+        } finally {
+          rs.close();
+        }
+      } catch (SQLException e) {
+        throw new DataSourceException(DataSourceException.Code.FAIL_TO_EXECUTE_QUERY, e,
+            new Object[] {sql});
+      }
+    }
+  }
+
+  /**
+   * @effects
+   *  return the number of runs of this
+   */
+  public static long getRunCount() {
+    return runCount.get();
+  }
+
+  /**
+   * @effects
+   *  return the sale orders up to <tt>asOf</tt>, sorted by customer
+   */
+  private static Orders readOrders(Date asOf) throws NotPossibleException, DataSourceException {
+    ReportQuery.createIndex(SaleOrder.class, SaleOrder.SO_cus);
+
+    DOMBasic dom = QRM.getInstance().getDom();
+    DSMBasic dsm = dom.getDsm();
+    RelationalOSMBasic osm = (RelationalOSMBasic) dom.getOsm();
+
+    String customerCol = osm.toDBColumnName(SaleOrder.class,
+        dsm.getDomainConstraint(SaleOrder.class, SaleOrder.SO_cus), false);
+    String dateCol = osm.toDBColumnName(SaleOrder.class,
+        dsm.getDomainConstraint(SaleOrder.class, SaleOrder.SO_date), false);
+    String totalCol = osm.toDBColumnName(SaleOrder.class,
+        dsm.getDomainConstraint(SaleOrder.class, SaleOrder.SO_totalPrice), false);
+
+    String sql = "select " + customerCol + ", " + dateCol + ", " + totalCol
+        + " from " + dsm.getDomainClassName(SaleOrder.class)
+        + " where " + dateCol + " <= ?"
+        + " order by " + customerCol;
+
+    Orders orders = new Orders();
+
+    Connection conn = DataSourceToolKit.getConnection();
+    synchronized (conn) {
+      PreparedStatement stmt = DataSourceToolKit.prepare(sql);
+      try {
+        stmt.setDate(1, new java.sql.Date(asOf.getTime()));
+
+        ResultSet rs = stmt.executeQuery();
+        try {
+          while (rs.next()) {
+            orders.add(rs.getLong(1), toDay(rs.getDate(2)), rs.getLong(3));
+          }
+        } finally {
+          rs.close();
+        }
+      } catch (SQLException e) {
+        throw new DataSourceException(DataSourceException.Code.FAIL_TO_EXECUTE_QUERY, e,
+            new Object[] {sql});
+      }
+    }
+
+    return orders;
+  }
+
+  /**
+   * @effects
+   *  return the recency (relative to <tt>asOfDay</tt>), frequency and monetary value of the
+   *  customers of <tt>orders</tt>, computed in parallel over partitions of the orders
+   */
+  private static Rfm aggregate(final Orders orders, final long asOfDay) {
+    // partition boundaries, moved forward to the start of a customer
+    int parts = Math.max(1, Math.min(orders.size / 1024, 4 * Runtime.getRuntime().availableProcessors()));
+    List<int[]> ranges = new ArrayList<>(parts);
+    int start = 0;
+    for (int p = 1; p <= parts && start < orders.size; p++) {
+      int end = (p == parts) ? orders.size : (int) ((long) orders.size * p / parts);
+      while (end > start && end < orders.size && orders.customerIds[end] == orders.customerIds[end - 1]) {
+        end++;
+      }
+      if (end > start) {
+        ranges.add(new int[] {start, end});
+        start = end;
+      }
+    }
+
+    List<Rfm> results = ranges.parallelStream()
+        .map(r -> aggregate(orders, r[0], r[1], asOfDay))
+        .collect(Collectors.toList());
+
+    int n = 0;
+    for (Rfm r : results) {
+      n += r.size;
+    }
+
+    Rfm all = new Rfm(n);
+    for (Rfm r : results) {
+      System.arraycopy(r.customerIds, 0, all.customerIds, all.size, r.size);
+      System.arraycopy(r.recencies, 0, all.recencies, all.size, r.size);
+      System.arraycopy(r.frequencies, 0, all.frequencies, all.size, r.size);
+      System.arraycopy(r.monetaries, 0, all.monetaries, all.size, r.size);
+      all.size += r.size;
+    }
+
+    return all;
+  }
+
+  /**
+   * @requires
+   *  no customer has orders both in and out of <tt>[from, to)</tt>
+   * @effects
+   *  return the recency, frequency and monetary value of the customers of the orders
+   *  <tt>[from, to)</tt>
+   */
+  private static Rfm aggregate(Orders orders, int from, int to, long asOfDay) {
+    Rfm rfm = new Rfm(to - from);
+
+    int i = from;
+    while (i < to) {
+      long customerId = orders.customerIds[i];
+      long lastDay = Long.MIN_VALUE;
+      int frequency = 0;
+      long monetary = 0;
+      for (; i < to && orders.customerIds[i] == customerId; i++) {
+        lastDay = Math.max(lastDay, orders.days[i]);
+        frequency++;
+        monetary = Money.plus(monetary, orders.totals[i]);
+      }
+
+      int c = rfm.size++;
+      rfm.customerIds[c] = customerId;
+      rfm.recencies[c] = (int) Math.max(0, asOfDay - lastDay);
+      rfm.frequencies[c] = frequency;
+      rfm.monetaries[c] = monetary;
+    }
+
+    return rfm;
+  }
+
+  /**
+   * @effects
+   *  replace the content of the segment table with the segments of the customers of
+   *  <tt>rfm</tt>, whose score values are <tt>rs, fs, ms</tt> and whose sorted score values
+   *  are <tt>rSorted, fSorted, mSorted</tt>
+   */
+  private static void write(Rfm rfm, java.sql.Date asOf, long[] rs, long[] fs, long[] ms,
+      long[] rSorted, long[] fSorted, long[] mSorted) throws DataSourceException {
+    Connection conn = DataSourceToolKit.getConnection();
+    synchronized (conn) {
+      DataSourceToolKit.createTableIfNotExists(TABLE, SQL_CREATE);
+
+      try {
+        conn.setAutoCommit(false);
+        try {
+          Statement delete = conn.createStatement();
+          try {
+            delete.executeUpdate("delete from " + TABLE);
+          } finally {
+            delete.close();
+          }
+
+          PreparedStatement stmt = conn.prepareStatement(SQL_INSERT);
+          try {
+            int pending = 0;
+            for (int i = 0; i < rfm.size; i++) {
+              int r = score(rSorted, rs[i]);
+              int f = score(fSorted, fs[i]);
+              int m = score(mSorted, ms[i]);
+
+              stmt.setLong(1, rfm.customerIds[i]);
+              stmt.setDate(2, asOf);
+              stmt.setInt(3, rfm.recencies[i]);
+              stmt.setInt(4, rfm.frequencies[i]);
+              stmt.setLong(5, rfm.monetaries[i]);
+              stmt.setShort(6, (short) r);
+              stmt.setShort(7, (short) f);
+              stmt.setShort(8, (short) m);
+              stmt.setString(9, Segment.of(r, f).name());
+              stmt.addBatch();
+
+              if (++pending == OrderBatchWriter.BATCH_SIZE) {
+                stmt.executeBatch();
+                pending = 0;
+              }
+            }
+
+            if (pending > 0) {
+              stmt.executeBatch();
+            }
+          } finally {
+            stmt.close();
+          }
+
+          conn.commit();
+        } catch (SQLException e) {
+          DataSourceToolKit.rollbackQuietly(conn);
+          throw e;
+        } finally {
+          conn.setAutoCommit(true);
+        }
+      } catch (SQLException e) {
+        throw new DataSourceException(DataSourceException.Code.FAIL_TO_INSERT_OBJECT, e,
+            new Object[] {TABLE, rfm.size});
+      }
+    }
+  }
+
+  /**
+   * @requires
+   *  <tt>sorted</tt> is sorted in ascending order /\ <tt>v</tt> is in <tt>sorted</tt>
+   * @effects
+   *  return the score (from 1 to {@link #SCORES}) of <tt>v</tt>, given by the fraction of
+   *  the values of <tt>sorted</tt> that are less than it (equal values get equal scores)
+   */
+  private static int score(long[] sorted, long v) {
+    // the first index of v
+    int lo = 0, hi = sorted.length;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (sorted[mid] < v) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+
+    return 1 + (int) ((long) lo * SCORES / sorted.length);
+  }
+
+  /**
+   * @effects
+   *  return the epoch day of <tt>date</tt>
+   */
+  private static long toDay(Date date) {
+    return new java.sql.Date(date.getTime()).toLocalDate().toEpochDay();
+  }
+}
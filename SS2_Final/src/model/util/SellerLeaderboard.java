@@ -0,0 +1,337 @@
+package model.util;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import domainapp.basics.core.dodm.dom.DOMBasic;
+import domainapp.basics.core.dodm.dsm.DSMBasic;
+import domainapp.basics.core.dodm.osm.relational.RelationalOSMBasic;
+import domainapp.basics.core.dodm.qrm.QRM;
+import domainapp.basics.exceptions.DataSourceException;
+import domainapp.basics.exceptions.NotPossibleException;
+import domainapp.basics.util.events.ChangeEvent;
+import domainapp.basics.util.events.ChangeEventSource;
+import domainapp.basics.util.events.ChangeListener;
+import model.DetailExOrder;
+import model.SaleOrder;
+
+/**
+ * @overview
+ *  The sales counters of each seller: the revenue, the number of sale orders and the
+ *  number of lines sold, per day and in total.
+ *
+ *  <p>The counters are not re-computed from the orders: this listens to the sale orders and
+ *  their lines that are stored in, updated in and deleted from the data source, and posts
+ *  each change, after it has been stored, to the counters. The revenue is that of the stored
+ *  lines (their quantities times their prices), as in {@link model.report.SalesRevenueReport}.
+ *  Each order and line records what this has counted for it (see
+ *  {@link SaleOrder#isSalesPosted()} and {@link DetailExOrder#getSalesOrder()}), so a change
+ *  is posted once however many events report it, and an object that is loaded from the data
+ *  source is not posted. Reading the counters of a seller therefore takes constant time.
+ *
+ *  <p>The counters are loaded from the data source (with two grouped queries) when this is
+ *  started (see {@link #start()}) by the software, once the object pool of the framework is
+ *  connected to the data source. They are loaded again when they are next read after an
+ *  order has moved to another seller or date or has been deleted (with lines that may not
+ *  all have been loaded).
+ *
+ *  <p>The counters are not stored in a table of their own: they are derived from the stored
+ *  orders and lines, which the two queries read once per start (and after the rare changes
+ *  above), whereas a table would take another write for every change of an order.
+ *
+ *  <p>If the data source is not available, this is not started and has no counters.
+ *
+ * @version 1.0
+ */
+public class SellerLeaderboard {
+
+  /** the counters of a seller: {@link #REVENUE}, {@link #ORDERS}, {@link #LINES} */
+  public static final int REVENUE = 0, ORDERS = 1, LINES = 2;
+
+  /** the counters of each seller (keyed by the seller ids) of each day (keyed by the epoch days) */
+  private static final Map<Long, Map<Long, long[]>> byDay = new HashMap<>();
+
+  /** the counters of each seller of all days */
+  private static final Map<Long, long[]> totals = new HashMap<>();
+
+  /** whether this has been started */
+  private static volatile boolean started;
+
+  /** whether the counters are out of date with the stored orders */
+  private static boolean stale;
+
+  private SellerLeaderboard() {
+    // no instances
+  }
+
+  /**
+   * @effects
+   *  if this has not been started and the data source is available
+   *    load the counters from the data source and start listening to the changes of the
+   *    sale orders and their lines
+   *
+   *  <p>throws NotPossibleException if failed to load the counters from the data source.
+   */
+  public static void start() throws NotPossibleException {
+    if (started) {
+      return;
+    }
+
+    synchronized (SellerLeaderboard.class) {
+      if (started) {
+        return;
+      }
+
+      if (!DataSourceToolKit.isAvailable()) {
+        // the object pool is not (yet) connected to the data source
+        return;
+      }
+
+      load();
+
+      ChangeListener listener = new ChangeListener() {
+        @Override
+        public void stateChanged(ChangeEvent e) {
+          post((ChangeEventSource) e.getSource());
+        }
+      };
+
+      DOMBasic dom = QRM.getInstance().getDom();
+      dom.addChangeListener(SaleOrder.class, listener);
+      dom.addChangeListener(DetailExOrder.class, listener);
+
+      started = true;
+    }
+  }
+
+  /**
+   * @effects
+   *  post to the counters the change of the orders or lines of <tt>src</tt>, which have been
+   *  stored (or loaded), updated or deleted
+   */
+  private static synchronized void post(ChangeEventSource src) {
+    boolean deleted = src.isDelete();
+
+    for (Object o : src.getObjects()) {
+      if (o instanceof SaleOrder) {
+        post((SaleOrder) o, deleted);
+      } else if (o instanceof DetailExOrder) {
+        post((DetailExOrder) o, deleted);
+      }
+    }
+  }
+
+  /**
+   * @effects
+   *  if <tt>so</tt> has not been counted (i.e. it is new)
+   *    count it under its seller and date
+   *  else if it has been deleted or moved to another seller or date
+   *    mark the counters to be loaded again (as its lines may not all have been loaded)
+   */
+  private static void post(SaleOrder so, boolean deleted) {
+    if (deleted) {
+      if (so.isSalesPosted()) {
+        stale = true;
+      }
+      so.clearSales();
+    } else if (!so.isSalesPosted()) {
+      so.clearSalesHistory();
+      if (so.isSalesPosted()) {
+        add(so.getSalesSellerId(), toDay(so.getSalesDate()), 0L, 1, 0);
+      }
+    } else if (so.getSeller() == null || so.getSeller().getId() != so.getSalesSellerId()
+        || so.getDate() == null || toDay(so.getDate()) != toDay(so.getSalesDate())) {
+      stale = true;
+      so.clearSales();
+      so.clearSalesHistory();
+    }
+  }
+
+  /**
+   * @effects
+   *  move the revenue and the line count of the sale order line <tt>d</tt> from what this has
+   *  counted for it to its current total price or, if <tt>deleted</tt>, remove them
+   */
+  private static void post(DetailExOrder d, boolean deleted) {
+    SaleOrder counted = d.getSalesOrder();
+
+    if (deleted) {
+      if (counted != null && counted.isSalesPosted()) {
+        add(counted.getSalesSellerId(), toDay(counted.getSalesDate()), -d.getSalesTotal(), 0, -1);
+      }
+      d.clearSales();
+      return;
+    }
+
+    SaleOrder so = d.getSaleOrder();
+    if (so == null || !so.isSalesPosted()) {
+      // its order is not counted yet: the line is counted with a later change
+      return;
+    }
+
+    if (counted == null) {
+      add(so.getSalesSellerId(), toDay(so.getSalesDate()), d.getTotalPrice(), 0, 1);
+    } else if (counted != so) {
+      // moved to another order
+      stale = true;
+    } else if (d.getTotalPrice() != d.getSalesTotal()) {
+      add(so.getSalesSellerId(), toDay(so.getSalesDate()),
+          Money.minus(d.getTotalPrice(), d.getSalesTotal()), 0, 0);
+    }
+    d.clearSalesHistory();
+  }
+
+  /**
+   * @effects
+   *  return (a copy of) the counters of seller <tt>sellerId</tt> on <tt>date</tt> (of all
+   *  days if <tt>date = null</tt>), all <tt>0</tt> if there are none
+   *
+   *  <p>throws NotPossibleException if failed to load the counters from the data source.
+   */
+  public static synchronized long[] getCounters(long sellerId, Date date) throws NotPossibleException {
+    start();
+    if (stale) {
+      rebuild();
+    }
+
+    Map<Long, long[]> sellers = (date != null) ? byDay.get(toDay(date)) : totals;
+    long[] c = (sellers != null) ? sellers.get(sellerId) : null;
+    return (c != null) ? c.clone() : new long[3];
+  }
+
+  /**
+   * @effects
+   *  return (a copy of) the counters of the sellers that have sales on <tt>date</tt> (on any
+   *  day if <tt>date = null</tt>), keyed by the seller ids
+   *
+   *  <p>throws NotPossibleException if failed to load the counters from the data source.
+   */
+  public static synchronized Map<Long, long[]> getSellers(Date date) throws NotPossibleException {
+    start();
+    if (stale) {
+      rebuild();
+    }
+
+    Map<Long, long[]> sellers = (date != null) ? byDay.get(toDay(date)) : totals;
+    Map<Long, long[]> result = new HashMap<>();
+    if (sellers != null) {
+      for (Map.Entry<Long, long[]> e : sellers.entrySet()) {
+        result.put(e.getKey(), e.getValue().clone());
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * @effects
+   *  discard the counters and load them again from the data source
+   *
+   *  <p>throws NotPossibleException if failed.
+   */
+  public static synchronized void rebuild() throws NotPossibleException {
+    stale = false;
+    if (DataSourceToolKit.isAvailable()) {
+      load();
+    }
+  }
+
+  /**
+   * @effects
+   *  load the counters from the sale orders and their lines in the data source
+   */
+  private static void load() throws NotPossibleException {
+    DOMBasic dom = QRM.getInstance().getDom();
+    DSMBasic dsm = dom.getDsm();
+    RelationalOSMBasic osm = (RelationalOSMBasic) dom.getOsm();
+
+    String order = dsm.getDomainClassName(SaleOrder.class);
+    String orderId = osm.toDBColumnName(SaleOrder.class,
+        dsm.getIDDomainConstraints(SaleOrder.class).get(0), false);
+    String sellerCol = osm.toDBColumnName(SaleOrder.class,
+        dsm.getDomainConstraint(SaleOrder.class, SaleOrder.SO_sell), false);
+    String dateCol = osm.toDBColumnName(SaleOrder.class,
+        dsm.getDomainConstraint(SaleOrder.class, SaleOrder.SO_date), false);
+    String lineQty = osm.toDBColumnName(DetailExOrder.class,
+        dsm.getDomainConstraint(DetailExOrder.class, "quantity"), false);
+    String linePrice = osm.toDBColumnName(DetailExOrder.class,
+        dsm.getDomainConstraint(DetailExOrder.class, "exPrice"), false);
+    String lineOrder = osm.toDBColumnName(DetailExOrder.class,
+        dsm.getDomainConstraint(DetailExOrder.class, "saleOrder"), false);
+
+    String sqlOrders = "select " + sellerCol + ", " + dateCol + ", count(*)"
+        + " from " + order
+        + " group by " + sellerCol + ", " + dateCol;
+    String sqlLines = "select o." + sellerCol + ", o." + dateCol
+        + ", sum(d." + lineQty + " * d." + linePrice + "), count(*)"
+        + " from " + dsm.getDomainClassName(DetailExOrder.class) + " d"
+        + " join " + order + " o on d." + lineOrder + " = o." + orderId
+        + " group by o." + sellerCol + ", o." + dateCol;
+
+    byDay.clear();
+    totals.clear();
+
+    String sql = sqlOrders;
+    try {
+      Connection conn = DataSourceToolKit.getConnection();
+      synchronized (conn) {
+        ResultSet rs = DataSourceToolKit.prepare(sqlOrders).executeQuery();
+        try {
+          while (rs.next()) {
+            add(rs.getLong(1), toDay(rs.getDate(2)), 0L, rs.getInt(3), 0);
+          }
+        } finally {
+          rs.close();
+        }
+
+        sql = sqlLines;
+        rs = DataSourceToolKit.prepare(sqlLines).executeQuery();
+        try {
+          while (rs.next()) {
+            add(rs.getLong(1), toDay(rs.getDate(2)), rs.getLong(3), 0, rs.getInt(4));
+          }
+        } finally {
+          rs.close();
+        }
+      }
+    } catch (SQLException | DataSourceException e) {
+      throw new NotPossibleException(NotPossibleException.Code.FAIL_TO_PERFORM_REPORT, e,
+          new Object[] {sql});
+    }
+  }
+
+  private static void add(long sellerId, long day, long revenue, int orders, int lines) {
+    Map<Long, long[]> sellers = byDay.get(day);
+    if (sellers == null) {
+      sellers = new HashMap<>();
+      byDay.put(day, sellers);
+    }
+
+    addTo(sellers, sellerId, revenue, orders, lines);
+    addTo(totals, sellerId, revenue, orders, lines);
+  }
+
+  private static void addTo(Map<Long, long[]> sellers, long sellerId, long revenue, int orders, int lines) {
+    long[] c = sellers.get(sellerId);
+    if (c == null) {
+      c = new long[3];
+      sellers.put(sellerId, c);
+    }
+
+    c[REVENUE] = Money.plus(c[REVENUE], revenue);
+    c[ORDERS] += orders;
+    c[LINES] += lines;
+  }
+
+  /**
+   * @effects
+   *  return the epoch day of <tt>date</tt>
+   */
+  private static long toDay(Date date) {
+    return new java.sql.Date(date.getTime()).toLocalDate().toEpochDay();
+  }
+}
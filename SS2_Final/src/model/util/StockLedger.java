@@ -0,0 +1,312 @@
+package model.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import domainapp.basics.core.dodm.dom.DOMBasic;
+import domainapp.basics.core.dodm.dsm.DSMBasic;
+import domainapp.basics.core.dodm.osm.relational.RelationalOSMBasic;
+import domainapp.basics.core.dodm.qrm.QRM;
+import domainapp.basics.exceptions.DataSourceException;
+import domainapp.basics.exceptions.NotPossibleException;
+import domainapp.basics.util.events.ChangeEvent;
+import domainapp.basics.util.events.ChangeEventSource;
+import domainapp.basics.util.events.ChangeListener;
+import model.DetailExOrder;
+import model.DetailImOrder;
+import model.ImportOrder;
+import model.SaleOrder;
+
+/**
+ * @overview
+ *  The stock on hand of each coffee: the total quantity of its import order lines
+ *  ({@link DetailImOrder}) minus that of its sale order lines ({@link DetailExOrder}).
+ *
+ *  <p>The stock is not re-computed from the lines: this listens to the lines that are stored
+ *  in, updated in and deleted from the data source (and to the orders that are deleted with
+ *  their lines) and posts each change of a line, after it has been stored, to the stock in
+ *  memory and in its own table (<tt>StockLedger</tt>). A line that fails to be stored is
+ *  thus never posted. Each line records what this has accounted for (see
+ *  {@link DetailExOrder#getStockQuantity()}), so a change is posted once however many events
+ *  report it, and a line that is loaded from the data source is not posted.
+ *
+ *  <p>This is started (see {@link #start()}) by the software once the object pool of the
+ *  framework is connected to the data source: the table is then created and filled from
+ *  the stored lines if it does not exist, and loaded into memory, so looking up the stock
+ *  of a coffee takes constant time.
+ *
+ *  <p>If a change fails to be posted to the table, or an order is deleted (whose lines
+ *  may not all have been loaded), the stock is re-computed from the lines (see
+ *  {@link #rebuild()}) when it is next read. The table is also marked as out of date in the
+ *  data source (see {@link LedgerTable#markStale()}), so that it is re-computed when this is
+ *  next started if this run ends first.
+ *
+ *  <p>If the data source is not available, this is not started and has no stock.
+ *
+ * @version 1.0
+ */
+public class StockLedger {
+
+  private static final String TABLE = "StockLedger";
+
+  /** the ledger table */
+  private static final LedgerTable table = new LedgerTable(TABLE, "onHand");
+
+  /** the stock on hand, keyed by the coffee ids */
+  private static final Map<Long, Long> stock = new HashMap<>();
+
+  /** whether this has been started */
+  private static volatile boolean started;
+
+  /** whether {@link #stock} is out of date with the lines (e.g. as a change failed to be posted) */
+  private static boolean stale;
+
+  private StockLedger() {
+    // no instances
+  }
+
+  /**
+   * @effects
+   *  if this has not been started and the data source is available
+   *    create the ledger table (filled from the stored lines) if it does not exist (or
+   *    re-fill it if it is marked as out of date), load the stock from it and start
+   *    listening to the changes of the lines and the orders
+   *
+   *  <p>throws NotPossibleException if failed to load the stock from the data source.
+   */
+  public static void start() throws NotPossibleException {
+    if (started) {
+      return;
+    }
+
+    synchronized (StockLedger.class) {
+      if (started) {
+        return;
+      }
+
+      if (!DataSourceToolKit.isAvailable()) {
+        // the object pool is not (yet) connected to the data source
+        return;
+      }
+
+      load();
+
+      ChangeListener listener = new ChangeListener() {
+        @Override
+        public void stateChanged(ChangeEvent e) {
+          post((ChangeEventSource) e.getSource());
+        }
+      };
+
+      DOMBasic dom = QRM.getInstance().getDom();
+      dom.addChangeListener(DetailExOrder.class, listener);
+      dom.addChangeListener(DetailImOrder.class, listener);
+      dom.addChangeListener(SaleOrder.class, listener);
+      dom.addChangeListener(ImportOrder.class, listener);
+
+      started = true;
+    }
+  }
+
+  /**
+   * @effects
+   *  post to this the change of the lines of <tt>src</tt>, which have been stored (or loaded),
+   *  updated or deleted, or of the lines of the orders of <tt>src</tt>, which have been deleted
+   */
+  private static synchronized void post(ChangeEventSource src) {
+    boolean deleted = src.isDelete();
+
+    for (Object o : src.getObjects()) {
+      if (o instanceof DetailExOrder) {
+        post((DetailExOrder) o, deleted);
+      } else if (o instanceof DetailImOrder) {
+        post((DetailImOrder) o, deleted);
+      } else if (deleted && o instanceof SaleOrder) {
+        for (DetailExOrder d : ((SaleOrder) o).getDetailExOrders()) {
+          post(d, true);
+        }
+        // the lines that were not loaded are deleted with the order, unseen
+        markStale();
+      } else if (deleted && o instanceof ImportOrder) {
+        for (DetailImOrder d : ((ImportOrder) o).getDetailImOrders()) {
+          post(d, true);
+        }
+        markStale();
+      }
+    }
+  }
+
+  /**
+   * @effects
+   *  move the stock that the sale order line <tt>d</tt> has issued from the coffee and quantity
+   *  that this has accounted for to its current ones or, if <tt>deleted</tt>, return it
+   */
+  private static void post(DetailExOrder d, boolean deleted) {
+    if (!deleted && !d.isStockChanged()) {
+      return;
+    }
+
+    adjust(d.getStockCoffeeId(), d.getStockQuantity());
+    if (deleted) {
+      d.clearStock();
+    } else {
+      adjust(d.getCoffeeId(), -d.getQuantity());
+      d.clearStockHistory();
+    }
+  }
+
+  /**
+   * @effects
+   *  move the stock that the import order line <tt>d</tt> has received from the coffee and
+   *  quantity that this has accounted for to its current ones or, if <tt>deleted</tt>, remove it
+   */
+  private static void post(DetailImOrder d, boolean deleted) {
+    if (!deleted && !d.isStockChanged()) {
+      return;
+    }
+
+    adjust(d.getStockCoffeeId(), -d.getStockQuantity());
+    if (deleted) {
+      d.clearStock();
+    } else {
+      adjust(d.getCoffeeId(), d.getQuantity());
+      d.clearStockHistory();
+    }
+  }
+
+  /**
+   * @effects
+   *  add <tt>delta</tt> to the stock of coffee <tt>coffeeId</tt> (in the data source and
+   *  in memory), unless the coffee is not set.
+   *
+   *  <p>If failed to update the data source, the stock is marked to be re-computed from the
+   *  lines when it is next read.
+   */
+  private static void adjust(long coffeeId, long delta) {
+    if (delta == 0 || coffeeId == DetailExOrder.UNSET_ID) {
+      return;
+    }
+
+    stock.merge(coffeeId, delta, Long::sum);
+
+    if (!stale) {
+      try {
+        table.add(coffeeId, delta);
+      } catch (DataSourceException e) {
+        // the line is stored: re-compute the stock from the lines rather than lose the change
+        markStale();
+      }
+    }
+  }
+
+  /**
+   * @effects
+   *  mark the stock (in memory and, if possible, in the data source) to be re-computed from
+   *  the lines
+   */
+  private static void markStale() {
+    stale = true;
+    try {
+      table.markStale();
+    } catch (DataSourceException e) {
+      // it is still re-computed when it is next read by this run
+    }
+  }
+
+  /**
+   * @effects
+   *  return the stock on hand of coffee <tt>coffeeId</tt> (<tt>0</tt> if it has never been
+   *  imported nor sold)
+   *
+   *  <p>throws NotPossibleException if failed to load the stock from the data source.
+   */
+  public static synchronized long getStock(long coffeeId) throws NotPossibleException {
+    start();
+    if (stale) {
+      rebuild();
+    }
+
+    Long onHand = stock.get(coffeeId);
+    return (onHand != null) ? onHand : 0L;
+  }
+
+  /**
+   * @effects
+   *  return (a copy of) the stock on hand of all the coffees that have been imported or
+   *  sold, keyed by the coffee ids in ascending order
+   *
+   *  <p>throws NotPossibleException if failed to load the stock from the data source.
+   */
+  public static synchronized Map<Long, Long> getStocks() throws NotPossibleException {
+    start();
+    if (stale) {
+      rebuild();
+    }
+
+    return new TreeMap<>(stock);
+  }
+
+  /**
+   * @effects
+   *  re-compute the stock of all the coffees from the order lines in the data source and
+   *  replace the content of the ledger table and of this with it
+   *
+   *  <p>throws NotPossibleException if failed.
+   */
+  public static synchronized void rebuild() throws NotPossibleException {
+    try {
+      setStock(table.reload(getSqlSumOfLines()));
+    } catch (DataSourceException e) {
+      throw new NotPossibleException(NotPossibleException.Code.FAIL_TO_POST_UPDATE_OBJECT, e,
+          new Object[] {TABLE, "*"});
+    }
+
+    stale = false;
+  }
+
+  /**
+   * @effects
+   *  create the ledger table (filled from the order lines) if it does not exist, then
+   *  load the stock from it
+   */
+  private static void load() throws NotPossibleException {
+    try {
+      setStock(table.load(getSqlSumOfLines()));
+    } catch (DataSourceException e) {
+      throw new NotPossibleException(NotPossibleException.Code.FAIL_TO_POST_UPDATE_OBJECT, e,
+          new Object[] {TABLE, "*"});
+    }
+  }
+
+  private static void setStock(Map<Long, long[]> rows) {
+    stock.clear();
+    for (Map.Entry<Long, long[]> e : rows.entrySet()) {
+      stock.put(e.getKey(), e.getValue()[0]);
+    }
+  }
+
+  /**
+   * @effects
+   *  return the SQL query of the stock of each coffee, summed from the import and the sale
+   *  order lines in the data source
+   */
+  private static String getSqlSumOfLines() throws NotPossibleException {
+    DOMBasic dom = QRM.getInstance().getDom();
+    DSMBasic dsm = dom.getDsm();
+    RelationalOSMBasic osm = (RelationalOSMBasic) dom.getOsm();
+
+    return "select c, sum(q) from ("
+        + "select " + column(dsm, osm, DetailImOrder.class, "coffee") + ", "
+        + column(dsm, osm, DetailImOrder.class, "quantity")
+        + " from " + dsm.getDomainClassName(DetailImOrder.class)
+        + " union all select " + column(dsm, osm, DetailExOrder.class, "coffee") + ", -"
+        + column(dsm, osm, DetailExOrder.class, "quantity")
+        + " from " + dsm.getDomainClassName(DetailExOrder.class)
+        + ") as t (c, q) group by c";
+  }
+
+  private static String column(DSMBasic dsm, RelationalOSMBasic osm, Class<?> c, String attribName) {
+    return osm.toDBColumnName(c, dsm.getDomainConstraint(c, attribName), false);
+  }
+}
@@ -0,0 +1,77 @@
+package model.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * @overview
+ *  The <tt>n</tt> greatest of a stream of elements, according to a comparator.
+ *
+ *  <p>The elements are kept in a heap of at most <tt>n</tt> elements whose head is the least
+ *  of them, so offering an element takes <tt>O(log n)</tt> time and the memory used does
+ *  not depend on the number of elements offered.
+ *
+ * @version 1.0
+ */
+public final class TopN<T> {
+
+  private final int n;
+
+  private final Comparator<? super T> order;
+
+  /** the greatest elements offered so far, the least of them at the head */
+  private final PriorityQueue<T> heap;
+
+  /**
+   * @requires
+   *  n > 0
+   * @effects
+   *  initialise this as an empty top-<tt>n</tt> of the elements ordered by <tt>order</tt>
+   */
+  public TopN(int n, Comparator<? super T> order) {
+    this.n = n;
+    this.order = order;
+    this.heap = new PriorityQueue<>(n, order);
+  }
+
+  /**
+   * @effects
+   *  if <tt>e</tt> is among the <tt>n</tt> greatest elements offered to this
+   *    keep it (dropping the least kept element if this is full), return true
+   *  else
+   *    return false
+   */
+  public boolean offer(T e) {
+    if (heap.size() < n) {
+      heap.add(e);
+      return true;
+    } else if (order.compare(e, heap.peek()) > 0) {
+      heap.poll();
+      heap.add(e);
+      return true;
+    } else {
+      return false;
+    }
+  }
+
+  /**
+   * @effects
+   *  return the number of elements kept by this
+   */
+  public int size() {
+    return heap.size();
+  }
+
+  /**
+   * @effects
+   *  return the elements kept by this, the greatest first
+   */
+  public List<T> toList() {
+    List<T> result = new ArrayList<>(heap);
+    Collections.sort(result, Collections.reverseOrder(order));
+    return result;
+  }
+}
@@ -0,0 +1,355 @@
+package model.util;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import domainapp.basics.core.dodm.dom.DOMBasic;
+import domainapp.basics.core.dodm.dsm.DSMBasic;
+import domainapp.basics.core.dodm.osm.relational.RelationalOSMBasic;
+import domainapp.basics.core.dodm.qrm.QRM;
+import domainapp.basics.exceptions.DataSourceException;
+import domainapp.basics.exceptions.NotPossibleException;
+import domainapp.basics.model.Oid;
+import domainapp.basics.model.meta.DAttr;
+import domainapp.basics.util.events.ChangeEvent;
+import domainapp.basics.util.events.ChangeEventSource;
+import domainapp.basics.util.events.ChangeListener;
+
+/**
+ * @overview
+ *  An in-memory trigram index over a string attribute of a domain class (e.g.
+ *  <tt>Customer.fullName</tt>), used to find the objects whose attribute value contains a
+ *  given string (i.e. <tt>attrib like '%s%'</tt>) without scanning the table.
+ *
+ *  <p>The index maps each 3-character substring (trigram) of the values to the ids of the
+ *  objects whose value contains it. The candidates of a search string of 3 or more
+ *  characters are the objects that contain all of its trigrams; they are then checked
+ *  against the string itself. Shorter search strings are checked against the values kept
+ *  in the index.
+ *
+ *  <p>The index is built from the data source the first time it is searched (one pass
+ *  over the id and attribute columns) and is then kept up to date by listening to the
+ *  objects of the class that are created, updated or deleted in the object pool.
+ *
+ *  <p>As with the SQL <tt>like</tt> operator, the search is case-sensitive. The objects are
+ *  identified by their (<tt>long</tt>) ids.
+ *
+ * @version 1.0
+ */
+public class TrigramIndex<T> {
+
+  /** the length of the indexed substrings */
+  private static final int N = 3;
+
+  private final Class<T> cls;
+
+  private final String attribName;
+
+  /** the id attribute of {@link #cls} */
+  private DAttr idAttrib;
+
+  /** the indexed values, keyed by the object ids */
+  private final Map<Long, String> values = new HashMap<>();
+
+  /** the ids of the objects whose values contain each trigram */
+  private final Map<String, Set<Long>> postings = new HashMap<>();
+
+  private boolean listening;
+
+  /** the SQL that selects the ids and the indexed values of all the objects */
+  private String sql;
+
+  private boolean built;
+
+  /**
+   * @requires
+   *  <tt>attribName</tt> is a string attribute of <tt>c</tt>
+   * @effects
+   *  initialise this as an (unbuilt) index over the attribute <tt>attribName</tt> of <tt>c</tt>
+   */
+  public TrigramIndex(Class<T> c, String attribName) {
+    this.cls = c;
+    this.attribName = attribName;
+  }
+
+  /**
+   * @effects
+   *  return the objects whose attribute value contains <tt>s</tt> (in the order of their ids),
+   *  or <tt>null</tt> if there are none.
+   *
+   *  <p>throws DataSourceException if failed to build this or to load the objects;
+   *  NotPossibleException if the object store is not initialised.
+   */
+  public Map<Oid, T> retrieveObjects(String s) throws DataSourceException, NotPossibleException {
+    List<Oid> oids = searchOids(s);
+
+    if (oids.isEmpty()) {
+      return null;
+    }
+
+    return QRM.getInstance().getDom().retrieveObjects(cls, oids, null);
+  }
+
+  /**
+   * @effects
+   *  return the objects whose attribute value contains <tt>s</tt> (in the order of their ids)
+   *  as a result whose objects are loaded a page at a time when accessed, or <tt>null</tt>
+   *  if there are none. The keys of the result are the attribute values.
+   *
+   *  <p>throws DataSourceException if failed to build this;
+   *  NotPossibleException if the object store is not initialised.
+   */
+  public PagedResult<T> retrievePaged(String s) throws DataSourceException, NotPossibleException {
+    DOMBasic dom = QRM.getInstance().getDom();
+    List<Oid> oids = new ArrayList<>();
+    List<String> keys = new ArrayList<>();
+
+    // the keys are the attribute values (read while no change can be made to this)
+    synchronized (this) {
+      for (Long id : search(s)) {
+        oids.add(dom.genObjectId(cls, idAttrib, id));
+        keys.add(values.get(id));
+      }
+    }
+
+    if (oids.isEmpty()) {
+      return null;
+    }
+
+    return new PagedResult<>(cls, oids, keys);
+  }
+
+  /**
+   * @effects
+   *  return the ids of the objects whose attribute value contains <tt>s</tt>, in ascending order
+   */
+  private List<Oid> searchOids(String s) throws DataSourceException, NotPossibleException {
+    Collection<Long> ids = search(s);
+
+    DOMBasic dom = QRM.getInstance().getDom();
+    List<Oid> oids = new ArrayList<>(ids.size());
+    for (Long id : ids) {
+      oids.add(dom.genObjectId(cls, idAttrib, id));
+    }
+
+    return oids;
+  }
+
+  /**
+   * @effects
+   *  return the ids of the objects whose attribute value contains <tt>s</tt>, in ascending order
+   *  (none if <tt>s</tt> is <tt>null</tt>)
+   *
+   *  <p>throws DataSourceException if failed to build this;
+   *  NotPossibleException if the object store is not initialised.
+   */
+  public synchronized Collection<Long> search(String s) throws DataSourceException, NotPossibleException {
+    if (s == null) {
+      return new TreeSet<>();
+    }
+
+    if (!built) {
+      build();
+    }
+
+    Collection<Long> candidates;
+    if (s.length() < N) {
+      candidates = values.keySet();
+    } else {
+      candidates = null;
+      // start from the smallest posting list
+      for (int i = 0; i + N <= s.length(); i++) {
+        Set<Long> ids = postings.get(s.substring(i, i + N));
+        if (ids == null) {
+          return new TreeSet<>();
+        } else if (candidates == null || ids.size() < candidates.size()) {
+          candidates = ids;
+        }
+      }
+    }
+
+    TreeSet<Long> result = new TreeSet<>();
+    for (Long id : candidates) {
+      if (values.get(id).contains(s)) {
+        result.add(id);
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * @effects
+   *  if this has not been prepared
+   *    look up the id and the indexed attributes of {@link #cls} and start listening to the
+   *    changes of its objects
+   *
+   *  <p>This uses the object pool of the framework, but not the data source: a report that
+   *  searches this on another thread (see {@link ReportExecutor}) invokes this on the
+   *  calling thread first.
+   *
+   *  <p>throws NotPossibleException if the object store is not initialised.
+   */
+  public synchronized void prepare() throws NotPossibleException {
+    if (listening) {
+      return;
+    }
+
+    DOMBasic dom = QRM.getInstance().getDom();
+    DSMBasic dsm = dom.getDsm();
+    RelationalOSMBasic osm = (RelationalOSMBasic) dom.getOsm();
+
+    idAttrib = dsm.getIDDomainConstraints(cls).get(0);
+    DAttr attrib = dsm.getDomainConstraint(cls, attribName);
+    sql = "select " + osm.toDBColumnName(cls, idAttrib, false) + ", "
+        + osm.toDBColumnName(cls, attrib, false) + " from " + dsm.getDomainClassName(cls);
+
+    // listen before loading, so that no change made while loading is missed (the listener
+    // waits for the lock of this until the values are loaded)
+    dom.addChangeListener(cls, new ChangeListener() {
+      @Override
+      public void stateChanged(ChangeEvent e) {
+        update((ChangeEventSource) e.getSource());
+      }
+    });
+    listening = true;
+  }
+
+  /**
+   * @effects
+   *  prepare this (see {@link #prepare()}) and load the values of all the objects from the
+   *  data source into this
+   */
+  private void build() throws DataSourceException, NotPossibleException {
+    prepare();
+
+    Connection conn = DataSourceToolKit.getConnection();
+    synchronized (conn) {
+      PreparedStatement stmt = DataSourceToolKit.prepare(sql);
+      try {
+        ResultSet rs = stmt.executeQuery();
+        try {
+          while (rs.next()) {
+            put(rs.getLong(1), rs.getString(2));
+          }
+        } finally {
+          rs.close();
+        }
+      } catch (SQLException e) {
+        throw new DataSourceException(DataSourceException.Code.FAIL_TO_EXECUTE_QUERY, e,
+            new Object[] {sql});
+      }
+    }
+
+    built = true;
+  }
+
+  /**
+   * @effects
+   *  update this with the objects of <tt>src</tt>, which have been created, updated or deleted
+   */
+  private synchronized void update(ChangeEventSource src) {
+    if (!built) {
+      // the values will be loaded when this is built
+      return;
+    }
+
+    DSMBasic dsm = QRM.getInstance().getDom().getDsm();
+
+    for (Object o : src.getObjects()) {
+      if (!cls.isInstance(o)) {
+        continue;
+      }
+
+      Long id = ((Number) dsm.getAttributeValue(o, idAttrib.name())).longValue();
+      if (src.isDelete()) {
+        remove(id);
+      } else {
+        put(id, (String) dsm.getAttributeValue(o, attribName));
+      }
+    }
+  }
+
+  /**
+   * @effects
+   *  index the object <tt>id</tt> under <tt>value</tt>, replacing its previous value (if any)
+   */
+  private void put(Long id, String value) {
+    String old = values.get(id);
+    if (old != null && old.equals(value)) {
+      return;
+    }
+
+    remove(id);
+
+    if (value == null) {
+      return;
+    }
+
+    values.put(id, value);
+    for (String t : trigramsOf(value)) {
+      Set<Long> ids = postings.get(t);
+      if (ids == null) {
+        ids = new HashSet<>();
+        postings.put(t, ids);
+      }
+      ids.add(id);
+    }
+  }
+
+  /**
+   * @effects
+   *  remove the object <tt>id</tt> from this
+   */
+  private void remove(Long id) {
+    String old = values.remove(id);
+    if (old == null) {
+      return;
+    }
+
+    for (String t : trigramsOf(old)) {
+      Set<Long> ids = postings.get(t);
+      if (ids != null) {
+        ids.remove(id);
+        if (ids.isEmpty()) {
+          postings.remove(t);
+        }
+      }
+    }
+  }
+
+  /**
+   * @effects
+   *  return the distinct trigrams of <tt>s</tt>
+   */
+  private static Set<String> trigramsOf(String s) {
+    Set<String> result = new HashSet<>();
+    for (int i = 0; i + N <= s.length(); i++) {
+      result.add(s.substring(i, i + N));
+    }
+    return result;
+  }
+
+  /**
+   * @effects
+   *  return the number of objects in this
+   */
+  public synchronized int size() {
+    return values.size();
+  }
+
+  @Override
+  public String toString() {
+    return "TrigramIndex(" + cls.getSimpleName() + "." + attribName + ")";
+  }
+}
@@ -1,87 +1,176 @@
-package software;
-
-
-import domainapp.basics.exceptions.NotPossibleException;
-import domainapp.basics.software.DomainAppToolSoftware;
-import model.Address;
-import model.Coffee;
-import model.Customer;
-import model.DetailExOrder;
-import model.DetailImOrder;
-import model.District;
-import model.ImportOrder;
-import model.Importer;
-import model.SaleOrder;
-import model.Seller;
-import model.Street;
-import model.Supplier;
-import model.TypeOfCoffee;
-import model.report.CoffeesByTypeReport;
-import model.report.CustomersByNameReport;
-import model.report.ImportOrdersByDateReport;
-import model.report.SaleOrdersByDateReport;
-import model.report.SuppliersByNameReport;
-
-
-
-/**
- * @overview 
- *  Encapsulate the basic functions for setting up and running a software given its domain model.  
- *  
- * @author dmle
- *
- * @version 
- */
-public class CoffeeSoftware extends DomainAppToolSoftware {
-  
-  // the domain model of software
-  private static final Class[] model = {
-	  Coffee.class,
-	  Address.class,
-	  Street.class,
-	  District.class,
-	  Importer.class,
-	  ImportOrder.class,
-	  Supplier.class,
-	  Customer.class,
-	  SaleOrder.class,
-	  DetailExOrder.class,
-	  Seller.class,
-	  DetailImOrder.class,
-	  TypeOfCoffee.class,
-	  CustomersByNameReport.class,
-	  CoffeesByTypeReport.class,
-	  SuppliersByNameReport.class,
-	  ImportOrdersByDateReport.class,
-	  SaleOrdersByDateReport.class
-      
-
-      // reports
- 
-  };
-  
-  /* (non-Javadoc)
-   * @see vn.com.courseman.software.Software#getModel()
-   */
-  /**
-   * @effects 
-   *  return {@link #model}.
-   */
-  @Override
-  protected Class[] getModel() {
-    return model;
-  }
-
-  /**
-   * The main method
-   * @effects 
-   *  run software with a command specified in args[0] and with the model 
-   *  specified by {@link #getModel()}. 
-   *  
-   *  <br>Throws NotPossibleException if failed for some reasons.
-   */
-  public static void main(String[] args) throws NotPossibleException {
-    new CoffeeSoftware().exec(args);
-  }
-}
-
+package software;
+
+
+import domainapp.basics.core.ControllerBasic;
+import domainapp.basics.core.ControllerBasic.DataController;
+import domainapp.basics.exceptions.NotPossibleException;
+import domainapp.basics.software.DomainAppToolSoftware;
+import model.Address;
+import model.Coffee;
+import model.Customer;
+import model.DetailExOrder;
+import model.DetailImOrder;
+import model.District;
+import model.ImportOrder;
+import model.Importer;
+import model.SaleOrder;
+import model.Seller;
+import model.Street;
+import model.Supplier;
+import model.TypeOfCoffee;
+import model.report.BestSeller;
+import model.report.BestSellersReport;
+import model.report.CoffeeMargin;
+import model.report.CoffeeStock;
+import model.report.CoffeesByTypeReport;
+import model.report.CustomerRfm;
+import model.report.CustomerSegmentsReport;
+import model.report.CustomersByNameReport;
+import model.report.ImportOrdersByDateReport;
+import model.report.MarginReport;
+import model.report.PeriodRevenue;
+import model.report.SaleOrdersByDateReport;
+import model.report.SalesRevenueReport;
+import model.report.SellerLeaderboardReport;
+import model.report.SellerSales;
+import model.report.StockReport;
+import model.report.SupplierAnalyticsReport;
+import model.report.SupplierCoffeePurchases;
+import model.report.SupplierPurchases;
+import model.report.SuppliersByNameReport;
+import model.util.CostLedger;
+import model.util.ReportExecutor;
+import model.util.SellerLeaderboard;
+import model.util.StockLedger;
+
+
+
+/**
+ * @overview 
+ *  Encapsulate the basic functions for setting up and running a software given its domain model.  
+ *  
+ * @author dmle
+ *
+ * @version 
+ */
+public class CoffeeSoftware extends DomainAppToolSoftware {
+  
+  // the domain model of software
+  private static final Class[] model = {
+	  Coffee.class,
+	  Address.class,
+	  Street.class,
+	  District.class,
+	  Importer.class,
+	  ImportOrder.class,
+	  Supplier.class,
+	  Customer.class,
+	  SaleOrder.class,
+	  DetailExOrder.class,
+	  Seller.class,
+	  DetailImOrder.class,
+	  TypeOfCoffee.class,
+	  CustomersByNameReport.class,
+	  CoffeesByTypeReport.class,
+	  SuppliersByNameReport.class,
+	  ImportOrdersByDateReport.class,
+	  SaleOrdersByDateReport.class,
+	  PeriodRevenue.class,
+	  SalesRevenueReport.class,
+	  CoffeeStock.class,
+	  StockReport.class,
+	  BestSeller.class,
+	  BestSellersReport.class,
+	  SupplierPurchases.class,
+	  SupplierCoffeePurchases.class,
+	  SupplierAnalyticsReport.class,
+	  SellerSales.class,
+	  SellerLeaderboardReport.class,
+	  CustomerRfm.class,
+	  CustomerSegmentsReport.class,
+	  CoffeeMargin.class,
+	  MarginReport.class
+      
+
+      // reports
+ 
+  };
+  
+  /* (non-Javadoc)
+   * @see vn.com.courseman.software.Software#getModel()
+   */
+  /**
+   * @effects 
+   *  return {@link #model}.
+   */
+  @Override
+  protected Class[] getModel() {
+    return model;
+  }
+
+  /**
+   * The main method
+   * @effects 
+   *  run software with a command specified in args[0] and with the model 
+   *  specified by {@link #getModel()}. 
+   *  
+   *  <br>Throws NotPossibleException if failed for some reasons.
+   */
+  public static void main(String[] args) throws NotPossibleException {
+    // the reports run their queries in the background: show their results when they complete
+    ReportExecutor.addListener(new ReportFormUpdater());
+
+    new CoffeeSoftware().exec(args);
+
+    // the ledgers are loaded from the stored orders once the object pool has been set up and 
+    // connected to the data source (they are not started if it is not available)
+    StockLedger.start();
+    CostLedger.start();
+    SellerLeaderboard.start();
+  }
+
+  /**
+   * @overview
+   *  Update the form of a report when its query has completed (on the event dispatch thread, 
+   *  see {@link ReportExecutor}).
+   */
+  private static class ReportFormUpdater implements ReportExecutor.ReportListener {
+    /**
+     * @effects 
+     *  if <tt>report</tt> is shown in its form
+     *    update the form (and its output) with the attribute values of <tt>report</tt>
+     */
+    @Override
+    public void published(Object report) {
+      DataController<?> dctl = lookUpDataController(report);
+      if (dctl != null && dctl.getCurrentObject() == report) {
+        dctl.updateGUI(Boolean.TRUE);
+      }
+    }
+
+    /**
+     * @effects 
+     *  if <tt>report</tt> has a form
+     *    display <tt>e</tt> on it
+     */
+    @Override
+    public void failed(Object report, Exception e) {
+      ControllerBasic<?> ctl = ControllerBasic.lookUp(report.getClass());
+      if (ctl != null) {
+        ctl.displayErrorFromCode(NotPossibleException.Code.FAIL_TO_PERFORM_REPORT, e, 
+            report.getClass().getSimpleName());
+      }
+    }
+
+    /**
+     * @effects 
+     *  return the data controller of the form of the class of <tt>report</tt>, or 
+     *  <tt>null</tt> if there is none
+     */
+    private static DataController<?> lookUpDataController(Object report) {
+      ControllerBasic<?> ctl = ControllerBasic.lookUp(report.getClass());
+      return (ctl != null) ? ctl.getRootDataController() : null;
+    }
+  }
+}
+